@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes matrix-run build.xml files from {@link JobsTreeGenerator} and checks them against build.xsd, so
+ * the benchmarks parse the same documents as the JAXB classes.
+ *
+ * @author kearls
+ */
+public class BuildXmlFixtures {
+    private static Schema schema = null;
+
+    /**
+     * @param number build number, build.xsd only allows a byte
+     * @param culprits number of culprits listed, which is what makes real build.xml files large
+     */
+    public static String buildXml(int number, String result, int duration, int failCount, int totalCount, int culprits) {
+        return JobsTreeGenerator.buildXml("camel-6.1-platform", "ubuntu", number, result, duration, true, failCount, totalCount, culprits);
+    }
+
+    /**
+     * Write a build.xml into the build directory, after checking it against build.xsd
+     */
+    public static File write(File buildDirectory, String buildXml) throws IOException {
+        validate(buildXml);
+        Files.createDirectories(buildDirectory.toPath());
+        File buildFile = new File(buildDirectory, "build.xml");
+        Files.write(buildFile.toPath(), buildXml.getBytes(StandardCharsets.UTF_8));
+        return buildFile;
+    }
+
+    public static synchronized void validate(String buildXml) throws IOException {
+        try {
+            if (schema == null) {
+                SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                schema = factory.newSchema(BuildXmlFixtures.class.getResource("/build.xsd"));
+            }
+            schema.newValidator().validate(new StreamSource(new StringReader(buildXml)));
+        } catch (SAXException e) {
+            throw new IOException("Fixture doesn't match build.xsd: " + e.getMessage(), e);
+        }
+    }
+}
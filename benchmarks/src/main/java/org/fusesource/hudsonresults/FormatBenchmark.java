@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting the run date and duration shown in every cell of the summary.
+ *
+ * @author kearls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private BuildResult buildResult;
+    private final StringBuilder builder = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        buildResult = new BuildResult("camel-6.1-platform", "2013-09-08_00-07-19", "jdk6", "ubuntu", "UNSTABLE", 1200, 3, 3456789, 42);
+    }
+
+    @Benchmark
+    public String getFormattedRunDate() {
+        return buildResult.getFormattedRunDate();
+    }
+
+    @Benchmark
+    public String getFormattedDuration() {
+        return buildResult.getFormattedDuration();
+    }
+
+    @Benchmark
+    public int appendFormattedDuration() {
+        builder.setLength(0);
+        return buildResult.appendFormattedDuration(builder).length();
+    }
+
+    @Benchmark
+    public BuildResult create() {
+        return new BuildResult("camel-6.1-platform", "2013-09-08_00-07-19", "jdk6", "ubuntu", "UNSTABLE", 1200, 3, 3456789, 42);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the latest build in builds/ directories of different sizes, with the lastCompletedBuild
+ * permalink, with only nextBuildNumber and the numbered symlinks, and with nothing but the build directories.
+ *
+ * @author kearls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatestBuildBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int builds;
+
+    @Param({"permalink", "nextBuildNumber", "scan"})
+    public String metadata;
+
+    private File root;
+    private File buildsDirectory;
+    private SummarizeBuildResults summarizer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("latest-build-benchmark").toFile();
+        buildsDirectory = new File(root, "builds");
+        Path buildsPath = buildsDirectory.toPath();
+        Files.createDirectories(buildsPath);
+
+        // One build a day, numbered from 1, each with the numbered symlink Hudson makes
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+        long start = format.parse("2000-01-01_00-07-19").getTime();
+        String name = null;
+        for (int number = 1; number <= builds; number++) {
+            name = format.format(new Date(start + number * TimeUnit.DAYS.toMillis(1)));
+            File buildDirectory = new File(buildsDirectory, name);
+            BuildXmlFixtures.write(buildDirectory, BuildXmlFixtures.buildXml(number % 128, "SUCCESS", 1000, 0, 100, 0));
+            if (!"scan".equals(metadata)) {
+                Files.createSymbolicLink(buildsPath.resolve(Integer.toString(number)), buildsPath.resolve(name).getFileName());
+            }
+        }
+        if (!"scan".equals(metadata)) {
+            Files.write(root.toPath().resolve("nextBuildNumber"), (builds + 1 + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        if ("permalink".equals(metadata)) {
+            Files.createSymbolicLink(buildsPath.resolve("lastCompletedBuild"), buildsPath.resolve(Integer.toString(builds)).getFileName());
+        }
+        summarizer = new SummarizeBuildResults();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public File getLatestBuildDirectory() throws Exception {
+        return summarizer.getLatestBuildDirectory(buildsDirectory);
+    }
+}
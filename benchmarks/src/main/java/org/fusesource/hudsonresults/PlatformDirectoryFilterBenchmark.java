@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting project directories with {@link PlatformDirectoryFilter}, over a mix of names which do and
+ * don't match the default expression.  Each invocation filters all of the names.
+ *
+ * @author kearls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlatformDirectoryFilterBenchmark {
+    private static final String[] NAMES = {
+            "camel-2.12.0.redhat-6-1-x-stable-platform", "cxf-2.7.0.redhat-6-1-x-stable-platform",
+            "activemq-5.9.0.redhat-6-1-x-stable-platform", "karaf-2.3.0.redhat-6-1-x-stable-platform",
+            "camel-2.10.0.fuse-7-1-x-stable-platform", "cxf-2.6.0.fuse-7-1-x-stable-platform",
+            "camel-trunk", "fuse-esb-7-1-x-stable", "servicemix-4.5.x", "fabric-deploy-nightly",
+    };
+
+    private File[] directories;
+    private PlatformDirectoryFilter filter;
+
+    @Setup
+    public void setUp() {
+        directories = new File[NAMES.length * 10];
+        for (int i = 0; i < directories.length; i++) {
+            directories[i] = new File("/mnt/hudson/jobs", NAMES[i % NAMES.length] + (i < NAMES.length ? "" : "-" + i));
+        }
+        filter = new PlatformDirectoryFilter(SummarizeBuildResults.ACCEPT_STRING_RH_6_1);
+    }
+
+    @Benchmark
+    public void accept(Blackhole blackhole) {
+        for (File directory : directories) {
+            blackhole.consume(filter.accept(directory));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the HTML summary for result maps of different sizes, written to a writer which discards it
+ * so only the rendering is measured.
+ *
+ * @author kearls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SummaryBenchmark {
+    private static final String[] JDKS = {"jdk6", "jdk7", "jdk8"};
+    private static final String[] PLATFORMS = {"ubuntu", "windows", "aix7", "rhel"};
+    private static final String[] RESULTS = {"SUCCESS", "SUCCESS", "SUCCESS", "UNSTABLE", "FAILURE"};
+
+    @Param({"100", "1000"})
+    public int projects;
+
+    private Map<String, List<BuildResult>> allResults;
+    private SummarizeBuildResults summarizer;
+
+    @Setup
+    public void setUp() {
+        allResults = new HashMap<>();
+        int n = 0;
+        for (int project = 0; project < projects; project++) {
+            String name = "project-" + project + "-6-1-x-stable-platform";
+            List<BuildResult> results = new ArrayList<>();
+            for (String jdk : JDKS) {
+                for (String platform : PLATFORMS) {
+                    String result = RESULTS[n++ % RESULTS.length];
+                    int testsRun = "FAILURE".equals(result) ? 0 : 1200;
+                    int failed = "UNSTABLE".equals(result) ? n % 17 + 1 : 0;
+                    results.add(new BuildResult(name, "2013-09-08_00-07-19", jdk, platform, result, testsRun, failed, 3456789 + n, n % 500 + 1));
+                }
+            }
+            allResults.put(name, results);
+        }
+        summarizer = new SummarizeBuildResults();
+    }
+
+    @Benchmark
+    public void createHTMLSummary() throws Exception {
+        summarizer.createHTMLSummary(new NullWriter(), allResults);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Every file we save is written to a temporary file next to it and moved into place, so a reader, or
+ * the next run after a crash, sees either the old file or the new one and never part of one.  Our own
+ * binary files also end with a CRC32 of everything before it, which their readers check.
+ *
+ * @author kearls
+ */
+final class AtomicFiles {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the contents of a file
+     */
+    interface IOConsumer<T> {
+        void accept(T out) throws IOException;
+    }
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Write a binary file followed by the CRC32 of what was written
+     */
+    static void write(File file, final IOConsumer<DataOutputStream> contents) throws IOException {
+        replace(file, false, new IOConsumer<FileOutputStream>() {
+            @Override
+            public void accept(FileOutputStream stream) throws IOException {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                contents.accept(out);
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+            }
+        });
+    }
+
+    /**
+     * Write a binary file without a CRC, for files which are memory mapped or too small to need one
+     *
+     * @param sync true to have the contents on disk before the file is moved into place
+     */
+    static void writeUnchecked(File file, boolean sync, final IOConsumer<DataOutputStream> contents) throws IOException {
+        replace(file, sync, new IOConsumer<FileOutputStream>() {
+            @Override
+            public void accept(FileOutputStream stream) throws IOException {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+                contents.accept(out);
+                out.flush();
+            }
+        });
+    }
+
+    /**
+     * Write a text file.  The writer may be closed by contents.
+     */
+    static void writeText(File file, final Charset charset, final IOConsumer<Writer> contents) throws IOException {
+        replace(file, false, new IOConsumer<FileOutputStream>() {
+            @Override
+            public void accept(FileOutputStream stream) throws IOException {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(stream, charset), BUFFER_SIZE);
+                try {
+                    contents.accept(writer);
+                } finally {
+                    writer.close();
+                }
+            }
+        });
+    }
+
+    private static void replace(File file, boolean sync, IOConsumer<FileOutputStream> contents) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                contents.accept(stream);
+                if (sync) {
+                    stream.getFD().sync();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
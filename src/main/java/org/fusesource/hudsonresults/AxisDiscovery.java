@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the configurations a matrix project actually has by walking its configurations/ tree once:
+ * <pre>
+ *     configurations/axis-jdk/jdk6/axis-label/ubuntu/builds
+ * </pre>
+ * Directories are recognised by name (axis-* and builds), so nothing is stat'ed along the way.  A project
+ * without a configurations/ directory is remembered as such by the {@link FileSystemAccess}.
+ *
+ * @author kearls
+ */
+public class AxisDiscovery {
+    private static final String CONFIGURATIONS = "configurations";
+    private static final String AXIS_PREFIX = "axis-";
+    private static final String BUILDS = "builds";
+
+    private final AxisRegistry registry;
+    private final FileSystemAccess access;
+
+    public AxisDiscovery(AxisRegistry registry) {
+        this(registry, FileSystemAccess.direct());
+    }
+
+    public AxisDiscovery(AxisRegistry registry, FileSystemAccess access) {
+        this.registry = registry;
+        this.access = access;
+    }
+
+    /**
+     * @param projectDirectory a project directory under the Hudson jobs root
+     * @return the configurations of the project, each of which has been added to the registry
+     */
+    public List<Configuration> discover(File projectDirectory) throws IOException {
+        List<Configuration> configurations = new ArrayList<>();
+        Path root = projectDirectory.toPath().resolve(CONFIGURATIONS);
+        walk(projectDirectory.getName(), root, true, new LinkedHashMap<String, String>(), configurations);
+        return configurations;
+    }
+
+    /**
+     * @param directory either configurations/ or an axis value directory
+     * @param rememberMissing true for configurations/, which non-matrix projects don't have
+     */
+    private void walk(String projectName, Path directory, boolean rememberMissing, LinkedHashMap<String, String> axes,
+                      List<Configuration> configurations) throws IOException {
+        List<Path> axisDirectories = new ArrayList<>();
+        boolean hasBuilds = false;
+        try {
+            List<Path> children = access.list(directory, rememberMissing);
+            ScanMetrics.get().directoryListed();
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                if (name.startsWith(AXIS_PREFIX)) {
+                    axisDirectories.add(child);
+                } else if (BUILDS.equals(name) && !axes.isEmpty()) {
+                    hasBuilds = true;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;     // not a matrix project, or a value directory without builds yet
+        }
+
+        if (hasBuilds) {
+            Configuration configuration = new Configuration(projectName, axes, directory.resolve(BUILDS).toFile());
+            registry.register(configuration);
+            configurations.add(configuration);
+        }
+
+        for (Path axisDirectory : axisDirectories) {
+            String axisName = axisDirectory.getFileName().toString().substring(AXIS_PREFIX.length());
+            List<Path> values;
+            try {
+                values = access.list(axisDirectory, false);
+                ScanMetrics.get().directoryListed();
+            } catch (NoSuchFileException e) {
+                continue;   // removed while we were looking at it
+            } catch (FileSystemAccess.UnreachableException e) {
+                throw e;
+            } catch (IOException e) {
+                // axis-* that is a plain file, or something we can't read
+                System.err.println("Skipping " + axisDirectory + ": " + e);
+                continue;
+            }
+            for (Path valueDirectory : values) {
+                LinkedHashMap<String, String> childAxes = new LinkedHashMap<>(axes);
+                childAxes.put(axisName, valueDirectory.getFileName().toString());
+                walk(projectName, valueDirectory, false, childAxes, configurations);
+            }
+        }
+    }
+}
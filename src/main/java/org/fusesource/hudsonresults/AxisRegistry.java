@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The axes, axis values and jdk/platform combinations found while scanning.  This replaces the old
+ * JDK and PLATFORM enums, so a new jdk or label shows up in the summary as soon as Hudson builds it.
+ *
+ * @author kearls
+ */
+public class AxisRegistry {
+    public static final String JDK_AXIS = "jdk";
+    public static final String LABEL_AXIS = "label";
+
+    // Platforms we had before the registry keep their old column order, anything new is sorted after them
+    private static final List<String> PREFERRED_PLATFORM_ORDER = Arrays.asList("ubuntu", "windows", "aix7", "Solaris", "rhel", "rhel_oracle");
+
+    private final ConcurrentMap<String, Set<String>> axisValues = new ConcurrentHashMap<>();
+    private final Set<JdkPlatformTuple> combinations = Collections.newSetFromMap(new ConcurrentHashMap<JdkPlatformTuple, Boolean>());
+
+    public void register(Configuration configuration) {
+        for (Map.Entry<String, String> axis : configuration.getAxes().entrySet()) {
+            Set<String> values = axisValues.get(axis.getKey());
+            if (values == null) {
+                Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                values = axisValues.putIfAbsent(axis.getKey(), created);
+                if (values == null) {
+                    values = created;
+                }
+            }
+            values.add(axis.getValue());
+        }
+        register(configuration.getJdk(), configuration.getPlatform());
+    }
+
+    public void register(String jdk, String platform) {
+        combinations.add(new JdkPlatformTuple(jdk, platform));
+    }
+
+    /**
+     * @return names of the axes seen, i.e. jdk and label
+     */
+    public List<String> getAxes() {
+        List<String> axes = new ArrayList<>(axisValues.keySet());
+        Collections.sort(axes);
+        return axes;
+    }
+
+    /**
+     * @return the values seen for an axis, sorted
+     */
+    public List<String> getValues(String axis) {
+        Set<String> values = axisValues.get(axis);
+        List<String> sorted = values == null ? new ArrayList<String>() : new ArrayList<>(values);
+        Collections.sort(sorted, LABEL_AXIS.equals(axis) ? PLATFORM_ORDER : VALUE_ORDER);
+        return sorted;
+    }
+
+    /**
+     * @return every jdk/platform combination seen, in column order: by platform, then jdk
+     */
+    public List<JdkPlatformTuple> getCombinations() {
+        List<JdkPlatformTuple> sorted = new ArrayList<>(combinations);
+        Collections.sort(sorted, COLUMN_ORDER);
+        return sorted;
+    }
+
+    static final Comparator<String> VALUE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            int value = first.compareToIgnoreCase(second);
+            return value != 0 ? value : first.compareTo(second);
+        }
+    };
+
+    static final Comparator<String> PLATFORM_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            int firstIndex = preferredIndex(first);
+            int secondIndex = preferredIndex(second);
+            if (firstIndex != secondIndex) {
+                return firstIndex < secondIndex ? -1 : 1;
+            }
+            return VALUE_ORDER.compare(first, second);
+        }
+
+        private int preferredIndex(String platform) {
+            int index = PREFERRED_PLATFORM_ORDER.indexOf(platform);
+            return index < 0 ? PREFERRED_PLATFORM_ORDER.size() : index;
+        }
+    };
+
+    static final Comparator<JdkPlatformTuple> COLUMN_ORDER = new Comparator<JdkPlatformTuple>() {
+        @Override
+        public int compare(JdkPlatformTuple first, JdkPlatformTuple second) {
+            int platformValue = PLATFORM_ORDER.compare(first.getPlatform(), second.getPlatform());
+            return platformValue != 0 ? platformValue : VALUE_ORDER.compare(first.getJdk(), second.getJdk());
+        }
+    };
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser for a matrix-run build.xml.  Only reads the handful of fields we report on
+ * (number, result, duration and the junit failCount/totalCount), skips every other subtree
+ * and stops as soon as it has seen them all.
+ *
+ * @author kearls
+ */
+public class BuildFileExtractor {
+    private static final String ACTIONS = "actions";
+    private static final String JUNIT_ACTION = "hudson.tasks.junit.TestResultAction";
+    private static final String NUMBER = "number";
+    private static final String RESULT = "result";
+    private static final String DURATION = "duration";
+    private static final String FAIL_COUNT = "failCount";
+    private static final String TOTAL_COUNT = "totalCount";
+
+    // XMLInputFactory is thread safe once configured; the readers it creates are not.
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    private final FileSystemAccess access;
+
+    public BuildFileExtractor() {
+        this(FileSystemAccess.direct());
+    }
+
+    public BuildFileExtractor(FileSystemAccess access) {
+        this.access = access;
+    }
+
+    /**
+     * Read a BuildResult from the build.xml file
+     *
+     * @param buildFile build.xml for a particular test run
+     * @param name project name
+     * @param runDate name of the build directory, i.e. 2012-11-02_21-09-35
+     * @param jdk jdk axis of the run
+     * @param platform label axis of the run
+     * @return the result of the run
+     * @throws XMLStreamException if the file isn't a well formed matrix-run up to the fields we need
+     * @throws IOException
+     */
+    public BuildResult extract(File buildFile, String name, String runDate, String jdk, String platform) throws XMLStreamException, IOException {
+        try (InputStream in = access.open(buildFile.toPath())) {
+            return extract(in, name, runDate, jdk, platform);
+        }
+    }
+
+    public BuildResult extract(InputStream in, String name, String runDate, String jdk, String platform) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        try {
+            Integer number = null;
+            String result = null;
+            Integer duration = null;
+            boolean junitFound = false;
+            int failCount = 0;
+            int totalCount = 0;
+
+            // Move to <matrix-run>
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            }
+            if (!reader.isStartElement()) {
+                throw new XMLStreamException("No root element");
+            }
+
+            while (reader.hasNext() && (number == null || result == null || duration == null)) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    break;   // end of <matrix-run>
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String element = reader.getLocalName();
+                if (NUMBER.equals(element)) {
+                    number = Integer.valueOf(reader.getElementText().trim());
+                } else if (RESULT.equals(element)) {
+                    result = reader.getElementText().trim();
+                } else if (DURATION.equals(element)) {
+                    duration = Integer.valueOf(reader.getElementText().trim());
+                } else if (ACTIONS.equals(element)) {
+                    // Only the junit action is interesting, skip causes, git BuildData, etc.
+                    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        if (JUNIT_ACTION.equals(reader.getLocalName())) {
+                            junitFound = true;
+                            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                                String field = reader.getLocalName();
+                                if (FAIL_COUNT.equals(field)) {
+                                    failCount = Integer.parseInt(reader.getElementText().trim());
+                                } else if (TOTAL_COUNT.equals(field)) {
+                                    totalCount = Integer.parseInt(reader.getElementText().trim());
+                                } else {
+                                    skipElement(reader);
+                                }
+                            }
+                        } else {
+                            skipElement(reader);
+                        }
+                    }
+                } else {
+                    skipElement(reader);
+                }
+            }
+
+            if (number == null || result == null) {
+                throw new XMLStreamException("Missing number or result in matrix-run");
+            }
+
+            // Same as the JAXB path: without a junit action we report 0/0 and no duration
+            if (junitFound) {
+                return new BuildResult(name, runDate, jdk, platform, result, totalCount, failCount, duration == null ? 0 : duration, number);
+            } else {
+                return new BuildResult(name, runDate, jdk, platform, result, 0, 0, 0, number);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Skip the element the reader is positioned on, including all of its children.
+     */
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+/**
+ * The last N builds of one configuration, kept in parallel primitive arrays used as a ring buffer
+ * so that memory per cell is fixed no matter how many builds are read.  Builds are added oldest first.
+ *
+ * @author kearls
+ */
+public class BuildHistory {
+    public static final byte SUCCESS = 0;
+    public static final byte UNSTABLE = 1;
+    public static final byte FAILURE = 2;
+    public static final byte ABORTED = 3;
+    public static final byte NOT_BUILT = 4;
+
+    private final int[] numbers;
+    private final byte[] results;
+    private final int[] failCounts;
+    private final int[] totalCounts;
+    private final int[] durations;
+    private final long[] startTimes;
+    private int next = 0;       // slot the next build goes into
+    private int size = 0;
+
+    public BuildHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("History must hold at least one build");
+        }
+        numbers = new int[capacity];
+        results = new byte[capacity];
+        failCounts = new int[capacity];
+        totalCounts = new int[capacity];
+        durations = new int[capacity];
+        startTimes = new long[capacity];
+    }
+
+    /**
+     * Add a build, replacing the oldest one if the history is full
+     */
+    public void add(BuildResult buildResult) {
+        add(buildResult.getBuildNumber(), buildResult.getStatus().code(), buildResult.getFailedTests(), buildResult.getTestsRun(),
+                buildResult.getDuration(), buildResult.getStartTime());
+    }
+
+    public void add(int number, byte result, int failCount, int totalCount, int duration, long startTime) {
+        numbers[next] = number;
+        results[next] = result;
+        failCounts[next] = failCount;
+        totalCounts[next] = totalCount;
+        durations[next] = duration;
+        startTimes[next] = startTime;
+        next = (next + 1) % numbers.length;
+        if (size < numbers.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return numbers.length;
+    }
+
+    /**
+     * @param age 0 for the newest build, 1 for the one before it, ...
+     */
+    private int slot(int age) {
+        if (age < 0 || age >= size) {
+            throw new IndexOutOfBoundsException("No build " + age + " back, history holds " + size);
+        }
+        return ((next - 1 - age) % numbers.length + numbers.length) % numbers.length;
+    }
+
+    public int getNumber(int age) {
+        return numbers[slot(age)];
+    }
+
+    public byte getResult(int age) {
+        return results[slot(age)];
+    }
+
+    public int getFailCount(int age) {
+        return failCounts[slot(age)];
+    }
+
+    public int getTotalCount(int age) {
+        return totalCounts[slot(age)];
+    }
+
+    public int getDuration(int age) {
+        return durations[slot(age)];
+    }
+
+    /**
+     * @return start of the build in milliseconds since the epoch, or 0 if not known
+     */
+    public long getStartTime(int age) {
+        return startTimes[slot(age)];
+    }
+
+    private boolean passed(int age) {
+        return results[slot(age)] == SUCCESS;
+    }
+
+    /**
+     * @return percentage of the builds in the history which passed
+     */
+    public int getPassPercentage() {
+        if (size == 0) {
+            return 0;
+        }
+        int passed = 0;
+        for (int age = 0; age < size; age++) {
+            if (passed(age)) {
+                passed++;
+            }
+        }
+        return passed * 100 / size;
+    }
+
+    /**
+     * @return number of times the configuration went from passing to failing or back
+     */
+    public int getFlips() {
+        int flips = 0;
+        for (int age = 1; age < size; age++) {
+            if (passed(age) != passed(age - 1)) {
+                flips++;
+            }
+        }
+        return flips;
+    }
+
+    /**
+     * @return flips as a fraction of the possible flips, 0 for a stable configuration and 1 when every build changes
+     */
+    public double getFlipRate() {
+        return size < 2 ? 0 : (double) getFlips() / (size - 1);
+    }
+
+    /**
+     * @return number of builds, counting back from the newest, that did not pass
+     */
+    public int getFailureStreak() {
+        int streak = 0;
+        while (streak < size && !passed(streak)) {
+            streak++;
+        }
+        return streak;
+    }
+
+    /**
+     * @return the longest run of builds in the history that did not pass
+     */
+    public int getLongestFailureStreak() {
+        int longest = 0;
+        int current = 0;
+        for (int age = size - 1; age >= 0; age--) {
+            current = passed(age) ? 0 : current + 1;
+            longest = Math.max(longest, current);
+        }
+        return longest;
+    }
+}
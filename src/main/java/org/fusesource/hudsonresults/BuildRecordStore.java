@@ -0,0 +1,440 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only store of every build we have seen, so reports can be produced without walking the
+ * Hudson jobs tree.  Each field is a fixed width column in its own file, read through memory mapped
+ * buffers; project, jdk and platform names are kept as ids in a small string dictionary.
+ * <p>
+ * Appends are made crash safe by writing the columns first and only then the record count, which is
+ * replaced atomically.  When the store is opened, anything in the columns beyond the committed count
+ * (a partial append) is truncated.
+ *
+ * @author kearls
+ */
+public class BuildRecordStore implements Closeable {
+    private static final String DICTIONARY = "strings.dict";
+    private static final String COUNT = "count";
+    /**
+     * The columns, with the width of one value in bytes
+     */
+    enum Column {
+        project(4), jdk(4), platform(4), number(4), time(8), duration(4), failCount(4), totalCount(4), result(1);
+
+        final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+    }
+
+    private final File directory;
+    private final FileChannel[] channels = new FileChannel[Column.values().length];
+    private final MappedByteBuffer[] mapped = new MappedByteBuffer[Column.values().length];
+    private long mappedCount = -1;
+    private long count;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final Map<String, Integer> latestNumbers = new HashMap<>();   // project:jdk:platform ids to newest build stored
+
+    /**
+     * Reusable view of one record handed to visitors, valid only during the call
+     */
+    public class Record {
+        int index;
+
+        public String getProject() {
+            return strings.get(getProjectId());
+        }
+
+        public int getProjectId() {
+            return mapped[Column.project.ordinal()].getInt(index * 4);
+        }
+
+        public String getJdk() {
+            return strings.get(mapped[Column.jdk.ordinal()].getInt(index * 4));
+        }
+
+        public String getPlatform() {
+            return strings.get(mapped[Column.platform.ordinal()].getInt(index * 4));
+        }
+
+        public int getNumber() {
+            return mapped[Column.number.ordinal()].getInt(index * 4);
+        }
+
+        public long getTime() {
+            return mapped[Column.time.ordinal()].getLong(index * 8);
+        }
+
+        public int getDuration() {
+            return mapped[Column.duration.ordinal()].getInt(index * 4);
+        }
+
+        public int getFailCount() {
+            return mapped[Column.failCount.ordinal()].getInt(index * 4);
+        }
+
+        public int getTotalCount() {
+            return mapped[Column.totalCount.ordinal()].getInt(index * 4);
+        }
+
+        public byte getResult() {
+            return mapped[Column.result.ordinal()].get(index);
+        }
+    }
+
+    public interface RecordVisitor {
+        void visit(Record record);
+    }
+
+    /**
+     * Which records a scan visits.  Unset fields match everything.  The id and time filters are checked
+     * against their columns before any other column of a record is read.
+     */
+    public static class Query {
+        Pattern project;
+        String jdk;
+        String platform;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+
+        public Query project(Pattern project) {
+            this.project = project;
+            return this;
+        }
+
+        public Query jdk(String jdk) {
+            this.jdk = jdk;
+            return this;
+        }
+
+        public Query platform(String platform) {
+            this.platform = platform;
+            return this;
+        }
+
+        /**
+         * @param from start of the time range in milliseconds since the epoch, inclusive
+         * @param to end of the time range, exclusive
+         */
+        public Query between(long from, long to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+    }
+
+    public BuildRecordStore(File directory) throws IOException {
+        this.directory = directory;
+        directory.mkdirs();
+        loadDictionary();
+
+        File countFile = new File(directory, COUNT);
+        count = countFile.exists() ? ByteBuffer.wrap(Files.readAllBytes(countFile.toPath())).getLong() : 0;
+        for (Column column : Column.values()) {
+            FileChannel channel = FileChannel.open(new File(directory, column.name() + ".col").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long committed = count * column.width;
+            if (channel.size() > committed) {
+                channel.truncate(committed);    // partial append from a crash
+            } else if (channel.size() < committed) {
+                channel.close();
+                throw new IOException("Column " + column + " in " + directory + " is shorter than the committed record count");
+            }
+            channels[column.ordinal()] = channel;
+        }
+
+        final Record record = new Record();
+        map();
+        for (int i = 0; i < count; i++) {
+            record.index = i;
+            String key = cellKey(record.getProjectId(), mapped[Column.jdk.ordinal()].getInt(i * 4), mapped[Column.platform.ordinal()].getInt(i * 4));
+            Integer newest = latestNumbers.get(key);
+            if (newest == null || newest < record.getNumber()) {
+                latestNumbers.put(key, record.getNumber());
+            }
+        }
+    }
+
+    private void loadDictionary() throws IOException {
+        File dictionary = new File(directory, DICTIONARY);
+        if (!dictionary.exists()) {
+            return;
+        }
+        byte[] contents = Files.readAllBytes(dictionary.toPath());
+        int complete = contents.length;
+        while (complete > 0 && contents[complete - 1] != '\n') {
+            complete--;     // an entry cut off by a crash, drop it
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents, 0, complete), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                stringIds.put(line, strings.size());
+                strings.add(line);
+            }
+        }
+        if (complete < contents.length) {
+            try (FileChannel channel = FileChannel.open(dictionary.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+    }
+
+    private int stringId(String value) throws IOException {
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Line breaks can't be stored: " + value);
+        }
+        Files.write(new File(directory, DICTIONARY).toPath(), (value + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        id = strings.size();
+        strings.add(value);
+        stringIds.put(value, id);
+        return id;
+    }
+
+    private static String cellKey(int project, int jdk, int platform) {
+        return project + ":" + jdk + ":" + platform;
+    }
+
+    /**
+     * @return number of records in the store
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Append the results, skipping builds which are already in the store.  In history mode every build
+     * in a result's history is appended.
+     *
+     * @return number of records appended
+     */
+    public synchronized int append(Map<String, List<BuildResult>> allResults) throws IOException {
+        List<ByteBuffer> columns = new ArrayList<>();
+        for (Column column : Column.values()) {
+            columns.add(ByteBuffer.allocate(column.width * 1024).order(ByteOrder.BIG_ENDIAN));
+        }
+        int appended = 0;
+        for (List<BuildResult> buildResults : allResults.values()) {
+            synchronized (buildResults) {
+                for (BuildResult br : buildResults) {
+                    int project = stringId(br.getName());
+                    int jdk = stringId(br.getJdk());
+                    int platform = stringId(br.getPlatform());
+                    BuildHistory history = br.getHistory();
+                    if (history == null) {
+                        appended += add(columns, project, jdk, platform, br.getBuildNumber(), br.getStartTime(),
+                                br.getDuration(), br.getFailedTests(), br.getTestsRun(), br.getStatus().code());
+                    } else {
+                        for (int age = history.size() - 1; age >= 0; age--) {
+                            appended += add(columns, project, jdk, platform, history.getNumber(age), history.getStartTime(age),
+                                    history.getDuration(age), history.getFailCount(age), history.getTotalCount(age), history.getResult(age));
+                        }
+                    }
+                }
+            }
+        }
+        writeColumns(columns);
+        if (appended > 0) {
+            commit();
+        }
+        return appended;
+    }
+
+    private int add(List<ByteBuffer> columns, int project, int jdk, int platform, int number, long time, int duration,
+                    int failCount, int totalCount, byte result) throws IOException {
+        String key = cellKey(project, jdk, platform);
+        Integer newest = latestNumbers.get(key);
+        if (newest != null && newest >= number) {
+            return 0;
+        }
+        if (!columns.get(Column.project.ordinal()).hasRemaining()) {
+            writeColumns(columns);
+        }
+        latestNumbers.put(key, number);
+        columns.get(Column.project.ordinal()).putInt(project);
+        columns.get(Column.jdk.ordinal()).putInt(jdk);
+        columns.get(Column.platform.ordinal()).putInt(platform);
+        columns.get(Column.number.ordinal()).putInt(number);
+        columns.get(Column.time.ordinal()).putLong(time);
+        columns.get(Column.duration.ordinal()).putInt(duration);
+        columns.get(Column.failCount.ordinal()).putInt(failCount);
+        columns.get(Column.totalCount.ordinal()).putInt(totalCount);
+        columns.get(Column.result.ordinal()).put(result);
+        return 1;
+    }
+
+    /**
+     * Write the buffered values to the end of each column, without committing them
+     */
+    private void writeColumns(List<ByteBuffer> columns) throws IOException {
+        for (Column column : Column.values()) {
+            ByteBuffer buffer = columns.get(column.ordinal());
+            buffer.flip();
+            FileChannel channel = channels[column.ordinal()];
+            channel.position(channel.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Make the appended records durable, then publish the new count
+     */
+    private void commit() throws IOException {
+        for (FileChannel channel : channels) {
+            channel.force(false);
+        }
+        final long newCount = channels[Column.project.ordinal()].size() / Column.project.width;
+        AtomicFiles.writeUnchecked(new File(directory, COUNT), true, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeLong(newCount);
+            }
+        });
+        count = newCount;
+    }
+
+    private void map() throws IOException {
+        if (mappedCount == count) {
+            return;
+        }
+        for (Column column : Column.values()) {
+            mapped[column.ordinal()] = channels[column.ordinal()].map(FileChannel.MapMode.READ_ONLY, 0, count * column.width);
+        }
+        mappedCount = count;
+    }
+
+    /**
+     * Visit every record matching the query, in the order they were appended
+     */
+    public synchronized void scan(Query query, RecordVisitor visitor) throws IOException {
+        map();
+        boolean[] projectMatches = null;
+        if (query.project != null) {
+            projectMatches = new boolean[strings.size()];
+            for (int id = 0; id < strings.size(); id++) {
+                projectMatches[id] = query.project.matcher(strings.get(id)).matches();
+            }
+        }
+        int jdk = query.jdk == null ? -1 : idOrMissing(query.jdk);
+        int platform = query.platform == null ? -1 : idOrMissing(query.platform);
+        if (jdk == Integer.MIN_VALUE || platform == Integer.MIN_VALUE) {
+            return;     // never stored
+        }
+
+        MappedByteBuffer projects = mapped[Column.project.ordinal()];
+        MappedByteBuffer jdks = mapped[Column.jdk.ordinal()];
+        MappedByteBuffer platforms = mapped[Column.platform.ordinal()];
+        MappedByteBuffer times = mapped[Column.time.ordinal()];
+        boolean timeFilter = query.from != Long.MIN_VALUE || query.to != Long.MAX_VALUE;
+        Record record = new Record();
+        for (int i = 0; i < count; i++) {
+            if (projectMatches != null && !projectMatches[projects.getInt(i * 4)]) {
+                continue;
+            }
+            if (jdk >= 0 && jdks.getInt(i * 4) != jdk) {
+                continue;
+            }
+            if (platform >= 0 && platforms.getInt(i * 4) != platform) {
+                continue;
+            }
+            if (timeFilter) {
+                long time = times.getLong(i * 8);
+                if (time < query.from || time >= query.to) {
+                    continue;
+                }
+            }
+            record.index = i;
+            visitor.visit(record);
+        }
+    }
+
+    private int idOrMissing(String value) {
+        Integer id = stringIds.get(value);
+        return id == null ? Integer.MIN_VALUE : id;
+    }
+
+    /**
+     * @return the newest build of each configuration matching the query, in the form used by the summary
+     */
+    public Map<String, List<BuildResult>> latestResults(Query query) throws IOException {
+        final Map<String, BuildResult> latest = new HashMap<>();
+        scan(query, new RecordVisitor() {
+            @Override
+            public void visit(Record record) {
+                String key = cellKey(record.getProjectId(), mapped[Column.jdk.ordinal()].getInt(record.index * 4),
+                        mapped[Column.platform.ordinal()].getInt(record.index * 4));
+                BuildResult current = latest.get(key);
+                if (current == null || current.getBuildNumber() < record.getNumber()) {
+                    latest.put(key, new BuildResult(record.getProject(), record.getTime(), record.getJdk(), record.getPlatform(),
+                            BuildResult.Result.fromCode(record.getResult()), record.getTotalCount(), record.getFailCount(),
+                            record.getDuration(), record.getNumber()));
+                }
+            }
+        });
+
+        Map<String, List<BuildResult>> allResults = new HashMap<>();
+        for (BuildResult br : latest.values()) {
+            List<BuildResult> buildResults = allResults.get(br.getName());
+            if (buildResults == null) {
+                buildResults = new ArrayList<>();
+                allResults.put(br.getName(), buildResults);
+            }
+            buildResults.add(br);
+        }
+        return allResults;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -16,44 +16,192 @@
  */
 package org.fusesource.hudsonresults;
 
+import java.text.DateFormatSymbols;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.Locale;
 
+/**
+ * The result of one build of one configuration.  Kept small as there can be one per build in history
+ * mode: the run date is held as milliseconds since the epoch, counts as primitives and names are shared
+ * between results.  Formatting for the summary doesn't create formatter objects.
+ *
+ * @author kearls
+ */
 public class BuildResult {
-	private String name;
-	private String runDate;
-	private String result;		// from MatrixRunType.getResult..I think this includes SUCCESS, FAILURE.
-	private Integer testsRun;
-	private Integer failedTests;
-    private Integer duration;
-	private JDK jdk;
-	private PLATFORM platform;	// i.e. Ubuntu, Windows, AIX
-    private Integer buildNumber;
-
-    private static final Locale currentLocale =  Locale.getDefault();
+    /**
+     * Hudson's build results
+     */
+    public enum Result {
+        SUCCESS, UNSTABLE, FAILURE, ABORTED, NOT_BUILT;
+
+        private final String label = name().equals("SUCCESS") ? "success" : name();
+
+        /**
+         * @return "success", or the result as Hudson writes it, i.e. UNSTABLE
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @param result as written in build.xml or by the API, any case
+         * @return the matching result, NOT_BUILT if there isn't one (i.e. a build still running)
+         */
+        public static Result parse(String result) {
+            if (result != null) {
+                for (Result r : values()) {
+                    if (r.name().equalsIgnoreCase(result)) {
+                        return r;
+                    }
+                }
+            }
+            return NOT_BUILT;
+        }
+
+        /**
+         * @return the code for this result used by {@link BuildHistory} and {@link BuildRecordStore}
+         */
+        public byte code() {
+            switch (this) {
+                case SUCCESS:
+                    return BuildHistory.SUCCESS;
+                case UNSTABLE:
+                    return BuildHistory.UNSTABLE;
+                case FAILURE:
+                    return BuildHistory.FAILURE;
+                case ABORTED:
+                    return BuildHistory.ABORTED;
+                default:
+                    return BuildHistory.NOT_BUILT;
+            }
+        }
+
+        /**
+         * Stores and snapshots written before NOT_BUILT had a code of its own used ABORTED's for both, so
+         * their NOT_BUILT builds still read as ABORTED
+         */
+        public static Result fromCode(byte code) {
+            switch (code) {
+                case BuildHistory.SUCCESS:
+                    return SUCCESS;
+                case BuildHistory.UNSTABLE:
+                    return UNSTABLE;
+                case BuildHistory.FAILURE:
+                    return FAILURE;
+                case BuildHistory.ABORTED:
+                    return ABORTED;
+                default:
+                    return NOT_BUILT;
+            }
+        }
+    }
+
+    /**
+     * Orders the results of a project by column, see {@link AxisRegistry#COLUMN_ORDER}
+     */
+    public static final Comparator<BuildResult> COLUMN_ORDER = new Comparator<BuildResult>() {
+        @Override
+        public int compare(BuildResult first, BuildResult second) {
+            return AxisRegistry.COLUMN_ORDER.compare(new JdkPlatformTuple(first.getJdk(), first.getPlatform()),
+                    new JdkPlatformTuple(second.getJdk(), second.getPlatform()));
+        }
+    };
+
+    private static final StringInterner names = new StringInterner();
+
+    // "Dec 2" for every day of the year, indexed by month then day
+    private static final String[][] dayLabels = new String[12][32];
+    static {
+        String[] months = new DateFormatSymbols(Locale.getDefault()).getShortMonths();
+        for (int month = 0; month < 12; month++) {
+            for (int day = 1; day < 32; day++) {
+                dayLabels[month][day] = months[month] + " " + day;
+            }
+        }
+    }
+
+    private static final ThreadLocal<SimpleDateFormat> runDateFormats = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US);
+        }
+    };
+
+    private static final ThreadLocal<Calendar> calendars = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return new GregorianCalendar();
+        }
+    };
+
+	private final String name;
+	private final long startTime;        // from the build directory name, 0 if it couldn't be read
+	private final Result result;
+	private final int testsRun;
+	private final int failedTests;
+    private final int duration;
+	private final String jdk;		// value of the jdk axis, i.e. jdk6
+	private final String platform;	// value of the label axis, i.e. ubuntu, windows, aix7
+    private final int buildNumber;
+    private BuildHistory history;   // previous builds of the same configuration, only read in history mode
+    private String failureReason;   // why a failed build broke, from its log, see FailureClassifier
 
 	/**
 	 * 
 	 * @param name
-	 * @param runDate
+	 * @param runDate build directory name, i.e. 2013-09-07_00-07-19
 	 * @param jdk
 	 * @param platform
 	 * @param result
 	 * @param testsRun
 	 * @param testsFailed
 	 */
-	public BuildResult(String name, String runDate, JDK jdk, PLATFORM platform, String result, int testsRun, int testsFailed, int duration, int buildNumber) {
-		this.name = name;
-		this.runDate = runDate;
-		this.jdk = jdk;
-		this.platform = platform;
-		this.result = result;
-		this.testsRun = testsRun;
-		this.failedTests = testsFailed;
+	public BuildResult(String name, String runDate, String jdk, String platform, String result, int testsRun, int testsFailed, int duration, int buildNumber) {
+        this(name, parseRunDate(runDate), jdk, platform, Result.parse(result), testsRun, testsFailed, duration, buildNumber);
+	}
+
+    /**
+     * @param startTime start of the build in milliseconds since the epoch
+     */
+    public BuildResult(String name, long startTime, String jdk, String platform, Result result, int testsRun, int testsFailed, int duration, int buildNumber) {
+        this.name = names.intern(name);
+        this.startTime = startTime;
+        this.jdk = names.intern(jdk);
+        this.platform = names.intern(platform);
+        this.result = result;
+        this.testsRun = testsRun;
+        this.failedTests = testsFailed;
         this.duration = duration;
         this.buildNumber = buildNumber;
-	}
+    }
+
+    /**
+     * Build directories are named by local date and time, i.e. 2013-09-07_00-07-19
+     *
+     * @return milliseconds since the epoch, or 0 if runDate isn't in that form
+     */
+    public static long parseRunDate(String runDate) {
+        if (runDate == null || !LatestBuildResolver.BUILD_DIRECTORY_NAME.matcher(runDate).matches()) {
+            return 0;
+        }
+        Calendar cal = calendars.get();
+        cal.clear();
+        cal.set(digits(runDate, 0, 4), digits(runDate, 5, 2) - 1, digits(runDate, 8, 2),
+                digits(runDate, 11, 2), digits(runDate, 14, 2), digits(runDate, 17, 2));
+        return cal.getTimeInMillis();
+    }
+
+    private static int digits(String s, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
 	
 	
 	/**
@@ -61,7 +209,7 @@ public class BuildResult {
 	 */
 	@Override
 	public String toString() {
-		String s = name + "," + runDate + ", " + jdk + ", " + platform + ", " + getResult() + ", Tests run, " + testsRun
+		String s = name + "," + getRunDate() + ", " + jdk + ", " + platform + ", " + getResult() + ", Tests run, " + testsRun
                 + ", Failed ," + failedTests + " ,duration, " + getFormattedDuration() + " buildNumber " + buildNumber;
 		return s;
 	}
@@ -69,75 +217,105 @@ public class BuildResult {
 	public String getName() {
 		return name;
 	}
-	public void setName(String name) {
-		this.name = name;
-	}
+
+    /**
+     * @return start of the build in milliseconds since the epoch, 0 if not known
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the start of the build in the form of a build directory name, i.e. 2013-09-07_00-07-19
+     */
 	public String getRunDate() {
-		return runDate;
-	}
-	public void setRunDate(String runDate) {
-		this.runDate = runDate;
+		return runDateFormats.get().format(new Date(startTime));
 	}
+
+    /**
+     * @return "success", or the result as Hudson writes it, i.e. UNSTABLE
+     */
 	public String getResult() {
-        if (result.equals("SUCCESS")) {
-            return result.toLowerCase();
-        } else {
-		    return result;
-        }
+        return result.label;
 	}
-	public void setResult(String result) {
-		this.result = result;
-	}
-	public Integer getTestsRun() {
+
+    public Result getStatus() {
+        return result;
+    }
+
+	public int getTestsRun() {
 		return testsRun;
 	}
-	public void setTestsRun(Integer testsRun) {
-		this.testsRun = testsRun;
-	}
-	public Integer getFailedTests() {
+
+	public int getFailedTests() {
 		return failedTests;
 	}
-	public void setFailedTests(Integer failedTests) {
-		this.failedTests = failedTests;
-	}
-	public JDK getJdk() {
+
+	public String getJdk() {
 		return jdk;
 	}
-	public void setJdk(JDK jdk) {
-		this.jdk = jdk;
-	}
-	public PLATFORM getPlatform() {
+
+	public String getPlatform() {
 		return platform;
 	}
-	public void setPlatform(PLATFORM platform) {
-		this.platform = platform;
-	}
 
-    public Integer getDuration() {
+    public int getDuration() {
         return this.duration;
     }
 
-    public void setDuration(Integer duration) {
-        this.duration = duration;
+    public int getBuildNumber() {
+        return buildNumber;
     }
 
-    public Integer getBuildNumber() {
-        return buildNumber;
+    /**
+     * @return the last builds of this configuration, including this one, or null if history wasn't read
+     */
+    public BuildHistory getHistory() {
+        return history;
     }
 
-    public void setBuildNumber(Integer buildNumber) {
-        this.buildNumber = buildNumber;
+    public void setHistory(BuildHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * @return the label of the failure signature found in the build's log, or null if it wasn't classified
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public void setFailureReason(String failureReason) {
+        this.failureReason = failureReason;
     }
 
     /**
      *
-     * @return
+     * @return duration as h:mm:ss
      */
     public String getFormattedDuration() {
-        int hours = (int) (duration / (60 * 60 * 1000));
-        int minutes = (int) (duration / (60 * 1000)) % 60;
-        int seconds = (int) (duration / 1000) % 60;
-        return String.format("%d:%02d:%02d", hours, minutes, seconds);
+        return appendFormattedDuration(new StringBuilder(10)).toString();
+    }
+
+    /**
+     * Append the duration as h:mm:ss
+     */
+    public StringBuilder appendFormattedDuration(StringBuilder sb) {
+        return appendFormattedDuration(sb, duration);
+    }
+
+    /**
+     * Append a duration in milliseconds as h:mm:ss
+     */
+    static StringBuilder appendFormattedDuration(StringBuilder sb, int duration) {
+        int seconds = duration / 1000;
+        sb.append(seconds / (60 * 60)).append(':');
+        appendTwoDigits(sb, seconds / 60 % 60).append(':');
+        return appendTwoDigits(sb, seconds % 60);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
     }
 
 
@@ -145,20 +323,11 @@ public class BuildResult {
      * Run dates look like:  "2013-09-07_00-07-19";  This method returns a shorter formatted
      * date like "Dec 2"
      *
-     * @return Formatted date: "SEP 07"
+     * @return Formatted date: "Sep 7", shared between all results from that day
      */
     public String getFormattedRunDate() {
-        int firstDash = runDate.indexOf("-");
-        int secondDash = runDate.indexOf("-", firstDash + 1);
-        String month = runDate.substring(firstDash + 1, firstDash + 3);
-        String day = runDate.substring(secondDash + 1, secondDash + 3);
-
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.MONTH, Integer.parseInt(month) - 1);
-        cal.set(Calendar.DAY_OF_MONTH, Integer.parseInt(day));
-
-        SimpleDateFormat formatter = new SimpleDateFormat("MMM d", currentLocale);
-        String result = formatter.format(cal.getTime());
-        return result;
+        Calendar cal = calendars.get();
+        cal.setTimeInMillis(startTime);
+        return dayLabels[cal.get(Calendar.MONTH)][cal.get(Calendar.DAY_OF_MONTH)];
     }
 }
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes the {@link ResultChanges} since the last run as changes.html, to read with the morning coffee,
+ * and changes.json for anything that wants to act on them.  Both are replaced atomically.
+ *
+ * @author kearls
+ */
+public class ChangeReportWriter {
+    public static final String HTML_FILE = "changes.html";
+    public static final String JSON_FILE = "changes.json";
+
+    private static final String NEW_LINE = SummarizeBuildResults.NEW_LINE;
+
+    private final String caption;
+
+    /**
+     * @param caption caption of the report, the dates are added to it
+     */
+    public ChangeReportWriter(String caption) {
+        this.caption = caption;
+    }
+
+    /**
+     * Write both files into the directory, usually the one holding results.html
+     */
+    public void write(final ResultChanges changes, File directory) throws IOException {
+        AtomicFiles.writeText(new File(directory, HTML_FILE), Charset.defaultCharset(), new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                writeHtml(changes, writer);
+            }
+        });
+        AtomicFiles.writeText(new File(directory, JSON_FILE), Charset.defaultCharset(), new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                writeJson(changes, writer);
+            }
+        });
+    }
+
+    void writeHtml(ResultChanges changes, Writer writer) throws IOException {
+        writer.write("<html>" + NEW_LINE);
+        writer.write("<body>" + NEW_LINE);
+        writer.write("<h2>" + TestFailureReportWriter.escape(caption) + " changes");
+        if (changes.getSince() != 0) {
+            writer.write(" since " + new Date(changes.getSince()));
+        }
+        writer.write("</h2>" + NEW_LINE);
+
+        if (changes.getSince() == 0) {
+            writer.write("<p>There are no results from a previous run to compare with.</p>" + NEW_LINE);
+        } else if (changes.getChanges().isEmpty()) {
+            writer.write("<p>Nothing changed.</p>" + NEW_LINE);
+        } else {
+            writer.write("<table border=\"1\">" + NEW_LINE);
+            writer.write("<thead><tr><td>Change</td><td>Project</td><td>Platform</td><td>Build</td><td>Result</td><td>Failed</td></tr></thead>"
+                    + NEW_LINE);
+            for (ResultChanges.Change change : changes.getChanges()) {
+                ResultSnapshot.Cell previous = change.getPrevious();
+                BuildResult current = change.getCurrent();
+                StringBuilder sb = new StringBuilder(256);
+                sb.append("    <tr><td>").append(change.getKind().getDescription()).append("</td><td>")
+                        .append(TestFailureReportWriter.escape(change.getProject())).append("</td><td>")
+                        .append(change.getPlatform()).append(' ').append(change.getJdk()).append("</td><td>");
+                if (current == null) {
+                    sb.append(previous.getBuildNumber()).append("</td><td>").append(previous.getResult())
+                            .append("</td><td>").append(previous.getFailCount()).append('/').append(previous.getTotalCount());
+                } else {
+                    sb.append(previous.getBuildNumber()).append(" &rarr; <a href=\"");
+                    SummarizeBuildResults.appendReportUrl(sb, change.getProject(), current.getBuildNumber(), change.getJdk(), change.getPlatform())
+                            .append("\">").append(current.getBuildNumber()).append("</a>")
+                            .append("</td><td>").append(previous.getResult()).append(" &rarr; ").append(current.getStatus())
+                            .append("</td><td>").append(previous.getFailCount()).append('/').append(previous.getTotalCount())
+                            .append(" &rarr; ").append(current.getFailedTests()).append('/').append(current.getTestsRun());
+                }
+                sb.append("</td></tr>").append(NEW_LINE);
+                writer.write(sb.toString());
+            }
+            writer.write("</table>" + NEW_LINE);
+        }
+
+        writer.write("<p>");
+        String separator = "";
+        for (Map.Entry<ResultChanges.Kind, Integer> count : changes.getCounts().entrySet()) {
+            writer.write(separator + count.getValue() + " " + count.getKey().getDescription());
+            separator = ", ";
+        }
+        writer.write(".  Configurations which are new since the last run aren't listed.</p>" + NEW_LINE);
+        writer.write("</body>" + NEW_LINE);
+        writer.write("</html>" + NEW_LINE);
+    }
+
+    void writeJson(ResultChanges changes, Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"since\":").append(changes.getSince()).append(",\"counts\":{");
+        String separator = "";
+        for (Map.Entry<ResultChanges.Kind, Integer> count : changes.getCounts().entrySet()) {
+            sb.append(separator);
+            Json.quote(count.getKey().name(), sb);
+            sb.append(':').append(count.getValue());
+            separator = ",";
+        }
+        sb.append("},\"changes\":[");
+        separator = "";
+        for (ResultChanges.Change change : changes.getChanges()) {
+            ResultSnapshot.Cell previous = change.getPrevious();
+            BuildResult current = change.getCurrent();
+            sb.append(separator).append(NEW_LINE).append("{\"change\":");
+            Json.quote(change.getKind().name(), sb);
+            sb.append(",\"project\":");
+            Json.quote(change.getProject(), sb);
+            sb.append(",\"jdk\":");
+            Json.quote(change.getJdk(), sb);
+            sb.append(",\"platform\":");
+            Json.quote(change.getPlatform(), sb);
+            sb.append(",\"previous\":{\"buildNumber\":").append(previous.getBuildNumber()).append(",\"result\":");
+            Json.quote(previous.getResult().name(), sb);
+            sb.append(",\"failedTests\":").append(previous.getFailCount()).append(",\"testsRun\":").append(previous.getTotalCount()).append('}');
+            if (current != null) {
+                sb.append(",\"current\":{\"buildNumber\":").append(current.getBuildNumber()).append(",\"result\":");
+                Json.quote(current.getStatus().name(), sb);
+                sb.append(",\"failedTests\":").append(current.getFailedTests()).append(",\"testsRun\":").append(current.getTestsRun()).append('}');
+            }
+            sb.append('}');
+            separator = ",";
+            if (sb.length() > 3000) {
+                writer.write(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        sb.append("]}").append(NEW_LINE);
+        writer.write(sb.toString());
+    }
+}
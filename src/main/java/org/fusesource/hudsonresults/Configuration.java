@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One configuration of a matrix project, i.e. jdk=jdk6,label=ubuntu, and its builds/ directory
+ *
+ * @author kearls
+ */
+public class Configuration {
+    private final String projectName;
+    private final Map<String, String> axes;
+    private final File buildsDirectory;
+    private final String jdk;
+    private final String platform;
+
+    /**
+     * @param projectName name of the project directory
+     * @param axes axis name to value, in the order they appear in the configurations/ path
+     * @param buildsDirectory the builds/ directory of the configuration
+     */
+    public Configuration(String projectName, Map<String, String> axes, File buildsDirectory) {
+        this.projectName = projectName;
+        this.axes = Collections.unmodifiableMap(new LinkedHashMap<>(axes));
+        this.buildsDirectory = buildsDirectory;
+
+        String jdkValue = axes.get(AxisRegistry.JDK_AXIS);
+        this.jdk = jdkValue == null ? "" : jdkValue;
+
+        // Axes other than jdk and label are kept with the platform so different configurations never share a cell
+        StringBuilder platformValue = new StringBuilder();
+        String label = axes.get(AxisRegistry.LABEL_AXIS);
+        if (label != null) {
+            platformValue.append(label);
+        }
+        for (Map.Entry<String, String> axis : axes.entrySet()) {
+            if (!AxisRegistry.JDK_AXIS.equals(axis.getKey()) && !AxisRegistry.LABEL_AXIS.equals(axis.getKey())) {
+                if (platformValue.length() > 0) {
+                    platformValue.append(',');
+                }
+                platformValue.append(axis.getKey()).append('=').append(axis.getValue());
+            }
+        }
+        this.platform = platformValue.toString();
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public Map<String, String> getAxes() {
+        return axes;
+    }
+
+    public File getBuildsDirectory() {
+        return buildsDirectory;
+    }
+
+    public String getJdk() {
+        return jdk;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    @Override
+    public String toString() {
+        return projectName + " " + axes;
+    }
+}
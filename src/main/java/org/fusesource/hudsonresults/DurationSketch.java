@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed size sketch of the build durations of a configuration, from which percentiles can be estimated
+ * to within about 5%.  Durations are counted in buckets whose bounds grow by 10% from one second up to
+ * about two days, so a sketch is the same 128 counts whether it has seen ten builds or ten thousand.
+ * Sketches are merged by adding their counts.
+ *
+ * @author kearls
+ */
+public class DurationSketch {
+    static final int BUCKETS = 128;
+    private static final double GAMMA = 1.1;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int MIN_DURATION = 1000;       // milliseconds, anything shorter goes in bucket 0
+
+    private final int[] counts = new int[BUCKETS];
+    private long count;
+
+    public void add(int duration) {
+        counts[bucket(duration)]++;
+        count++;
+    }
+
+    /**
+     * Take back a duration added before
+     */
+    public void remove(int duration) {
+        int bucket = bucket(duration);
+        if (counts[bucket] > 0) {
+            counts[bucket]--;
+            count--;
+        }
+    }
+
+    public void merge(DurationSketch other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return an estimate of the duration below which that percentage of the durations fall, 0 if there are none
+     */
+    public int getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int bucket = percentileBucket(percentile);
+        return bucket == 0 ? MIN_DURATION : (int) Math.round(MIN_DURATION * Math.pow(GAMMA, bucket - 0.5));
+    }
+
+    /**
+     * @return true if the duration falls in a longer bucket than the percentile, so it is longer than the
+     * percentile whatever the durations in that bucket were
+     */
+    public boolean exceeds(int duration, double percentile) {
+        return count > 0 && bucket(duration) > percentileBucket(percentile);
+    }
+
+    private int percentileBucket(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return bucket;
+            }
+        }
+        return BUCKETS - 1;
+    }
+
+    /**
+     * Bucket 0 holds durations up to a second, bucket i those up to a second times GAMMA to the i
+     */
+    static int bucket(int duration) {
+        if (duration <= MIN_DURATION) {
+            return 0;
+        }
+        int bucket = (int) Math.ceil(Math.log((double) duration / MIN_DURATION) / LOG_GAMMA);
+        return Math.min(Math.max(bucket, 1), BUCKETS - 1);
+    }
+
+    /**
+     * Write the buckets which aren't empty
+     */
+    void write(DataOutputStream out) throws IOException {
+        int used = 0;
+        for (int bucketCount : counts) {
+            if (bucketCount > 0) {
+                used++;
+            }
+        }
+        out.writeByte(used);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts[bucket] > 0) {
+                out.writeByte(bucket);
+                out.writeInt(counts[bucket]);
+            }
+        }
+    }
+
+    static DurationSketch read(DataInputStream in) throws IOException {
+        DurationSketch sketch = new DurationSketch();
+        int used = in.readUnsignedByte();
+        for (int i = 0; i < used; i++) {
+            int bucket = in.readUnsignedByte();
+            int bucketCount = in.readInt();
+            if (bucket >= BUCKETS || bucketCount < 0) {
+                throw new IOException("bad bucket " + bucket);
+            }
+            sketch.counts[bucket] += bucketCount;
+            sketch.count += bucketCount;
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A {@link DurationSketch} for each configuration, kept between runs, used to spot builds which took much
+ * longer than the configuration's builds usually do.  Each configuration also remembers the highest build
+ * number added to its sketch, so every build is added once however often it is scanned.  Only builds which
+ * ran to the end (success or unstable) are added, a build that failed early or was aborted says nothing
+ * about how long the job takes.
+ *
+ * @author kearls
+ */
+public class DurationSketches {
+    private static final int MAGIC = 0x48524431;   // HRD1
+    private static final int VERSION = 1;
+
+    private static class Cell {
+        final DurationSketch sketch;
+        int lastNumber;
+
+        Cell(DurationSketch sketch, int lastNumber) {
+            this.sketch = sketch;
+            this.lastNumber = lastNumber;
+        }
+    }
+
+    private final Map<String, Cell> cells = new TreeMap<>();     // by project|jdk|platform
+
+    private static String key(String project, String jdk, String platform) {
+        return project + "|" + jdk + "|" + platform;
+    }
+
+    private Cell cell(String project, String jdk, String platform) {
+        String key = key(project, jdk, platform);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell(new DurationSketch(), 0);
+            cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    private static boolean ranToEnd(BuildResult.Result result, int duration) {
+        return (result == BuildResult.Result.SUCCESS || result == BuildResult.Result.UNSTABLE) && duration > 0;
+    }
+
+    /**
+     * Add the builds not seen before, including those in the history of each result, and find the latest builds
+     * which took longer than a percentile of the builds before them
+     *
+     * @param percentile 0 to 100
+     * @param minBuilds configurations with fewer earlier builds than this aren't judged
+     * @return the slow builds, with the percentile of the durations they exceeded
+     */
+    public Map<BuildResult, Integer> update(Map<String, List<BuildResult>> allResults, int percentile, int minBuilds) {
+        Map<BuildResult, Integer> slow = new IdentityHashMap<>();
+        for (Map.Entry<String, List<BuildResult>> entry : allResults.entrySet()) {
+            List<BuildResult> buildResults;
+            synchronized (entry.getValue()) {
+                buildResults = new ArrayList<>(entry.getValue());
+            }
+            for (BuildResult br : buildResults) {
+                Cell cell = cell(entry.getKey(), br.getJdk(), br.getPlatform());
+                BuildHistory history = br.getHistory();
+                if (history != null) {
+                    for (int age = history.size() - 1; age > 0; age--) {
+                        add(cell, history.getNumber(age), BuildResult.Result.fromCode(history.getResult(age)), history.getDuration(age));
+                    }
+                }
+                add(cell, br.getBuildNumber(), br.getStatus(), br.getDuration());
+
+                // Judge the latest build against the builds before it
+                if (ranToEnd(br.getStatus(), br.getDuration())) {
+                    DurationSketch sketch = cell.sketch;
+                    sketch.remove(br.getDuration());
+                    if (sketch.getCount() >= minBuilds && sketch.exceeds(br.getDuration(), percentile)) {
+                        slow.put(br, sketch.getPercentile(percentile));
+                    }
+                    sketch.add(br.getDuration());
+                }
+            }
+        }
+        return slow;
+    }
+
+    private static void add(Cell cell, int number, BuildResult.Result result, int duration) {
+        if (number > cell.lastNumber) {
+            if (ranToEnd(result, duration)) {
+                cell.sketch.add(duration);
+            }
+            cell.lastNumber = number;
+        }
+    }
+
+    /**
+     * @return the sketch of a configuration's durations, or null if none of its builds have been seen
+     */
+    public DurationSketch get(String project, String jdk, String platform) {
+        Cell cell = cells.get(key(project, jdk, platform));
+        return cell == null ? null : cell.sketch;
+    }
+
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * @return the sketches from the file, or none if it doesn't exist or can't be read
+     */
+    public static DurationSketches load(File file) {
+        DurationSketches sketches = new DurationSketches();
+        if (!file.exists()) {
+            return sketches;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 65536), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a duration sketch file");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                int lastNumber = in.readInt();
+                sketches.cells.put(key, new Cell(DurationSketch.read(in), lastNumber));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring duration sketches " + file + ", they will be rebuilt: " + e.getMessage());
+            sketches.cells.clear();
+        }
+        return sketches;
+    }
+
+    public void save(File file) throws IOException {
+        AtomicFiles.write(file, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(cells.size());
+                for (Map.Entry<String, Cell> entry : cells.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().lastNumber);
+                    entry.getValue().sketch.write(out);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Works out why a build failed from the end of its log, which can be hundreds of MB.  The log is read
+ * backwards a chunk at a time, at most a budget of bytes of it, and each line is checked against the
+ * signatures until one matches, so the reason is the last one the build ran into.  Signatures can be
+ * read from a properties file:
+ * <pre>
+ *     signatures=oom,compile
+ *     oom.match=java\\.lang\\.OutOfMemoryError
+ *     oom.label=out of memory
+ *     compile.match=COMPILATION ERROR
+ * </pre>
+ * The label defaults to the name.  A line matching more than one signature gets the first listed.
+ *
+ * @author kearls
+ */
+public class FailureClassifier {
+    public static final String LOG_FILE = "log";
+    static final int CHUNK_SIZE = 64 * 1024;
+    // Longer lines are cut short, a line can be a whole stack trace or progress output without newlines
+    static final int MAX_LINE = 16 * 1024;
+
+    /**
+     * A pattern found in the log of a build which failed for a given reason
+     */
+    public static class Signature {
+        private final String name;
+        private final String label;
+        private final Pattern pattern;
+
+        public Signature(String name, String label, String matchExpression) {
+            this.name = name;
+            this.label = label;
+            this.pattern = Pattern.compile(matchExpression);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+    }
+
+    private final List<Signature> signatures;
+    private final long budget;
+    private final FileSystemAccess access;
+
+    /**
+     * @param budget most bytes read from the end of each log
+     */
+    public FailureClassifier(List<Signature> signatures, long budget, FileSystemAccess access) {
+        this.signatures = signatures;
+        this.budget = budget;
+        this.access = access;
+    }
+
+    public static List<Signature> defaultSignatures() {
+        return Arrays.asList(
+                new Signature("oom", "out of memory", "java\\.lang\\.OutOfMemoryError|Cannot allocate memory|GC overhead limit exceeded"),
+                new Signature("disk", "disk full", "No space left on device|Disk quota exceeded"),
+                new Signature("timeout", "timed out or killed", "Build timed out|[Tt]imed out after|\\bKilled\\b|Aborted by "),
+                new Signature("dependency", "dependency resolution", "Could not resolve dependencies|Failed to collect dependencies"
+                        + "|Could not (?:transfer|find) artifact|Failed to read artifact descriptor"),
+                new Signature("compile", "compile error", "COMPILATION ERROR|Compilation failure|\\.java:\\[\\d+,\\d+\\]"));
+    }
+
+    public static List<Signature> load(File propertiesFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(propertiesFile)) {
+            properties.load(in);
+        }
+        String names = properties.getProperty("signatures");
+        if (names == null || names.trim().isEmpty()) {
+            throw new IOException("No signatures= line in " + propertiesFile);
+        }
+
+        List<Signature> signatures = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            String match = properties.getProperty(name + ".match");
+            if (match == null) {
+                throw new IOException("No " + name + ".match in " + propertiesFile);
+            }
+            signatures.add(new Signature(name, properties.getProperty(name + ".label", name), match));
+        }
+        return signatures;
+    }
+
+    /**
+     * @param buildDirectory directory of a failed build
+     * @return the label of the signature found nearest the end of its log, or null if none was found
+     * within the budget or the build has no log
+     */
+    public String classify(File buildDirectory) throws IOException {
+        LineMatcher matcher = new LineMatcher();
+        try {
+            access.readBackwards(new File(buildDirectory, LOG_FILE).toPath(), CHUNK_SIZE, budget, matcher);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return matcher.found;
+    }
+
+    /**
+     * Splits the chunks into lines, last line first.  The start of the first line in a chunk is carried over
+     * to the chunk before it, which has the rest of the line.
+     */
+    private class LineMatcher implements FileSystemAccess.ChunkVisitor {
+        private byte[] carry = new byte[0];
+        private String found;
+
+        @Override
+        public boolean visit(ByteBuffer chunk, long position) {
+            byte[] bytes = chunk.array();
+            int start = chunk.arrayOffset() + chunk.position();
+            int end = chunk.arrayOffset() + chunk.limit();
+            byte[] tail = carry;
+            for (int i = end - 1; i >= start; i--) {
+                if (bytes[i] == '\n') {
+                    if (matches(bytes, i + 1, end, tail)) {
+                        return false;
+                    }
+                    tail = null;
+                    end = i;
+                }
+            }
+
+            int length = end - start + (tail == null ? 0 : tail.length);
+            if (length > MAX_LINE) {
+                carry = Arrays.copyOfRange(bytes, start, start + Math.min(end - start, MAX_LINE));
+            } else {
+                carry = new byte[length];
+                System.arraycopy(bytes, start, carry, 0, end - start);
+                if (tail != null) {
+                    System.arraycopy(tail, 0, carry, end - start, tail.length);
+                }
+            }
+            if (position == 0) {
+                return !matches(carry, 0, carry.length, null);     // the first line of the log
+            }
+            return true;
+        }
+
+        private boolean matches(byte[] bytes, int from, int to, byte[] tail) {
+            int length = Math.min(to - from, MAX_LINE);
+            if (length == 0 && (tail == null || tail.length == 0)) {
+                return false;
+            }
+            // Signatures are ASCII, and ISO-8859-1 maps any byte to a char without decoding errors
+            String line = new String(bytes, from, length, StandardCharsets.ISO_8859_1);
+            if (tail != null && tail.length > 0 && length < MAX_LINE) {
+                line += new String(tail, 0, Math.min(tail.length, MAX_LINE - length), StandardCharsets.ISO_8859_1);
+            }
+            for (Signature signature : signatures) {
+                if (signature.getPattern().matcher(line).find()) {
+                    found = signature.getLabel();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
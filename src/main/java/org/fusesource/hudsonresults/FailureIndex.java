@@ -0,0 +1,921 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * On-disk inverted index from failing test, i.e. org.apache.camel.FooTest.testBar, to the builds of each
+ * configuration (cell) it failed in, so we can ask when a test started failing and where without opening
+ * years of junitResult.xml files.
+ * <p>
+ * Each commit writes the builds indexed since the last one as a new immutable segment: a sorted table of
+ * test names and, for each test, a posting list of cells and build numbers stored as varint deltas, plus
+ * the builds indexed in each cell with their start times.  Segments are memory mapped for queries, and
+ * merged into one when there are more than {@link #MAX_SEGMENTS}.  The manifest lists the live segments,
+ * the cells and the highest build number indexed in each cell (its watermark), so each build is read once.
+ * Builds whose junitResult.xml couldn't be read are listed in the manifest too, and are read again when
+ * they are next seen although the watermark has passed them.  Segments are moved into place before the
+ * manifest which names them is, so a crash leaves the last committed index.
+ *
+ * @author kearls
+ */
+public class FailureIndex {
+    private static final String MANIFEST = "manifest";
+    private static final int MANIFEST_MAGIC = 0x48524649;   // HRFI
+    private static final int SEGMENT_MAGIC = 0x48524653;    // HRFS
+    private static final int MANIFEST_VERSION = 2;
+    private static final int SEGMENT_VERSION = 1;
+    static final int MAX_SEGMENTS = 8;
+    // A junitResult.xml that can't be parsed is given up on after this many tries, one that can't be read in time never is
+    static final int MAX_ATTEMPTS = 3;
+
+    private final File directory;
+    private final JunitResultScanner scanner;
+
+    // Cells are numbered in the order they were first indexed, the numbers are kept in the manifest
+    private final List<String> cellProjects = new ArrayList<>();
+    private final List<JdkPlatformTuple> cellColumns = new ArrayList<>();
+    private final Map<String, Integer> cellIds = new HashMap<>();
+    private final List<Integer> watermarks = new ArrayList<>();
+    // Builds which couldn't be indexed and are tried again, build number to failed attempts
+    private final List<TreeMap<Integer, Integer>> retries = new ArrayList<>();
+    private boolean retriesChanged = false;
+    private final List<String> segmentNames = new ArrayList<>();
+    private int nextSegment = 0;
+    private volatile Segment[] segments = new Segment[0];
+
+    // Builds indexed since the last commit: test to cell << 32 | build number, and cell to build number to start time
+    private final Map<String, LongList> pendingFailures = new HashMap<>();
+    private final Map<Integer, TreeMap<Integer, Long>> pendingBuilds = new HashMap<>();
+
+    /**
+     * Open the index in a directory, creating it if there isn't one
+     */
+    public FailureIndex(File directory) throws IOException {
+        this(directory, FileSystemAccess.direct());
+    }
+
+    public FailureIndex(File directory, FileSystemAccess access) throws IOException {
+        this.directory = directory;
+        this.scanner = new JunitResultScanner(new StringInterner(), access);
+        loadManifest();
+        map();
+    }
+
+    /**
+     * Where and when a test failed in one cell
+     */
+    public static class CellFailures {
+        private final String project;
+        private final JdkPlatformTuple column;
+        private final int[] failedBuilds;       // oldest first
+        private final long[] failedTimes;
+        private final int latestBuild;
+        private final int streakStart;
+        private final long streakStartTime;
+
+        CellFailures(String project, JdkPlatformTuple column, int[] failedBuilds, long[] failedTimes, int latestBuild, int streakStart,
+                     long streakStartTime) {
+            this.project = project;
+            this.column = column;
+            this.failedBuilds = failedBuilds;
+            this.failedTimes = failedTimes;
+            this.latestBuild = latestBuild;
+            this.streakStart = streakStart;
+            this.streakStartTime = streakStartTime;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public String getJdk() {
+            return column.getJdk();
+        }
+
+        public String getPlatform() {
+            return column.getPlatform();
+        }
+
+        /**
+         * @return the number of each build the test failed in, oldest first
+         */
+        public int[] getFailedBuilds() {
+            return failedBuilds;
+        }
+
+        public int getFirstFailure() {
+            return failedBuilds[0];
+        }
+
+        public long getFirstFailureTime() {
+            return failedTimes[0];
+        }
+
+        /**
+         * @return the newest build indexed in this cell, whether or not the test failed in it
+         */
+        public int getLatestBuild() {
+            return latestBuild;
+        }
+
+        /**
+         * @return true if the test failed in the newest build indexed
+         */
+        public boolean isFailing() {
+            return streakStart > 0;
+        }
+
+        /**
+         * @return the first of the builds it has failed in since it last passed, or 0 if it isn't failing
+         */
+        public int getStreakStart() {
+            return streakStart;
+        }
+
+        public long getStreakStartTime() {
+            return streakStartTime;
+        }
+    }
+
+    /**
+     * Index the failed tests of a build, unless it was indexed before.  Builds without a junitResult.xml
+     * aren't indexed, they tell us nothing about whether a test passed.
+     *
+     * @return true if the build was indexed
+     */
+    public boolean addBuild(String project, String jdk, String platform, int number, long startTime, File buildDirectory) {
+        final int cell;
+        synchronized (this) {
+            cell = cellId(project, new JdkPlatformTuple(jdk, platform));
+            TreeMap<Integer, Long> builds = pendingBuilds.get(cell);
+            if ((number <= watermarks.get(cell) && !retries.get(cell).containsKey(number)) || (builds != null && builds.containsKey(number))) {
+                return false;
+            }
+        }
+
+        final List<String> failed = new ArrayList<>();
+        try {
+            boolean found = scanner.scan(buildDirectory, new JunitResultScanner.CaseVisitor() {
+                @Override
+                public void visit(String className, String testName, boolean skipped) {
+                    if (!skipped) {
+                        failed.add(className + "." + testName);
+                    }
+                }
+            });
+            if (!found) {
+                synchronized (this) {
+                    retriesChanged |= retries.get(cell).remove(number) != null;
+                }
+                return false;
+            }
+        } catch (Exception e) {
+            System.err.println("************ Exception " + e.getMessage() + " indexing test results in " + buildDirectory.getAbsolutePath());
+            retryLater(cell, number, !(e instanceof FileSystemAccess.UnreachableException));
+            return false;
+        }
+
+        synchronized (this) {
+            TreeMap<Integer, Long> builds = pendingBuilds.get(cell);
+            if (builds == null) {
+                builds = new TreeMap<>();
+                pendingBuilds.put(cell, builds);
+            }
+            if (builds.put(number, startTime) != null) {
+                return false;
+            }
+            retriesChanged |= retries.get(cell).remove(number) != null;
+            long posting = (long) cell << 32 | number;
+            for (String test : failed) {
+                LongList postings = pendingFailures.get(test);
+                if (postings == null) {
+                    postings = new LongList();
+                    pendingFailures.put(test, postings);
+                }
+                postings.add(posting);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remember a build which couldn't be indexed, so the watermark passing it doesn't lose it
+     *
+     * @param counts whether this was a try towards {@link #MAX_ATTEMPTS}
+     */
+    private synchronized void retryLater(int cell, int number, boolean counts) {
+        TreeMap<Integer, Long> builds = pendingBuilds.get(cell);
+        if (builds != null && builds.containsKey(number)) {
+            return;     // another thread read it meanwhile
+        }
+        Integer attempts = retries.get(cell).get(number);
+        int made = (attempts == null ? 0 : attempts) + (counts ? 1 : 0);
+        if (made >= MAX_ATTEMPTS) {
+            System.err.println("************ Giving up on indexing build " + number + " of " + cellProjects.get(cell) + " "
+                    + cellColumns.get(cell).getJdk() + " " + cellColumns.get(cell).getPlatform() + " after " + made + " tries");
+            retries.get(cell).remove(number);
+        } else {
+            retries.get(cell).put(number, made);
+        }
+        retriesChanged = true;
+    }
+
+    private int cellId(String project, JdkPlatformTuple column) {
+        String key = project + "|" + column.getJdk() + "|" + column.getPlatform();
+        Integer id = cellIds.get(key);
+        if (id == null) {
+            id = cellProjects.size();
+            cellIds.put(key, id);
+            cellProjects.add(project);
+            cellColumns.add(column);
+            watermarks.add(0);
+            retries.add(new TreeMap<Integer, Integer>());
+        }
+        return id;
+    }
+
+    /**
+     * Write the builds indexed since the last commit as a new segment, merging the segments if there are too many
+     *
+     * @return the number of builds committed
+     */
+    public synchronized int commit() throws IOException {
+        int committed = 0;
+        for (TreeMap<Integer, Long> builds : pendingBuilds.values()) {
+            committed += builds.size();
+        }
+        if (committed == 0) {
+            if (retriesChanged) {
+                directory.mkdirs();
+                writeManifest();
+                retriesChanged = false;
+            }
+            return 0;
+        }
+        directory.mkdirs();
+
+        Map<Integer, LongList> builds = new HashMap<>();
+        for (Map.Entry<Integer, TreeMap<Integer, Long>> entry : pendingBuilds.entrySet()) {
+            LongList pairs = new LongList();
+            for (Map.Entry<Integer, Long> build : entry.getValue().entrySet()) {
+                pairs.add(build.getKey());
+                pairs.add(build.getValue());
+            }
+            builds.put(entry.getKey(), pairs);
+            int cell = entry.getKey();
+            watermarks.set(cell, Math.max(watermarks.get(cell), entry.getValue().lastKey()));
+        }
+        String name = "segment-" + nextSegment++ + ".idx";
+        writeSegment(new File(directory, name), pendingFailures, builds);
+        segmentNames.add(name);
+
+        List<String> obsolete = Collections.emptyList();
+        if (segmentNames.size() > MAX_SEGMENTS) {
+            obsolete = new ArrayList<>(segmentNames);
+            name = merge();
+            segmentNames.clear();
+            segmentNames.add(name);
+        }
+        writeManifest();
+        for (String segment : obsolete) {
+            Files.deleteIfExists(new File(directory, segment).toPath());
+        }
+        pendingFailures.clear();
+        pendingBuilds.clear();
+        retriesChanged = false;
+        map();
+        return committed;
+    }
+
+    /**
+     * Read every live segment, oldest first, and write them as one
+     */
+    private String merge() throws IOException {
+        Map<String, LongList> failures = new HashMap<>();
+        Map<Integer, LongList> builds = new HashMap<>();
+        for (String segmentName : segmentNames) {
+            new Segment(new File(directory, segmentName)).readAll(failures, builds);
+        }
+        for (LongList pairs : builds.values()) {
+            pairs.sortPairs();      // a build that was tried again is in a later segment than newer ones
+        }
+        String name = "segment-" + nextSegment++ + ".idx";
+        writeSegment(new File(directory, name), failures, builds);
+        System.out.println("Merged " + segmentNames.size() + " failure index segments into " + name);
+        return name;
+    }
+
+    /**
+     * @param test class name and test name, i.e. org.apache.camel.FooTest.testBar
+     * @return the cells the test failed in, or an empty list if it never failed in a build indexed
+     */
+    public List<CellFailures> getFailures(String test) {
+        return getFailures(Collections.singletonList(this), test);
+    }
+
+    /**
+     * The failures of a test in several indexes, i.e. those kept by the workers of a sharded scan.  A cell
+     * found in more than one has their builds combined.
+     *
+     * @return the cells the test failed in, or an empty list if it never failed in a build indexed
+     */
+    public static List<CellFailures> getFailures(List<FailureIndex> indexes, String test) {
+        byte[] key = test.getBytes(StandardCharsets.UTF_8);
+        Map<String, CellBuilds> cells = new LinkedHashMap<>();
+        LongList postings = new LongList();
+        LongList builds = new LongList();
+        for (FailureIndex index : indexes) {
+            Segment[] segments = index.segments;
+            postings.clear();
+            for (Segment segment : segments) {
+                int found = segment.find(key);
+                if (found >= 0) {
+                    segment.readPostings(found, postings);
+                }
+            }
+            postings.sort();
+
+            for (int i = 0; i < postings.size(); ) {
+                int cell = (int) (postings.get(i) >>> 32);
+                String project = index.cellProject(cell);
+                JdkPlatformTuple column = index.cellColumn(cell);
+                String name = project + "|" + column.getJdk() + "|" + column.getPlatform();
+                CellBuilds cellBuilds = cells.get(name);
+                if (cellBuilds == null) {
+                    cellBuilds = new CellBuilds(project, column);
+                    cells.put(name, cellBuilds);
+                }
+                for (; i < postings.size() && (int) (postings.get(i) >>> 32) == cell; i++) {
+                    cellBuilds.failed.add((int) postings.get(i));
+                }
+                builds.clear();
+                for (Segment segment : segments) {
+                    segment.readBuilds(cell, builds);
+                }
+                for (int b = 0; b < builds.size(); b += 2) {
+                    cellBuilds.builds.put((int) builds.get(b), builds.get(b + 1));
+                }
+            }
+        }
+
+        List<CellFailures> failures = new ArrayList<>(cells.size());
+        for (CellBuilds cellBuilds : cells.values()) {
+            failures.add(cellBuilds.toFailures());
+        }
+        return failures;
+    }
+
+    /**
+     * The builds of one cell read for a query: those the test failed in, and every build indexed with its start time
+     */
+    private static class CellBuilds {
+        final String project;
+        final JdkPlatformTuple column;
+        final TreeSet<Integer> failed = new TreeSet<>();
+        final TreeMap<Integer, Long> builds = new TreeMap<>();
+
+        CellBuilds(String project, JdkPlatformTuple column) {
+            this.project = project;
+            this.column = column;
+        }
+
+        CellFailures toFailures() {
+            int[] failedBuilds = new int[failed.size()];
+            long[] failedTimes = new long[failed.size()];
+            int f = 0;
+            for (Integer number : failed) {
+                Long startTime = builds.get(number);
+                failedBuilds[f] = number;
+                failedTimes[f++] = startTime == null ? 0 : startTime;
+            }
+
+            // Walk back from the newest build while the test failed in each build indexed
+            int streakStart = 0;
+            long streakStartTime = 0;
+            f = failedBuilds.length - 1;
+            for (Map.Entry<Integer, Long> build : builds.descendingMap().entrySet()) {
+                if (f < 0 || build.getKey() != failedBuilds[f]) {
+                    break;
+                }
+                streakStart = failedBuilds[f--];
+                streakStartTime = build.getValue();
+            }
+            int latestBuild = builds.isEmpty() ? 0 : builds.lastKey();
+            return new CellFailures(project, column, failedBuilds, failedTimes, latestBuild, streakStart, streakStartTime);
+        }
+    }
+
+    private synchronized String cellProject(int cell) {
+        return cellProjects.get(cell);
+    }
+
+    private synchronized JdkPlatformTuple cellColumn(int cell) {
+        return cellColumns.get(cell);
+    }
+
+    /**
+     * @return the first failure of the test in any cell, or null if it never failed
+     */
+    public CellFailures getFirstFailure(String test) {
+        return getFirstFailure(Collections.singletonList(this), test);
+    }
+
+    /**
+     * @return the first failure of the test in any cell of any of the indexes, or null if it never failed
+     */
+    public static CellFailures getFirstFailure(List<FailureIndex> indexes, String test) {
+        CellFailures first = null;
+        for (CellFailures cell : getFailures(indexes, test)) {
+            if (first == null || cell.getFirstFailureTime() < first.getFirstFailureTime()) {
+                first = cell;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return the cells the test failed in the newest build of, earliest streak first
+     */
+    public List<CellFailures> getFailingCells(String test) {
+        return getFailingCells(Collections.singletonList(this), test);
+    }
+
+    /**
+     * @return the cells of any of the indexes the test failed in the newest build of, earliest streak first
+     */
+    public static List<CellFailures> getFailingCells(List<FailureIndex> indexes, String test) {
+        List<CellFailures> failing = new ArrayList<>();
+        for (CellFailures cell : getFailures(indexes, test)) {
+            if (cell.isFailing()) {
+                failing.add(cell);
+            }
+        }
+        Collections.sort(failing, new Comparator<CellFailures>() {
+            @Override
+            public int compare(CellFailures first, CellFailures second) {
+                return Long.compare(first.getStreakStartTime(), second.getStreakStartTime());
+            }
+        });
+        return failing;
+    }
+
+    public synchronized int getCellCount() {
+        return cellProjects.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    private void map() throws IOException {
+        Segment[] mapped = new Segment[segmentNames.size()];
+        for (int i = 0; i < mapped.length; i++) {
+            mapped[i] = new Segment(new File(directory, segmentNames.get(i)));
+        }
+        segments = mapped;
+    }
+
+    private void loadManifest() throws IOException {
+        File manifest = new File(directory, MANIFEST);
+        if (!manifest.isFile()) {
+            return;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(manifest)), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            int version;
+            if (in.readInt() != MANIFEST_MAGIC || ((version = in.readInt()) != 1 && version != MANIFEST_VERSION)) {
+                throw new IOException(manifest + " isn't a failure index manifest");
+            }
+            nextSegment = in.readInt();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                segmentNames.add(in.readUTF());
+            }
+            int cellCount = in.readInt();
+            for (int i = 0; i < cellCount; i++) {
+                cellId(in.readUTF(), new JdkPlatformTuple(in.readUTF(), in.readUTF()));
+                watermarks.set(i, in.readInt());
+                if (version > 1) {
+                    int retryCount = in.readInt();
+                    for (int r = 0; r < retryCount; r++) {
+                        retries.get(i).put(in.readInt(), in.readInt());
+                    }
+                }
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch in " + manifest);
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        AtomicFiles.write(new File(directory, MANIFEST), new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeInt(MANIFEST_VERSION);
+                out.writeInt(nextSegment);
+                out.writeInt(segmentNames.size());
+                for (String name : segmentNames) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(cellProjects.size());
+                for (int cell = 0; cell < cellProjects.size(); cell++) {
+                    out.writeUTF(cellProjects.get(cell));
+                    out.writeUTF(cellColumns.get(cell).getJdk());
+                    out.writeUTF(cellColumns.get(cell).getPlatform());
+                    out.writeInt(watermarks.get(cell));
+                    out.writeInt(retries.get(cell).size());
+                    for (Map.Entry<Integer, Integer> retry : retries.get(cell).entrySet()) {
+                        out.writeInt(retry.getKey());
+                        out.writeInt(retry.getValue());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Layout, all ints big endian:
+     * <pre>
+     * magic, version, test count T, cell count C
+     * int[T + 1] name offsets, int[T + 1] posting offsets, int[C] cell ids (sorted), int[C + 1] build offsets
+     * names: UTF-8, sorted by byte
+     * postings of each test: cells, then for each cell: cell id delta, count, build number deltas
+     * builds of each cell: count, then build number delta and zigzag start time delta for each
+     * </pre>
+     * All values in the posting and build lists are varints.
+     *
+     * @param failures test to cell << 32 | build number, in any order
+     * @param builds cell to build number and start time pairs, oldest first
+     */
+    private void writeSegment(File file, Map<String, LongList> failures, Map<Integer, LongList> builds) throws IOException {
+        final byte[][] names = new byte[failures.size()][];
+        int t = 0;
+        for (String test : failures.keySet()) {
+            names[t++] = test.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(names, BYTE_ORDER);
+
+        final int[] nameOffsets = new int[names.length + 1];
+        final int[] postingOffsets = new int[names.length + 1];
+        final ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        for (t = 0; t < names.length; t++) {
+            nameBytes.write(names[t]);
+            nameOffsets[t + 1] = nameBytes.size();
+            LongList postings = failures.get(new String(names[t], StandardCharsets.UTF_8));
+            postings.sort();
+            writePostings(postings, postingBytes);
+            postingOffsets[t + 1] = postingBytes.size();
+        }
+
+        final Integer[] cells = builds.keySet().toArray(new Integer[builds.size()]);
+        Arrays.sort(cells);
+        final int[] buildOffsets = new int[cells.length + 1];
+        final ByteArrayOutputStream buildBytes = new ByteArrayOutputStream();
+        for (int c = 0; c < cells.length; c++) {
+            LongList pairs = builds.get(cells[c]);
+            writeVarint(buildBytes, pairs.size() / 2);
+            long previousNumber = 0;
+            long previousTime = 0;
+            for (int i = 0; i < pairs.size(); i += 2) {
+                writeVarint(buildBytes, pairs.get(i) - previousNumber);
+                long delta = pairs.get(i + 1) - previousTime;
+                writeVarint(buildBytes, (delta << 1) ^ (delta >> 63));
+                previousNumber = pairs.get(i);
+                previousTime = pairs.get(i + 1);
+            }
+            buildOffsets[c + 1] = buildBytes.size();
+        }
+
+        AtomicFiles.writeUnchecked(file, false, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(SEGMENT_VERSION);
+                out.writeInt(names.length);
+                out.writeInt(cells.length);
+                writeInts(out, nameOffsets);
+                writeInts(out, postingOffsets);
+                for (Integer cell : cells) {
+                    out.writeInt(cell);
+                }
+                writeInts(out, buildOffsets);
+                nameBytes.writeTo(out);
+                postingBytes.writeTo(out);
+                buildBytes.writeTo(out);
+            }
+        });
+    }
+
+    private static void writePostings(LongList postings, ByteArrayOutputStream out) {
+        int cells = 0;
+        for (int i = 0; i < postings.size(); i++) {
+            if (i == 0 || postings.get(i) >>> 32 != postings.get(i - 1) >>> 32) {
+                cells++;
+            }
+        }
+        writeVarint(out, cells);
+        long previousCell = 0;
+        for (int i = 0; i < postings.size(); ) {
+            long cell = postings.get(i) >>> 32;
+            int end = i;
+            while (end < postings.size() && postings.get(end) >>> 32 == cell) {
+                end++;
+            }
+            writeVarint(out, cell - previousCell);
+            writeVarint(out, end - i);
+            long previousNumber = 0;
+            for (; i < end; i++) {
+                long number = postings.get(i) & 0xffffffffL;
+                writeVarint(out, number - previousNumber);
+                previousNumber = number;
+            }
+            previousCell = cell;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] first, byte[] second) {
+            int length = Math.min(first.length, second.length);
+            for (int i = 0; i < length; i++) {
+                int value = (first[i] & 0xff) - (second[i] & 0xff);
+                if (value != 0) {
+                    return value;
+                }
+            }
+            return first.length - second.length;
+        }
+    };
+
+    /**
+     * A memory mapped segment file, read through absolute gets and duplicates so queries can run concurrently
+     */
+    private static class Segment {
+        private final MappedByteBuffer buffer;
+        private final int tests;
+        private final int cells;
+        private final int nameOffsets;
+        private final int postingOffsets;
+        private final int cellIds;
+        private final int buildOffsets;
+        private final int names;
+        private final int postings;
+        private final int builds;
+
+        Segment(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != SEGMENT_VERSION) {
+                throw new IOException(file + " isn't a failure index segment");
+            }
+            tests = buffer.getInt(8);
+            cells = buffer.getInt(12);
+            nameOffsets = 16;
+            postingOffsets = nameOffsets + 4 * (tests + 1);
+            cellIds = postingOffsets + 4 * (tests + 1);
+            buildOffsets = cellIds + 4 * cells;
+            names = buildOffsets + 4 * (cells + 1);
+            postings = names + buffer.getInt(nameOffsets + 4 * tests);
+            builds = postings + buffer.getInt(postingOffsets + 4 * tests);
+        }
+
+        /**
+         * @return the index of the test, or -1 if it didn't fail in this segment
+         */
+        int find(byte[] key) {
+            int low = 0;
+            int high = tests - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int value = compare(middle, key);
+                if (value < 0) {
+                    low = middle + 1;
+                } else if (value > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int test, byte[] key) {
+            int start = names + buffer.getInt(nameOffsets + 4 * test);
+            int length = names + buffer.getInt(nameOffsets + 4 * (test + 1)) - start;
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int value = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+                if (value != 0) {
+                    return value;
+                }
+            }
+            return length - key.length;
+        }
+
+        private String name(int test) {
+            int start = names + buffer.getInt(nameOffsets + 4 * test);
+            byte[] bytes = new byte[names + buffer.getInt(nameOffsets + 4 * (test + 1)) - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Add the test's postings, as cell << 32 | build number, to a list
+         */
+        void readPostings(int test, LongList out) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(postings + buffer.getInt(postingOffsets + 4 * test));
+            long cellCount = readVarint(view);
+            long cell = 0;
+            for (long c = 0; c < cellCount; c++) {
+                cell += readVarint(view);
+                long count = readVarint(view);
+                long number = 0;
+                for (long i = 0; i < count; i++) {
+                    number += readVarint(view);
+                    out.add(cell << 32 | number);
+                }
+            }
+        }
+
+        /**
+         * Add the builds indexed in a cell, as number and start time pairs, to a list
+         */
+        void readBuilds(int cell, LongList out) {
+            int low = 0;
+            int high = cells - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int value = buffer.getInt(cellIds + 4 * middle);
+                if (value < cell) {
+                    low = middle + 1;
+                } else if (value > cell) {
+                    high = middle - 1;
+                } else {
+                    readBuildsAt(middle, out);
+                    return;
+                }
+            }
+        }
+
+        private void readBuildsAt(int index, LongList out) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(builds + buffer.getInt(buildOffsets + 4 * index));
+            long count = readVarint(view);
+            long number = 0;
+            long time = 0;
+            for (long i = 0; i < count; i++) {
+                number += readVarint(view);
+                long zigzag = readVarint(view);
+                time += (zigzag >>> 1) ^ -(zigzag & 1);
+                out.add(number);
+                out.add(time);
+            }
+        }
+
+        /**
+         * Add everything in the segment to the maps, for merging
+         */
+        void readAll(Map<String, LongList> failures, Map<Integer, LongList> cellBuilds) {
+            for (int test = 0; test < tests; test++) {
+                String name = name(test);
+                LongList list = failures.get(name);
+                if (list == null) {
+                    list = new LongList();
+                    failures.put(name, list);
+                }
+                readPostings(test, list);
+            }
+            for (int index = 0; index < cells; index++) {
+                int cell = buffer.getInt(cellIds + 4 * index);
+                LongList list = cellBuilds.get(cell);
+                if (list == null) {
+                    list = new LongList();
+                    cellBuilds.put(cell, list);
+                }
+                readBuildsAt(index, list);
+            }
+        }
+    }
+
+    /**
+     * Growable list of longs, so postings aren't boxed
+     */
+    private static class LongList {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        /**
+         * Sort a list of pairs by the first of each, for lists which are nearly in order already
+         */
+        void sortPairs() {
+            for (int i = 2; i < size; i += 2) {
+                long first = values[i];
+                long second = values[i + 1];
+                int j = i;
+                for (; j > 0 && values[j - 2] > first; j -= 2) {
+                    values[j] = values[j - 2];
+                    values[j + 1] = values[j - 1];
+                }
+                values[j] = first;
+                values[j + 1] = second;
+            }
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * All file system access of the scan goes through here, because the jobs directory is usually an NFS
+ * mount and one stalled call shouldn't hang the whole report:
+ * <ul>
+ *     <li>at most a given number of metadata operations (listing, links, attributes) and of reads are in
+ *     flight at once, a server that is struggling doesn't get more of them</li>
+ *     <li>each operation runs with a deadline, if it isn't done in time an {@link UnreachableException} is
+ *     thrown and the caller moves on, leaving the stuck call to finish on its own thread</li>
+ *     <li>paths which don't exist, like the configurations/ directory of a project which isn't a matrix
+ *     project, are remembered for a while so they aren't looked for on every run</li>
+ *     <li>files are read sequentially in large chunks, or backwards from their end within a budget</li>
+ * </ul>
+ * A latency can be added to every operation, to try all of this out on a local directory.
+ *
+ * @author kearls
+ */
+public class FileSystemAccess {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * An operation didn't finish within its deadline.  The configuration it was for is reported as unreachable.
+     */
+    public static class UnreachableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnreachableException(String message) {
+            super(message);
+        }
+    }
+
+    private final Semaphore metadataPermits;
+    private final Semaphore readPermits;
+    private final long deadlineMillis;
+    private final long missingTtlMillis;
+    private final ExecutorService executor;     // null without a deadline, operations then run on the caller's thread
+    private volatile long injectedLatencyMillis = 0;
+
+    // Paths found not to exist, with when to look again
+    private final ConcurrentMap<String, Long> missing = new ConcurrentHashMap<>();
+
+    /**
+     * Plain access on the caller's thread, without limits
+     */
+    public static FileSystemAccess direct() {
+        return new FileSystemAccess(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * @param metadataOperations listings, link reads and attribute reads in flight at once
+     * @param reads file reads in flight at once
+     * @param deadlineMillis how long one operation may take, 0 for no deadline
+     * @param missingTtlMillis how long to remember that a path doesn't exist, 0 to not remember
+     */
+    public FileSystemAccess(int metadataOperations, int reads, long deadlineMillis, long missingTtlMillis) {
+        if (metadataOperations < 1 || reads < 1) {
+            throw new IllegalArgumentException("At least one operation of each kind must be allowed");
+        }
+        this.metadataPermits = new Semaphore(metadataOperations);
+        this.readPermits = new Semaphore(reads);
+        this.deadlineMillis = deadlineMillis;
+        this.missingTtlMillis = missingTtlMillis;
+        this.executor = deadlineMillis > 0 ? Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "file-access");
+                thread.setDaemon(true);     // a call stuck on a dead server mustn't keep us running
+                return thread;
+            }
+        }) : null;
+    }
+
+    /**
+     * @param millis added to every operation, for testing on local directories
+     */
+    public void setInjectedLatency(long millis) {
+        this.injectedLatencyMillis = millis;
+    }
+
+    /**
+     * @param rememberMissing remember for a while if the directory doesn't exist
+     * @return the entries of the directory
+     * @throws NoSuchFileException if it doesn't exist, or didn't the last time we looked
+     */
+    public List<Path> list(final Path directory, boolean rememberMissing) throws IOException {
+        checkMissing(directory, rememberMissing);
+        try {
+            return call(metadataPermits, "list", directory, new Callable<List<Path>>() {
+                @Override
+                public List<Path> call() throws IOException {
+                    List<Path> entries = new ArrayList<>();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                        for (Path entry : stream) {
+                            entries.add(entry);
+                        }
+                    }
+                    return entries;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            recordMissing(directory, rememberMissing);
+            throw e;
+        }
+    }
+
+    /**
+     * @param rememberMissing remember for a while if the link doesn't exist
+     * @return the target of the symlink, or null if it doesn't exist or isn't a symlink
+     */
+    public String readLink(final Path link, boolean rememberMissing) throws IOException {
+        if (isMissing(link, rememberMissing)) {
+            return null;
+        }
+        try {
+            return call(metadataPermits, "readlink", link, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return Files.readSymbolicLink(link).toString();
+                }
+            });
+        } catch (NoSuchFileException | NotLinkException e) {
+            recordMissing(link, rememberMissing);
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    public boolean exists(final Path path) throws IOException {
+        return call(metadataPermits, "exists", path, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Files.exists(path);
+            }
+        });
+    }
+
+    public BasicFileAttributes readAttributes(final Path path) throws IOException {
+        return call(metadataPermits, "stat", path, new Callable<BasicFileAttributes>() {
+            @Override
+            public BasicFileAttributes call() throws IOException {
+                return Files.readAttributes(path, BasicFileAttributes.class);
+            }
+        });
+    }
+
+    /**
+     * Read a small file in one go
+     *
+     * @param rememberMissing remember for a while if the file doesn't exist
+     * @throws NoSuchFileException if it doesn't exist, or didn't the last time we looked
+     */
+    public byte[] readAllBytes(final Path file, boolean rememberMissing) throws IOException {
+        checkMissing(file, rememberMissing);
+        try {
+            return call(readPermits, "read", file, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return Files.readAllBytes(file);
+                }
+            });
+        } catch (NoSuchFileException e) {
+            recordMissing(file, rememberMissing);
+            throw e;
+        }
+    }
+
+    /**
+     * @return a stream reading the file in chunks of up to a megabyte, each read with its own deadline.  The
+     * bytes read are added to the {@link ScanMetrics} when it is closed.
+     */
+    public InputStream open(final Path file) throws IOException {
+        final FileChannel channel = call(metadataPermits, "open", file, new Callable<FileChannel>() {
+            @Override
+            public FileChannel call() throws IOException {
+                return FileChannel.open(file, StandardOpenOption.READ);
+            }
+        });
+        try {
+            long size = channel.size();
+            return new ChunkedInputStream(file, channel, (int) Math.max(8192, Math.min(size, CHUNK_SIZE)));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Told about each chunk of a file read backwards
+     */
+    public interface ChunkVisitor {
+        /**
+         * @param chunk the bytes from position up to position + chunk.remaining()
+         * @return false to stop reading
+         */
+        boolean visit(ByteBuffer chunk, long position);
+    }
+
+    /**
+     * Read the end of a file towards its start with positional reads of up to chunkSize bytes, each with its
+     * own deadline, so a large file is never read as a whole.  Reading stops after maxBytes.
+     *
+     * @return the number of bytes read
+     */
+    public long readBackwards(final Path file, int chunkSize, long maxBytes, ChunkVisitor visitor) throws IOException {
+        final FileChannel channel = call(metadataPermits, "open", file, new Callable<FileChannel>() {
+            @Override
+            public FileChannel call() throws IOException {
+                return FileChannel.open(file, StandardOpenOption.READ);
+            }
+        });
+        long bytesRead = 0;
+        try {
+            long end = channel.size();
+            long stop = Math.max(0, end - maxBytes);
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(chunkSize, end - stop)));
+            while (end > stop) {
+                final long position = Math.max(stop, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - position));
+                call(readPermits, "read", file, new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        long next = position;
+                        while (buffer.hasRemaining()) {
+                            int read = channel.read(buffer, next);
+                            if (read < 0) {
+                                break;      // truncated since we looked at its size
+                            }
+                            next += read;
+                        }
+                        return null;
+                    }
+                });
+                buffer.flip();
+                bytesRead += buffer.remaining();
+                if (!visitor.visit(buffer, position)) {
+                    break;
+                }
+                end = position;
+            }
+        } finally {
+            ScanMetrics.get().fileRead(bytesRead);
+            channel.close();
+        }
+        return bytesRead;
+    }
+
+    private class ChunkedInputStream extends InputStream {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private boolean eof = false;
+        private long bytesRead = 0;
+
+        ChunkedInputStream(Path file, FileChannel channel, int chunkSize) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(chunkSize);
+            buffer.flip();      // empty
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            buffer.clear();
+            call(readPermits, "read", file, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    return null;
+                }
+            });
+            buffer.flip();
+            bytesRead += buffer.remaining();
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                ScanMetrics.get().fileRead(bytesRead);
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Run an operation holding one of the permits, giving up when the deadline passes
+     */
+    private <T> T call(final Semaphore permits, String what, Path path, final Callable<T> operation) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (executor == null) {
+                permits.acquire();
+                try {
+                    return run(operation);
+                } catch (IOException | RuntimeException | InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                } finally {
+                    permits.release();
+                }
+            }
+
+            if (!permits.tryAcquire(deadlineMillis, TimeUnit.MILLISECONDS)) {
+                ScanMetrics.get().operationTimedOut();
+                throw new UnreachableException("Waited " + deadlineMillis + "ms for a free " + what + " slot, not trying " + path);
+            }
+            Future<T> future;
+            try {
+                future = executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        try {
+                            return run(operation);
+                        } finally {
+                            permits.release();      // only once the call has really returned
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw new IOException("File access has been shut down");
+            }
+
+            long remaining = deadlineMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            try {
+                return future.get(Math.max(1, remaining), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                ScanMetrics.get().operationTimedOut();
+                throw new UnreachableException(what + " of " + path + " took longer than " + deadlineMillis + "ms");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during " + what + " of " + path);
+        }
+    }
+
+    private <T> T run(Callable<T> operation) throws Exception {
+        long latency = injectedLatencyMillis;
+        if (latency > 0) {
+            sleepUninterruptibly(latency);
+        }
+        return operation.call();
+    }
+
+    /**
+     * Like a call stuck on a dead NFS server, the injected latency isn't cut short by cancelling the call
+     */
+    private static void sleepUninterruptibly(long millis) {
+        boolean interrupted = false;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isMissing(Path path, boolean rememberMissing) {
+        if (!rememberMissing || missingTtlMillis <= 0) {
+            return false;
+        }
+        String key = path.toString();
+        Long until = missing.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            missing.remove(key, until);
+            return false;
+        }
+        ScanMetrics.get().missingPathSkipped();
+        return true;
+    }
+
+    private void checkMissing(Path path, boolean rememberMissing) throws NoSuchFileException {
+        if (isMissing(path, rememberMissing)) {
+            throw new NoSuchFileException(path.toString(), null, "didn't exist when last looked for");
+        }
+    }
+
+    private void recordMissing(Path path, boolean rememberMissing) {
+        if (rememberMissing && missingTtlMillis > 0) {
+            missing.put(path.toString(), System.currentTimeMillis() + missingTtlMillis);
+        }
+    }
+
+    /**
+     * Read the paths remembered as missing by an earlier run, one "time path" per line.  A file
+     * that can't be read is ignored.
+     */
+    public void loadMissing(File file) {
+        if (missingTtlMillis <= 0 || !file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    long until = Long.parseLong(line.substring(0, space));
+                    if (until > now) {
+                        missing.put(Paths.get(line.substring(space + 1)).toString(), Math.min(until, now + missingTtlMillis));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring " + file + ": " + e.getMessage());
+            missing.clear();
+        }
+    }
+
+    /**
+     * Write the paths still remembered as missing, replacing the file atomically
+     */
+    public void saveMissing(File file) throws IOException {
+        if (missingTtlMillis <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        AtomicFiles.writeText(file, StandardCharsets.UTF_8, new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                for (Map.Entry<String, Long> entry : missing.entrySet()) {
+                    if (entry.getValue() > now) {
+                        writer.write(entry.getValue() + " " + entry.getKey() + System.lineSeparator());
+                    }
+                }
+            }
+        });
+    }
+
+    public int getMissingCount() {
+        return missing.size();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes a {@link ResultGrid} as the HTML summary.  Everything is streamed through one buffered writer;
+ * numbers and dates go through a single reused builder rather than string concatenation per cell.
+ *
+ * @author kearls
+ */
+public class HtmlSummaryWriter {
+    private static final String passedTdOpenTag = "<td style=\"background-color: #2E8B57;\">";
+    private static final String failedTestsTdOpenTag = "<td style=\"background-color: #ffd700;\">";
+    private static final String failedBuildTdOpenTag =  "<td style=\"background-color: #dc143c;\">";
+    private static final String tdCloseTag = "</td>";
+    private static final String unreachableTd = "<td style=\"background-color: #a9a9a9;\" title=\"couldn't be read in time\">stale</td>";
+    private static final String CHANGED_STYLE = " border: 3px solid #1e90ff;";
+    private static final String NEW_LINE = SummarizeBuildResults.NEW_LINE;
+    private static final String STYLE = "<style><!--\n" +
+            "table { border-collapse: collapse; font-family: Futura, Arial, sans-serif; } caption { font-size: larger; margin: 1em auto; } th, td { padding: .65em; } th, thead { background: #000; color: #fff; border: 1px solid #000; } td { border: 1px solid #777; }\n" +
+            "--></style>";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String caption;
+    private ResultChanges changes;      // cells to highlight, if any
+    private UnreachableConfigurations unreachable;
+    private Map<BuildResult, Integer> slowBuilds;      // to the duration they exceeded, if any
+    private int slowPercentile;
+    private final StringBuilder builder = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    /**
+     * @param caption caption of the table, the date is added to it
+     */
+    public HtmlSummaryWriter(String caption) {
+        this.caption = caption;
+    }
+
+    /**
+     * Highlight the cells which changed since the last run
+     */
+    public void setChanges(ResultChanges changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Show the configurations the scan couldn't read in time as stale
+     */
+    public void setUnreachable(UnreachableConfigurations unreachable) {
+        this.unreachable = unreachable;
+    }
+
+    /**
+     * Flag the builds which took longer than a percentile of their configuration's earlier builds
+     *
+     * @param slowBuilds the slow builds, with the duration they exceeded
+     */
+    public void setSlowBuilds(Map<BuildResult, Integer> slowBuilds, int percentile) {
+        this.slowBuilds = slowBuilds;
+        this.slowPercentile = percentile;
+    }
+
+    /**
+     * Write the summary and close the writer
+     */
+    public void write(ResultGrid grid, Writer target) throws IOException {
+        Writer writer = target instanceof BufferedWriter ? target : new BufferedWriter(target, BUFFER_SIZE);
+        try {
+            writer.write("<html>" + NEW_LINE);
+            writer.write("<body>" + NEW_LINE);
+            writer.write(STYLE);
+            writer.write(NEW_LINE);
+            writer.write("<table border=\"1\">" + NEW_LINE);
+            writer.write("<caption>");
+            writer.write(caption);
+            writer.write(" as of ");
+            writer.write(new Date().toString());
+            writer.write("</caption>" + NEW_LINE);
+            writeHeaders(grid, writer);
+
+            // One row for each project
+            for (int row = 0; row < grid.getRowCount(); row++) {
+                String projectName = grid.getProject(row);
+                writer.write("    <tr><td>");
+                writer.write(projectName);
+                writer.write(tdCloseTag);
+                for (int column = 0; column < grid.getColumnCount(); column++) {
+                    writeCell(writer, projectName, grid.getColumn(column), grid.get(row, column));
+                }
+                writer.write("</tr> " + NEW_LINE);
+            }
+
+            writer.write("</table>" + NEW_LINE);
+            writer.write("<br/>" + NEW_LINE);
+            writer.write("<p>Red cells indicate build failures, yellow cells indicate builds with test failures, green cells indicate successful builds.  ");
+            writer.write("Cell results N/M show N test failures out of M tests run");
+            if (hasHistory(grid)) {
+                writer.write(", followed by how many of the last builds passed and how often the result flipped between passing and failing");
+            }
+            writer.write("</p>" + NEW_LINE);
+            if (unreachable != null && !unreachable.isEmpty()) {
+                writer.write("<p>Grey cells couldn't be read from the jobs directory in time and show no result.</p>" + NEW_LINE);
+            }
+            if (changes != null && !changes.getChanges().isEmpty()) {
+                writer.write("<p>Cells with a blue border changed since the last run, see <a href=\"" + ChangeReportWriter.HTML_FILE
+                        + "\">what changed</a>.</p>" + NEW_LINE);
+            }
+            if (slowBuilds != null && !slowBuilds.isEmpty()) {
+                writer.write("<p>Cells marked slow took longer than " + slowPercentile + "% of the configuration's earlier builds.</p>"
+                        + NEW_LINE);
+            }
+            writer.write("<p></p>" + NEW_LINE);
+            writer.write("</body>" + NEW_LINE);
+            writer.write("</html>" + NEW_LINE);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private boolean hasHistory(ResultGrid grid) {
+        for (int row = 0; row < grid.getRowCount(); row++) {
+            for (int column = 0; column < grid.getColumnCount(); column++) {
+                BuildResult br = grid.get(row, column);
+                if (br != null && br.getHistory() != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print the headers, one column for each jdk/platform combination
+     */
+    private void writeHeaders(ResultGrid grid, Writer writer) throws IOException {
+        writer.write("<thead><tr><td>Platform</td>");
+        for (int column = 0; column < grid.getColumnCount(); column++) {
+            JdkPlatformTuple tuple = grid.getColumn(column);
+            writer.write("<td>");
+            writer.write(tuple.getPlatform());
+            writer.write(' ');
+            writer.write(tuple.getJdk());
+            writer.write(tdCloseTag);
+        }
+        writer.write("</tr></thead>" + NEW_LINE);
+    }
+
+    private void writeCell(Writer writer, String projectName, JdkPlatformTuple column, BuildResult br) throws IOException {
+        if (br == null) {
+            if (unreachable != null && unreachable.contains(projectName, column)) {
+                writer.write(unreachableTd);
+            } else {
+                writer.write("<td></td>");
+            }
+            return;
+        }
+        String openTag;
+        if (br.getStatus() == BuildResult.Result.SUCCESS) {
+            openTag = passedTdOpenTag;
+        } else if (br.getTestsRun() == 0) {
+            openTag = failedBuildTdOpenTag;
+        } else {
+            openTag = failedTestsTdOpenTag;
+        }
+        ResultChanges.Change change = changes == null ? null : changes.get(br);
+        if (change == null) {
+            writer.write(openTag);
+        } else {
+            // Same cell with a border, and the change as its tooltip
+            writer.write(openTag, 0, openTag.length() - 2);
+            writer.write(CHANGED_STYLE + "\" title=\"" + change.getKind().getDescription() + "\">");
+        }
+
+        StringBuilder sb = builder;
+        sb.setLength(0);
+        sb.append("<a href=\"");
+        SummarizeBuildResults.appendReportUrl(sb, projectName, br.getBuildNumber(), column.getJdk(), column.getPlatform()).append("\">")
+                .append(br.getFailedTests()).append('/').append(br.getTestsRun()).append("</a>")
+                .append("<br/><small><small>(");
+        br.appendFormattedDuration(sb).append(' ').append(br.getFormattedRunDate()).append(")</small></small>");    // TODO do this with CSS
+        Integer slowerThan = slowBuilds == null ? null : slowBuilds.get(br);
+        if (slowerThan != null) {
+            sb.append("<br/><small><b>slow</b>, p").append(slowPercentile).append(" is ");
+            BuildResult.appendFormattedDuration(sb, slowerThan).append("</small>");
+        }
+        if (br.getFailureReason() != null) {
+            sb.append("<br/><small><b>").append(TestFailureReportWriter.escape(br.getFailureReason())).append("</b></small>");
+        }
+        BuildHistory history = br.getHistory();
+        if (history != null && history.size() > 1) {
+            sb.append("<br/><small><small>").append(history.getPassPercentage()).append("% of ").append(history.size())
+                    .append(" passed, ").append(history.getFlips()).append(" flips");
+            int streak = history.getFailureStreak();
+            if (streak > 1) {
+                sb.append(", failing ").append(streak).append(" in a row");
+            }
+            sb.append("</small></small>");
+        }
+        sb.append(tdCloseTag);
+        flushBuilder(writer);
+    }
+
+    /**
+     * Copy the builder to the writer without creating a String
+     */
+    private void flushBuilder(Writer writer) throws IOException {
+        int length = builder.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        builder.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+    }
+}
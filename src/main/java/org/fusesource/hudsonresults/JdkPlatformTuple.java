@@ -16,30 +16,47 @@
  */
 package org.fusesource.hudsonresults;
 
-public class JdkPlatformTuple {
+/**
+ * A column of the summary: one jdk on one platform.  The values are whatever axes Hudson has
+ * configured, see {@link AxisRegistry}.
+ */
+public final class JdkPlatformTuple {
 	
-	private JDK jdk;
-	private PLATFORM platform;
+	private final String jdk;
+	private final String platform;
 	
-	public JdkPlatformTuple(JDK jdk, PLATFORM platform) {
+	public JdkPlatformTuple(String jdk, String platform) {
 		this.jdk = jdk;
 		this.platform = platform;
 	}
 	
-	public JDK getJdk() {
+	public String getJdk() {
 		return jdk;
 	}
-	public void setJdk(JDK jdk) {
-		this.jdk = jdk;
-	}
-	public PLATFORM getPlatform() {
+
+	public String getPlatform() {
 		return platform;
 	}
-	public void setPlatform(PLATFORM platform) {
-		this.platform = platform;
-	}
-	
 
-	
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JdkPlatformTuple)) {
+            return false;
+        }
+        JdkPlatformTuple other = (JdkPlatformTuple) o;
+        return jdk.equals(other.jdk) && platform.equals(other.platform);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * jdk.hashCode() + platform.hashCode();
+    }
 
+    @Override
+    public String toString() {
+        return platform + " " + jdk;
+    }
 }
@@ -0,0 +1,337 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a fake Hudson jobs tree shaped like /mnt/hudson/jobs, so the scan can be tried at any scale:
+ * <pre>
+ *     project/nextBuildNumber
+ *     project/configurations/axis-jdk/jdk6/axis-label/ubuntu/nextBuildNumber
+ *     project/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/2013-09-08_00-07-19/build.xml
+ *     project/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/42 -> 2013-09-08_00-07-19
+ *     project/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/lastCompletedBuild -> 42
+ * </pre>
+ * Some builds can be left without a build.xml (still running), with a truncated one, or without a junit
+ * action.  The same seed always writes the same tree.
+ *
+ * @author kearls
+ */
+public class JobsTreeGenerator {
+    private static final String BUILD_FILE = "build.xml";
+    private static final String NEXT_BUILD_NUMBER = "nextBuildNumber";
+    private static final String LAST_COMPLETED_BUILD = "lastCompletedBuild";
+    private static final long FIRST_BUILD = 1356998400000L;     // 2013-01-01 00:00 UTC
+
+    private int projects = 100;
+    private int otherProjects = 20;
+    private List<String> jdks = Arrays.asList("jdk6", "jdk7");
+    private List<String> labels = Arrays.asList("ubuntu", "windows", "aix7", "Solaris", "rhel", "rhel_oracle");
+    private int builds = 20;
+    private boolean symlinks = true;
+    private int missingPercent = 2;
+    private int partialPercent = 1;
+    private int noJunitPercent = 5;
+    private int unstablePercent = 15;
+    private int failurePercent = 5;
+    private long seed = 1;
+
+    private final AtomicLong buildsWritten = new AtomicLong();
+    private final AtomicLong filesWritten = new AtomicLong();
+
+    public void setProjects(int projects, int otherProjects) {
+        this.projects = projects;
+        this.otherProjects = otherProjects;
+    }
+
+    public void setAxes(List<String> jdks, List<String> labels) {
+        this.jdks = jdks;
+        this.labels = labels;
+    }
+
+    /**
+     * @param builds builds of each configuration
+     * @param symlinks whether to write the numbered symlinks, nextBuildNumber and lastCompletedBuild
+     */
+    public void setBuilds(int builds, boolean symlinks) {
+        this.builds = builds;
+        this.symlinks = symlinks;
+    }
+
+    /**
+     * @param missingPercent builds without a build.xml
+     * @param partialPercent builds with a build.xml cut off half way through
+     * @param noJunitPercent builds without a junit action
+     */
+    public void setDamage(int missingPercent, int partialPercent, int noJunitPercent) {
+        this.missingPercent = missingPercent;
+        this.partialPercent = partialPercent;
+        this.noJunitPercent = noJunitPercent;
+    }
+
+    public void setResults(int unstablePercent, int failurePercent) {
+        this.unstablePercent = unstablePercent;
+        this.failurePercent = failurePercent;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Names of the projects, the first ones match {@link SummarizeBuildResults#ACCEPT_STRING_RH_6_1}, the others don't
+     */
+    String projectName(int index) {
+        return index < projects ? "project-" + index + "-6-1-x-stable-platform" : "project-" + index + "-7-0-x-nightly";
+    }
+
+    /**
+     * Write the tree under the root, which is created if needed
+     */
+    public void generate(File root, int threads) throws IOException {
+        final Path rootPath = root.toPath();
+        Files.createDirectories(rootPath);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < projects + otherProjects; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        writeProject(rootPath.resolve(projectName(index)), new Random(seed * 31 + index));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating");
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't write " + root, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeProject(Path project, Random random) throws IOException {
+        Files.createDirectories(project);
+        writeFile(project.resolve(NEXT_BUILD_NUMBER), (builds + 1) + "\n");
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (String jdk : jdks) {
+            for (String label : labels) {
+                Path configuration = project.resolve("configurations").resolve("axis-jdk").resolve(jdk).resolve("axis-label").resolve(label);
+                Path buildsDirectory = configuration.resolve("builds");
+                Files.createDirectories(buildsDirectory);
+                int lastCompleted = -1;
+
+                for (int number = 1; number <= builds; number++) {
+                    // A build a day, configurations start a few minutes apart
+                    long start = FIRST_BUILD + number * TimeUnit.DAYS.toMillis(1) + random.nextInt(3600) * 1000L;
+                    String name = format.format(new Date(start));
+                    Path buildDirectory = buildsDirectory.resolve(name);
+                    Files.createDirectories(buildDirectory);
+                    buildsWritten.incrementAndGet();
+
+                    if (random.nextInt(100) >= missingPercent) {
+                        String buildXml = buildXml(project.getFileName().toString(), label, number, random);
+                        if (random.nextInt(100) < partialPercent) {
+                            buildXml = buildXml.substring(0, buildXml.length() / 2);
+                        }
+                        writeFile(buildDirectory.resolve(BUILD_FILE), buildXml);
+                        lastCompleted = number;
+                    }
+                    if (symlinks) {
+                        link(buildsDirectory.resolve(Integer.toString(number)), buildDirectory.getFileName());
+                    }
+                }
+
+                if (symlinks) {
+                    writeFile(configuration.resolve(NEXT_BUILD_NUMBER), (builds + 1) + "\n");
+                    link(buildsDirectory.resolve(LAST_COMPLETED_BUILD), buildsDirectory.getFileSystem().getPath(Integer.toString(lastCompleted)));
+                }
+            }
+        }
+    }
+
+    private String buildXml(String projectName, String label, int number, Random random) {
+        int roll = random.nextInt(100);
+        String result = roll < failurePercent ? "FAILURE" : roll < failurePercent + unstablePercent ? "UNSTABLE" : "SUCCESS";
+        boolean junit = !"FAILURE".equals(result) && random.nextInt(100) >= noJunitPercent;
+        int totalCount = 200 + random.nextInt(3000);
+        int failCount = "UNSTABLE".equals(result) ? 1 + random.nextInt(20) : 0;
+        int duration = 600000 + random.nextInt(6 * 3600000);
+        return buildXml(projectName, label, number, result, duration, junit, failCount, totalCount, random.nextInt(4));
+    }
+
+    /**
+     * A matrix-run build.xml following build.xsd, apart from build numbers above 127 which the schema,
+     * generated from a sample file, doesn't allow.
+     *
+     * @param junit whether to include the junit action, builds that fail before the tests run don't have one
+     * @param culprits number of culprits listed, which is what makes real build.xml files large
+     */
+    public static String buildXml(String projectName, String label, int number, String result, int duration, boolean junit,
+                                  int failCount, int totalCount, int culprits) {
+        StringBuilder sb = new StringBuilder(2048 + culprits * 40);
+        sb.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+        sb.append("<matrix-run>\n");
+        sb.append("  <actions>\n");
+        sb.append("    <hudson.model.CauseAction>\n");
+        sb.append("      <causes>\n");
+        sb.append("        <hudson.model.Cause_-UpstreamCause>\n");
+        sb.append("          <upstreamProject>").append(projectName).append("</upstreamProject>\n");
+        sb.append("          <upstreamUrl>job/").append(projectName).append("/</upstreamUrl>\n");
+        sb.append("          <upstreamBuild>").append(number).append("</upstreamBuild>\n");
+        sb.append("          <upstreamCauses>\n");
+        sb.append("            <hudson.model.Cause_-UserCause>\n");
+        sb.append("              <authenticationName>someone</authenticationName>\n");
+        sb.append("            </hudson.model.Cause_-UserCause>\n");
+        sb.append("          </upstreamCauses>\n");
+        sb.append("        </hudson.model.Cause_-UpstreamCause>\n");
+        sb.append("      </causes>\n");
+        sb.append("    </hudson.model.CauseAction>\n");
+        sb.append("    <hudson.plugins.git.util.BuildData>\n");
+        sb.append("      <buildsByBranchName>\n");
+        sb.append("        <entry>\n");
+        sb.append("          <string>origin/6-1-x-stable</string>\n");
+        sb.append("          <hudson.plugins.git.util.Build>\n");
+        sb.append("            <revision>\n");
+        sb.append("              <sha1>a8c9d2b1f0e4c6a7b3d5e9f1c2a4b6d8e0f1a3c5</sha1>\n");
+        sb.append("              <branches class=\"list\">\n");
+        sb.append("                <hudson.plugins.git.Branch>\n");
+        sb.append("                  <sha1 reference=\"../../../sha1\"/>\n");
+        sb.append("                  <name>origin/6-1-x-stable</name>\n");
+        sb.append("                </hudson.plugins.git.Branch>\n");
+        sb.append("              </branches>\n");
+        sb.append("            </revision>\n");
+        sb.append("            <hudsonBuildNumber>").append(number).append("</hudsonBuildNumber>\n");
+        sb.append("          </hudson.plugins.git.util.Build>\n");
+        sb.append("        </entry>\n");
+        sb.append("      </buildsByBranchName>\n");
+        sb.append("      <lastBuild reference=\"../buildsByBranchName/entry/hudson.plugins.git.util.Build\"/>\n");
+        sb.append("    </hudson.plugins.git.util.BuildData>\n");
+        sb.append("    <hudson.scm.SCMRevisionState_-None/>\n");
+        if (junit) {
+            sb.append("    <hudson.tasks.junit.TestResultAction>\n");
+            sb.append("      <owner class=\"matrix-run\" reference=\"../../..\"/>\n");
+            sb.append("      <descriptions class=\"concurrent-hash-map\"/>\n");
+            sb.append("      <failCount>").append(failCount).append("</failCount>\n");
+            sb.append("      <skipCount>0</skipCount>\n");
+            sb.append("      <totalCount>").append(totalCount).append("</totalCount>\n");
+            sb.append("      <testData/>\n");
+            sb.append("    </hudson.tasks.junit.TestResultAction>\n");
+        }
+        sb.append("  </actions>\n");
+        sb.append("  <number>").append(number).append("</number>\n");
+        sb.append("  <result>").append(result).append("</result>\n");
+        sb.append("  <duration>").append(duration).append("</duration>\n");
+        sb.append("  <charset>UTF-8</charset>\n");
+        sb.append("  <keepLog>false</keepLog>\n");
+        sb.append("  <builtOn>").append(label).append("-slave-1</builtOn>\n");
+        sb.append("  <workspace>/home/hudson/workspace/").append(projectName).append("</workspace>\n");
+        sb.append("  <hudsonVersion>2.2.1</hudsonVersion>\n");
+        sb.append("  <scm class=\"hudson.scm.NullChangeLogParser\">\n");
+        sb.append("    <authorOrCommitter>false</authorOrCommitter>\n");
+        sb.append("  </scm>\n");
+        sb.append("  <culprits>\n");
+        for (int i = 0; i < culprits; i++) {
+            sb.append("    <string>").append(i % 2 == 0 ? "someone" : "Someone Else").append("</string>\n");
+        }
+        sb.append("  </culprits>\n");
+        sb.append("</matrix-run>\n");
+        return sb.toString();
+    }
+
+    private void writeFile(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        filesWritten.incrementAndGet();
+    }
+
+    private void link(Path link, Path target) throws IOException {
+        try {
+            Files.createSymbolicLink(link, target);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(link);
+            Files.createSymbolicLink(link, target);
+        }
+        filesWritten.incrementAndGet();
+    }
+
+    private static List<String> listOption(Map<String, String> options, String name, List<String> defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Arrays.asList(value.split(","));
+    }
+
+    /**
+     * @param args root of the tree to write, then options, see the README
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = SummarizeBuildResults.parseOptions(args, positional);
+        if (positional.isEmpty()) {
+            System.err.println("Usage: JobsTreeGenerator root [--projects=N] [--other-projects=N] [--jdks=a,b] [--labels=a,b] [--builds=N]"
+                    + " [--no-symlinks] [--missing=%] [--partial=%] [--no-junit=%] [--unstable=%] [--failure=%] [--seed=N] [--threads=N]");
+            System.exit(1);
+        }
+
+        JobsTreeGenerator generator = new JobsTreeGenerator();
+        generator.setProjects(SummarizeBuildResults.intOption(options, "projects", generator.projects),
+                SummarizeBuildResults.intOption(options, "other-projects", generator.otherProjects));
+        generator.setAxes(listOption(options, "jdks", generator.jdks), listOption(options, "labels", generator.labels));
+        generator.setBuilds(SummarizeBuildResults.intOption(options, "builds", generator.builds), !options.containsKey("no-symlinks"));
+        generator.setDamage(SummarizeBuildResults.intOption(options, "missing", generator.missingPercent),
+                SummarizeBuildResults.intOption(options, "partial", generator.partialPercent),
+                SummarizeBuildResults.intOption(options, "no-junit", generator.noJunitPercent));
+        generator.setResults(SummarizeBuildResults.intOption(options, "unstable", generator.unstablePercent),
+                SummarizeBuildResults.intOption(options, "failure", generator.failurePercent));
+        generator.setSeed(SummarizeBuildResults.intOption(options, "seed", 1));
+
+        File root = new File(positional.get(0));
+        long start = System.nanoTime();
+        generator.generate(root, SummarizeBuildResults.intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+        System.out.println("Wrote " + (generator.projects + generator.otherProjects) + " projects, " + generator.buildsWritten + " builds and "
+                + generator.filesWritten + " files under " + root + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The little JSON writing we need.  Everything we write is a fixed layout put out a field at a time, and
+ * the same quoting is used for Prometheus label values, so this is simpler than a generator.  Reading
+ * the master's JSON API, see {@link RemoteBuildSource}, is left to jackson-core's streaming parser.
+ *
+ * @author kearls
+ */
+final class Json {
+    private Json() {
+    }
+
+    /**
+     * @return the value as a quoted JSON string, which is also how Prometheus wants label values
+     */
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        quote(value, sb);
+        return sb.toString();
+    }
+
+    static void quote(String value, StringBuilder sb) {
+        sb.append('"');
+        try {
+            escape(value, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);     // StringBuilder doesn't throw
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Write the value as a quoted JSON string, straight to the writer
+     */
+    static void quote(String value, Writer writer) throws IOException {
+        writer.write('"');
+        escape(value, writer);
+        writer.write('"');
+    }
+
+    /**
+     * Append the value escaped for use inside a JSON string, without the quotes
+     */
+    static void escape(String value, Appendable out) throws IOException {
+        int start = 0;      // copy runs of characters that don't need escaping in one go
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                out.append(value, start, i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        out.append(value, start, value.length());
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams through a Hudson junitResult.xml, which can be tens of MB, and reports only the failed and
+ * skipped test cases.  Stack traces, stdout and stderr are skipped without being collected, and the
+ * parser is not coalescing, so heap use doesn't depend on the size of the report.
+ *
+ * @author kearls
+ */
+public class JunitResultScanner {
+    public static final String JUNIT_RESULT_FILE = "junitResult.xml";
+
+    private static final String CASE = "case";
+    private static final String CLASS_NAME = "className";
+    private static final String TEST_NAME = "testName";
+    private static final String SKIPPED = "skipped";
+    private static final String ERROR_STACK_TRACE = "errorStackTrace";
+    private static final String ERROR_DETAILS = "errorDetails";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    }
+
+    /**
+     * Told about each test case that didn't pass
+     */
+    public interface CaseVisitor {
+        /**
+         * @param className class of the test, interned
+         * @param testName name of the test method, interned
+         * @param skipped true if the test was skipped rather than failed
+         */
+        void visit(String className, String testName, boolean skipped);
+    }
+
+    private final StringInterner interner;
+    private final FileSystemAccess access;
+
+    public JunitResultScanner(StringInterner interner, FileSystemAccess access) {
+        this.interner = interner;
+        this.access = access;
+    }
+
+    /**
+     * @param buildDirectory directory of a build
+     * @return false if the build has no junitResult.xml
+     */
+    public boolean scan(File buildDirectory, CaseVisitor visitor) throws IOException, XMLStreamException {
+        File junitResult = new File(buildDirectory, JUNIT_RESULT_FILE);
+        ScanMetrics.get().fileChecked();
+        if (!access.exists(junitResult.toPath())) {
+            return false;
+        }
+        try (InputStream in = access.open(junitResult.toPath())) {
+            scan(in, visitor);
+        }
+        return true;
+    }
+
+    public void scan(InputStream in, CaseVisitor visitor) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && CASE.equals(reader.getLocalName())) {
+                    readCase(reader, visitor);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readCase(XMLStreamReader reader, CaseVisitor visitor) throws XMLStreamException {
+        String className = null;
+        String testName = null;
+        boolean skipped = false;
+        boolean failed = false;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            if (CLASS_NAME.equals(element)) {
+                className = reader.getElementText();
+            } else if (TEST_NAME.equals(element)) {
+                testName = reader.getElementText();
+            } else if (SKIPPED.equals(element)) {
+                skipped = "true".equals(reader.getElementText().trim());
+            } else {
+                failed |= ERROR_STACK_TRACE.equals(element) || ERROR_DETAILS.equals(element);
+                skipElement(reader);
+            }
+        }
+        if ((failed || skipped) && className != null && testName != null) {
+            visitor.visit(interner.intern(className.trim()), interner.intern(testName.trim()), skipped && !failed);
+        }
+    }
+
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the latest completed build in a builds/ directory using the metadata Hudson keeps, so that
+ * we don't have to list and stat every build:
+ * <ol>
+ *     <li>the lastCompletedBuild permalink, either a symlink in builds/ or a line in builds/permalinks</li>
+ *     <li>nextBuildNumber in the configuration directory, following the numbered symlinks down from it</li>
+ *     <li>a single pass over builds/ keeping the newest date-time named directory</li>
+ * </ol>
+ * The permalinks and nextBuildNumber files that a configuration doesn't have are remembered as missing
+ * by the {@link FileSystemAccess} for a while.
+ *
+ * @author kearls
+ */
+public class LatestBuildResolver {
+    private static final String BUILD_FILE = "build.xml";
+    private static final String LAST_COMPLETED_BUILD = "lastCompletedBuild";
+    private static final String PERMALINKS = "permalinks";
+    private static final String NEXT_BUILD_NUMBER = "nextBuildNumber";
+
+    // How far below nextBuildNumber we look for a build, builds can be deleted or still running
+    private static final int MAX_NUMBER_PROBES = 5;
+
+    // Build directories are named by date time, i.e. 2012-11-02_21-09-35, which also sorts them by age
+    static final Pattern BUILD_DIRECTORY_NAME = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}");
+
+    private final FileSystemAccess access;
+
+    public LatestBuildResolver() {
+        this(FileSystemAccess.direct());
+    }
+
+    public LatestBuildResolver(FileSystemAccess access) {
+        this.access = access;
+    }
+
+    /**
+     * @param buildsDirectory Something like: cxf-2.6.0.fuse-7-1-x-stable-platform/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/
+     * @return the latest build directory with a build.xml, or null if there isn't one
+     */
+    public File getLatestBuildDirectory(File buildsDirectory) throws IOException {
+        if (buildsDirectory == null) {
+            return null;
+        }
+        Path builds = buildsDirectory.toPath();
+
+        Path latest = fromPermalink(builds);
+        if (latest == null) {
+            latest = fromNextBuildNumber(builds);
+        }
+        if (latest == null) {
+            latest = scan(builds);
+        }
+        return latest == null ? null : latest.toFile();
+    }
+
+    /**
+     * @param buildsDirectory a configuration's builds/ directory
+     * @param count maximum number of builds to return
+     * @return the newest date-time named build directories, newest first.  They are not checked for a build.xml.
+     */
+    public List<File> getRecentBuildDirectories(File buildsDirectory, int count) throws IOException {
+        // Min-heap of the newest names seen so far, so one pass over the directory is enough
+        PriorityQueue<String> newest = new PriorityQueue<>(count + 1);
+        try {
+            List<Path> entries = access.list(buildsDirectory.toPath(), false);
+            ScanMetrics.get().directoryListed();
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (BUILD_DIRECTORY_NAME.matcher(name).matches()) {
+                    if (newest.size() < count) {
+                        newest.add(name);
+                    } else if (name.compareTo(newest.peek()) > 0) {
+                        newest.poll();
+                        newest.add(name);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+
+        File[] builds = new File[newest.size()];
+        for (int i = builds.length - 1; i >= 0; i--) {
+            builds[i] = new File(buildsDirectory, newest.poll());
+        }
+        return Arrays.asList(builds);
+    }
+
+    /**
+     * Follow lastCompletedBuild to a build number, then to the build directory
+     */
+    private Path fromPermalink(Path builds) throws IOException {
+        String target = readLink(builds.resolve(LAST_COMPLETED_BUILD), true);
+        if (target == null) {
+            target = readPermalinksFile(builds.resolve(PERMALINKS));
+        }
+        if (target == null) {
+            return null;
+        }
+        if (BUILD_DIRECTORY_NAME.matcher(target).matches()) {
+            return withBuildFile(builds.resolve(target));
+        }
+        try {
+            int number = Integer.parseInt(target);
+            return number > 0 ? fromBuildNumber(builds, number) : null;    // -1 means no completed build
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String readPermalinksFile(Path permalinks) throws IOException {
+        byte[] contents;
+        try {
+            contents = access.readAllBytes(permalinks, true);
+        } catch (NoSuchFileException e) {
+            return null;    // Older Hudson, no permalinks file
+        }
+        ScanMetrics.get().fileRead(contents.length);
+        for (String line : new String(contents, StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith(LAST_COMPLETED_BUILD + " ")) {
+                return line.substring(LAST_COMPLETED_BUILD.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * nextBuildNumber holds the number the next build will get, so look for the builds just below it
+     */
+    private Path fromNextBuildNumber(Path builds) throws IOException {
+        Path nextBuildNumberFile = builds.resolveSibling(NEXT_BUILD_NUMBER);
+        int nextBuildNumber;
+        try {
+            byte[] contents = access.readAllBytes(nextBuildNumberFile, true);
+            ScanMetrics.get().fileRead(contents.length);
+            nextBuildNumber = Integer.parseInt(new String(contents, StandardCharsets.US_ASCII).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return null;
+        }
+
+        for (int number = nextBuildNumber - 1; number > 0 && number >= nextBuildNumber - MAX_NUMBER_PROBES; number--) {
+            Path build = fromBuildNumber(builds, number);
+            if (build != null) {
+                return build;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Numbered entries in builds/ are symlinks to the date time named build directories
+     */
+    private Path fromBuildNumber(Path builds, int number) throws IOException {
+        String target = readLink(builds.resolve(Integer.toString(number)), false);
+        if (target == null) {
+            return null;
+        }
+        return withBuildFile(builds.resolve(target).normalize());
+    }
+
+    /**
+     * One pass over the directory, keeping the two newest build directories by name; no sorting and
+     * no stat of each entry.  If the newest build has no build.xml (yet) the one before it is used.
+     */
+    private Path scan(Path builds) throws IOException {
+        String newest = null;
+        String previous = null;
+        try {
+            List<Path> entries = access.list(builds, false);
+            ScanMetrics.get().directoryListed();
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!BUILD_DIRECTORY_NAME.matcher(name).matches()) {
+                    continue;   // numbered symlinks, permalinks, etc.
+                }
+                if (newest == null || name.compareTo(newest) > 0) {
+                    previous = newest;
+                    newest = name;
+                } else if (previous == null || name.compareTo(previous) > 0) {
+                    previous = name;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        if (newest == null) {
+            return null;
+        }
+        Path latest = withBuildFile(builds.resolve(newest));
+        if (latest == null && previous != null) {
+            latest = withBuildFile(builds.resolve(previous));
+            ScanMetrics.get().missingBuildFile();
+            System.out.println(">>>> Couldn't find [" + builds.resolve(newest).resolve(BUILD_FILE) + "] using " + builds.resolve(previous));
+        }
+        return latest;
+    }
+
+    private Path withBuildFile(Path buildDirectory) throws IOException {
+        long start = System.nanoTime();
+        boolean exists = access.exists(buildDirectory.resolve(BUILD_FILE));
+        ScanMetrics.get().fileChecked(start);
+        return exists ? buildDirectory : null;
+    }
+
+    /**
+     * @param rememberMissing true for links a configuration either has or hasn't, rather than ones that come and go
+     * @return the target of the symlink, or null if it doesn't exist or isn't a symlink
+     */
+    private String readLink(Path link, boolean rememberMissing) throws IOException {
+        ScanMetrics.get().linkRead();
+        return access.readLink(link, rememberMissing);
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the {@link ScanMetrics} as metrics.json, for keeping with each night's results, and as metrics.prom
+ * in the Prometheus text format for the node exporter's textfile collector.  Both are replaced atomically,
+ * so the collector never sees half a file.
+ *
+ * @author kearls
+ */
+public class MetricsWriter {
+    public static final String JSON_FILE = "metrics.json";
+    public static final String PROMETHEUS_FILE = "metrics.prom";
+
+    private static final String PREFIX = "hudson_results_";
+    private static final int SLOWEST_PROJECTS = 20;
+
+    private final ScanMetrics metrics;
+
+    public MetricsWriter(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Write both files into the directory, usually the one holding results.html
+     */
+    public void write(File directory) throws IOException {
+        AtomicFiles.writeText(new File(directory, JSON_FILE), Charset.defaultCharset(), new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                writeJson(writer);
+            }
+        });
+        AtomicFiles.writeText(new File(directory, PROMETHEUS_FILE), Charset.defaultCharset(), new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                writePrometheus(writer);
+            }
+        });
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n");
+        writer.write("  \"timestamp\": " + System.currentTimeMillis() + ",\n");
+        writer.write("  \"phaseSeconds\": ");
+        writeSecondsObject(writer, metrics.getPhaseNanos());
+        writer.write(",\n  \"counters\": {\n");
+        writer.write("    \"directoriesListed\": " + metrics.directoriesListed + ",\n");
+        writer.write("    \"filesRead\": " + metrics.filesRead + ",\n");
+        writer.write("    \"bytesRead\": " + metrics.bytesRead + ",\n");
+        writer.write("    \"linksRead\": " + metrics.linksRead + ",\n");
+        writer.write("    \"filesChecked\": " + metrics.filesChecked + ",\n");
+        writer.write("    \"buildFilesParsed\": " + metrics.buildFilesParsed + ",\n");
+        writer.write("    \"cacheHits\": " + metrics.cacheHits + ",\n");
+        writer.write("    \"missingBuildFiles\": " + metrics.missingBuildFiles + ",\n");
+        writer.write("    \"operationsTimedOut\": " + metrics.operationsTimedOut + ",\n");
+        writer.write("    \"missingPathsSkipped\": " + metrics.missingPathsSkipped + ",\n");
+        writer.write("    \"logsClassified\": " + metrics.logsClassified + ",\n");
+        writer.write("    \"logsUnreadable\": " + metrics.logsUnreadable + "\n");
+        writer.write("  },\n  \"parseFailures\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> failure : metrics.getParseFailures().entrySet()) {
+            writer.write(separator + "    " + Json.quote(failure.getKey()) + ": " + failure.getValue());
+            separator = ",\n";
+        }
+        writer.write("\n  },\n  \"latency\": {\n");
+        writeHistogramJson(writer, "stat", metrics.statLatency);
+        writer.write(",\n");
+        writeHistogramJson(writer, "resolve", metrics.resolveLatency);
+        writer.write(",\n");
+        writeHistogramJson(writer, "parse", metrics.parseLatency);
+        writer.write(",\n");
+        writeHistogramJson(writer, "classify", metrics.classifyLatency);
+        writer.write("\n  },\n  \"slowestProjectsSeconds\": ");
+        writeSecondsObject(writer, metrics.getSlowestProjects(SLOWEST_PROJECTS));
+        writer.write("\n}\n");
+    }
+
+    private void writeSecondsObject(Writer writer, Map<String, Long> nanos) throws IOException {
+        writer.write("{");
+        String separator = "\n";
+        for (Map.Entry<String, Long> entry : nanos.entrySet()) {
+            writer.write(separator + "    " + Json.quote(entry.getKey()) + ": " + seconds(entry.getValue()));
+            separator = ",\n";
+        }
+        writer.write("\n  }");
+    }
+
+    private void writeHistogramJson(Writer writer, String name, LatencyHistogram histogram) throws IOException {
+        writer.write("    " + Json.quote(name) + ": {\"count\": " + histogram.getCount() + ", \"sumSeconds\": " + seconds(histogram.getTotalNanos())
+                + ", \"p50Seconds\": " + number(histogram.quantileSeconds(0.5)) + ", \"p99Seconds\": " + number(histogram.quantileSeconds(0.99))
+                + ", \"buckets\": {");
+        String separator = "";
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long count = histogram.getCount(i);
+            if (count > 0) {
+                writer.write(separator + Json.quote(bucketLabel(i)) + ": " + count);
+                separator = ", ";
+            }
+        }
+        writer.write("}}");
+    }
+
+    public void writePrometheus(Writer writer) throws IOException {
+        writer.write("# HELP " + PREFIX + "phase_seconds Time spent in each phase of the last run, summed over threads\n");
+        writer.write("# TYPE " + PREFIX + "phase_seconds gauge\n");
+        for (Map.Entry<String, Long> phase : metrics.getPhaseNanos().entrySet()) {
+            writer.write(PREFIX + "phase_seconds{phase=" + Json.quote(phase.getKey()) + "} " + seconds(phase.getValue()) + "\n");
+        }
+
+        writeCounter(writer, "directories_listed_total", "Directories listed", metrics.directoriesListed.get());
+        writeCounter(writer, "files_read_total", "Files read", metrics.filesRead.get());
+        writeCounter(writer, "bytes_read_total", "Bytes read from files", metrics.bytesRead.get());
+        writeCounter(writer, "links_read_total", "Symlinks read", metrics.linksRead.get());
+        writeCounter(writer, "files_checked_total", "Files checked for existence or attributes", metrics.filesChecked.get());
+        writeCounter(writer, "build_files_parsed_total", "build.xml files parsed", metrics.buildFilesParsed.get());
+        writeCounter(writer, "cache_hits_total", "Builds read from the result cache", metrics.cacheHits.get());
+        writeCounter(writer, "missing_build_files_total", "Builds without a build.xml", metrics.missingBuildFiles.get());
+        writeCounter(writer, "operations_timed_out_total", "File system operations which missed their deadline", metrics.operationsTimedOut.get());
+        writeCounter(writer, "missing_paths_skipped_total", "Lookups skipped because the path was recently found not to exist",
+                metrics.missingPathsSkipped.get());
+        writeCounter(writer, "logs_classified_total", "Logs of failed builds read to find why they failed", metrics.logsClassified.get());
+        writeCounter(writer, "logs_unreadable_total", "Logs of failed builds which couldn't be read", metrics.logsUnreadable.get());
+
+        writer.write("# HELP " + PREFIX + "parse_failures_total build.xml files which couldn't be read, by exception\n");
+        writer.write("# TYPE " + PREFIX + "parse_failures_total counter\n");
+        for (Map.Entry<String, Long> failure : metrics.getParseFailures().entrySet()) {
+            writer.write(PREFIX + "parse_failures_total{exception=" + Json.quote(failure.getKey()) + "} " + failure.getValue() + "\n");
+        }
+
+        writeHistogram(writer, "stat_seconds", "Time to check a build.xml exists or read its attributes", metrics.statLatency);
+        writeHistogram(writer, "resolve_seconds", "Time to find the latest build of a configuration", metrics.resolveLatency);
+        writeHistogram(writer, "parse_seconds", "Time to parse a build.xml", metrics.parseLatency);
+        writeHistogram(writer, "classify_seconds", "Time to read the end of a failed build's log", metrics.classifyLatency);
+
+        writer.write("# HELP " + PREFIX + "project_seconds Time spent resolving and parsing the slowest projects of the last run\n");
+        writer.write("# TYPE " + PREFIX + "project_seconds gauge\n");
+        for (Map.Entry<String, Long> project : metrics.getSlowestProjects(SLOWEST_PROJECTS).entrySet()) {
+            writer.write(PREFIX + "project_seconds{project=" + Json.quote(project.getKey()) + "} " + seconds(project.getValue()) + "\n");
+        }
+
+        writer.write("# HELP " + PREFIX + "last_run_timestamp_seconds When the metrics were written\n");
+        writer.write("# TYPE " + PREFIX + "last_run_timestamp_seconds gauge\n");
+        writer.write(PREFIX + "last_run_timestamp_seconds " + System.currentTimeMillis() / 1000 + "\n");
+    }
+
+    private void writeCounter(Writer writer, String name, String help, long value) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " counter\n");
+        writer.write(PREFIX + name + " " + value + "\n");
+    }
+
+    private void writeHistogram(Writer writer, String name, String help, LatencyHistogram histogram) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += histogram.getCount(i);
+            writer.write(PREFIX + name + "_bucket{le=\"" + bucketLabel(i) + "\"} " + cumulative + "\n");
+        }
+        writer.write(PREFIX + name + "_sum " + seconds(histogram.getTotalNanos()) + "\n");
+        writer.write(PREFIX + name + "_count " + cumulative + "\n");
+    }
+
+    private static String bucketLabel(int bucket) {
+        double bound = LatencyHistogram.upperBoundSeconds(bucket);
+        return Double.isInfinite(bound) ? "+Inf" : number(bound);
+    }
+
+    private static String seconds(long nanos) {
+        return number(nanos / 1e9);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The project, jdk and platform names of a binary file, written once near its start and referred to by
+ * index after that, see {@link ResultSnapshot} and {@link ShardResults}.
+ *
+ * @author kearls
+ */
+class NameTable {
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Give the name an index, if it doesn't have one yet
+     */
+    void add(String name) {
+        if (!ids.containsKey(name)) {
+            ids.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    int id(String name) {
+        return ids.get(name);
+    }
+
+    /**
+     * @throws IOException if the file refers to a name it doesn't have
+     */
+    String name(int id) throws IOException {
+        if (id < 0 || id >= names.size()) {
+            throw new IOException("bad name index " + id);
+        }
+        return names.get(id);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    static NameTable read(DataInputStream in) throws IOException {
+        NameTable table = new NameTable();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            table.names.add(in.readUTF());     // only looked up by index
+        }
+        return table;
+    }
+}
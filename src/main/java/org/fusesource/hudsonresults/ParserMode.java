@@ -16,6 +16,10 @@
  */
 package org.fusesource.hudsonresults;
 
-public enum JDK {
-	jdk6, jdk7
+/**
+ * How build.xml files are read.  STAX only pulls out the fields we report on, JAXB unmarshals
+ * the whole matrix-run and is kept so the two can be compared.
+ */
+public enum ParserMode {
+	stax, jaxb
 }
@@ -0,0 +1,460 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the results from a Hudson or Jenkins master over its JSON API, for masters whose jobs directory
+ * isn't mounted here.  Uses one request for the list of jobs and one per matrix project, with a tree=
+ * filter so only the fields we report on are sent:
+ * <pre>
+ *     api/json?tree=jobs[name]
+ *     job/NAME/api/json?tree=activeConfigurations[name,lastCompletedBuild[number,result,duration,timestamp,id,actions[failCount,totalCount]]]
+ * </pre>
+ * Projects are fetched concurrently, with a limit on the connections to each host, and responses are
+ * parsed as they stream in.
+ *
+ * @author kearls
+ */
+public class RemoteBuildSource {
+    private static final String BUILD_FIELDS = "number,result,duration,timestamp,id,actions[failCount,totalCount]";
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String baseUrl;
+    private final SummarizeBuildResults summarizer;
+    private final int connectionsPerHost;
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private int connectTimeoutMillis = 10000;
+    private int readTimeoutMillis = 30000;
+    private int retries = 3;
+    private int historySize = 0;
+
+    /**
+     * Thrown for HTTP errors a retry won't fix
+     */
+    static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        HttpStatusException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param baseUrl root of the master, i.e. http://ci.fusesource.com/hudson/
+     * @param summarizer the discovered jdk/platform values are added to its axis registry
+     * @param connectionsPerHost most requests in flight to one host
+     */
+    public RemoteBuildSource(String baseUrl, SummarizeBuildResults summarizer, int connectionsPerHost) {
+        if (connectionsPerHost < 1) {
+            throw new IllegalArgumentException("At least one connection per host must be allowed");
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.summarizer = summarizer;
+        this.connectionsPerHost = connectionsPerHost;
+    }
+
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param retries how many times a request is retried after a timeout, connection failure or 5xx response
+     */
+    public void setRetries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("Retries can't be negative");
+        }
+        this.retries = retries;
+    }
+
+    /**
+     * @param historySize number of builds of each configuration to read, 0 or 1 to read only the latest
+     */
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
+    /**
+     * @param directoryMatchExpression regular expression the job names must match, as for the jobs directory
+     * @param threads projects fetched at the same time, the per host limit still applies
+     * @return Map of project name to results of the latest build of each configuration
+     */
+    public Map<String, List<BuildResult>> getAllResults(String directoryMatchExpression, int threads) throws IOException {
+        Pattern pattern = Pattern.compile(directoryMatchExpression);
+        List<String> projects = new ArrayList<>();
+        for (String job : fetchJobNames()) {
+            if (pattern.matcher(job).matches()) {
+                projects.add(job);
+            }
+        }
+        Collections.sort(projects);
+
+        Map<String, List<BuildResult>> allResults = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            Map<String, Future<List<BuildResult>>> futures = new LinkedHashMap<>();
+            for (final String project : projects) {
+                futures.put(project, executor.submit(new Callable<List<BuildResult>>() {
+                    @Override
+                    public List<BuildResult> call() throws Exception {
+                        return fetchProject(project);
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<List<BuildResult>>> future : futures.entrySet()) {
+                try {
+                    List<BuildResult> results = future.getValue().get();
+                    if (results != null && !results.isEmpty()) {
+                        allResults.put(future.getKey(), Collections.synchronizedList(results));
+                    }
+                } catch (ExecutionException e) {
+                    ScanMetrics.get().parseFailed(e.getCause());
+                    System.err.println("************ Exception " + e.getCause().getMessage() + " on " + future.getKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching results");
+        } finally {
+            executor.shutdownNow();
+        }
+        return allResults;
+    }
+
+    List<String> fetchJobNames() throws IOException {
+        List<String> names = fetch(baseUrl + "api/json?tree=" + encode("jobs[name]"), new ResponseHandler<List<String>>() {
+            @Override
+            public List<String> handle(JsonParser parser) throws IOException {
+                List<String> names = new ArrayList<>();
+                expect(parser, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && "jobs".equals(field)) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String jobField = parser.getCurrentName();
+                                parser.nextToken();
+                                if ("name".equals(jobField)) {
+                                    names.add(parser.getText());
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return names;
+            }
+        });
+        if (names == null) {
+            throw new IOException("No job list at " + baseUrl);
+        }
+        return names;
+    }
+
+    /**
+     * @return the results of each configuration of the project, or null if it isn't there any more
+     */
+    List<BuildResult> fetchProject(final String projectName) throws IOException {
+        String builds = historySize > 1
+                ? "builds[" + BUILD_FIELDS + "]{0," + (historySize + 2) + "}"     // a couple more in case the newest are running
+                : "lastCompletedBuild[" + BUILD_FIELDS + "]";
+        String url = baseUrl + "job/" + encode(projectName) + "/api/json?tree=" + encode("activeConfigurations[name," + builds + "]");
+        return fetch(url, new ResponseHandler<List<BuildResult>>() {
+            @Override
+            public List<BuildResult> handle(JsonParser parser) throws IOException {
+                List<BuildResult> results = new ArrayList<>();
+                expect(parser, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && "activeConfigurations".equals(field)) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            BuildResult result = readConfiguration(parser, projectName);
+                            if (result != null) {
+                                results.add(result);
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Read one configuration, the parser is positioned on its START_OBJECT
+     *
+     * @return its latest completed build, or null if it hasn't completed one
+     */
+    private BuildResult readConfiguration(JsonParser parser, String projectName) throws IOException {
+        String name = null;
+        List<RemoteBuild> builds = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("name".equals(field)) {
+                name = parser.getText();
+            } else if ("lastCompletedBuild".equals(field) && token == JsonToken.START_OBJECT) {
+                builds.add(readBuild(parser));
+            } else if ("builds".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    RemoteBuild build = readBuild(parser);
+                    if (build.result != null) {     // still running
+                        builds.add(build);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (name == null || builds.isEmpty()) {
+            return null;
+        }
+
+        // Configuration names look like jdk=jdk6,label=ubuntu
+        Map<String, String> axes = new LinkedHashMap<>();
+        for (String axis : name.split(",")) {
+            int equals = axis.indexOf('=');
+            if (equals > 0) {
+                axes.put(axis.substring(0, equals), axis.substring(equals + 1));
+            }
+        }
+        Configuration configuration = new Configuration(projectName, axes, null);
+        summarizer.getAxisRegistry().register(configuration);
+
+        // Newest first
+        BuildResult latest = builds.get(0).toBuildResult(projectName, configuration);
+        if (historySize > 1) {
+            BuildHistory history = new BuildHistory(historySize);
+            for (int i = Math.min(builds.size(), historySize) - 1; i > 0; i--) {
+                history.add(builds.get(i).toBuildResult(projectName, configuration));
+            }
+            history.add(latest);
+            latest.setHistory(history);
+        }
+        return latest;
+    }
+
+    /**
+     * A build as the API describes it
+     */
+    private static class RemoteBuild {
+        int number;
+        String result;
+        long duration;
+        long timestamp;
+        String id;
+        boolean junitFound;
+        int failCount;
+        int totalCount;
+
+        BuildResult toBuildResult(String projectName, Configuration configuration) {
+            // Older Hudsons use the build directory name as the id, newer Jenkins the number
+            long startTime = id != null && LatestBuildResolver.BUILD_DIRECTORY_NAME.matcher(id).matches()
+                    ? BuildResult.parseRunDate(id) : timestamp;
+            BuildResult.Result status = BuildResult.Result.parse(result);
+            // Same as reading build.xml: without a junit action we report 0/0 and no duration
+            if (junitFound) {
+                return new BuildResult(projectName, startTime, configuration.getJdk(), configuration.getPlatform(), status, totalCount, failCount,
+                        (int) duration, number);
+            } else {
+                return new BuildResult(projectName, startTime, configuration.getJdk(), configuration.getPlatform(), status, 0, 0, 0, number);
+            }
+        }
+    }
+
+    private RemoteBuild readBuild(JsonParser parser) throws IOException {
+        RemoteBuild build = new RemoteBuild();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "number":
+                    build.number = parser.getIntValue();
+                    break;
+                case "result":
+                    build.result = parser.getText();
+                    break;
+                case "duration":
+                    build.duration = parser.getLongValue();
+                    break;
+                case "timestamp":
+                    build.timestamp = parser.getLongValue();
+                    break;
+                case "id":
+                    build.id = parser.getText();
+                    break;
+                case "actions":
+                    readActions(parser, build);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return build;
+    }
+
+    /**
+     * Actions we didn't ask for fields of come back as {}, the junit one has failCount and totalCount
+     */
+    private void readActions(JsonParser parser, RemoteBuild build) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("failCount".equals(field)) {
+                    build.junitFound = true;
+                    build.failCount = parser.getIntValue();
+                } else if ("totalCount".equals(field)) {
+                    build.junitFound = true;
+                    build.totalCount = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but found " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    interface ResponseHandler<T> {
+        T handle(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * GET the url and parse the response, retrying failures which might go away
+     *
+     * @return what the handler returned, or null for a 404
+     */
+    <T> T fetch(String url, ResponseHandler<T> handler) throws IOException {
+        URL target = new URL(url);
+        Semaphore permits = permits(target.getHost() + ":" + target.getPort());
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                if (attempt > 0) {
+                    Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+                }
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted fetching " + url);
+            }
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) target.openConnection();
+                connection.setConnectTimeout(connectTimeoutMillis);
+                connection.setReadTimeout(readTimeoutMillis);
+                connection.setRequestProperty("Accept", "application/json");
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+                int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return null;
+                }
+                if (status == 429 || status >= 500) {
+                    throw new IOException("HTTP " + status + " from " + url);
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new HttpStatusException("HTTP " + status + " from " + url);
+                }
+                InputStream in = connection.getInputStream();
+                if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                }
+                try (JsonParser parser = jsonFactory.createParser(in)) {
+                    return handler.handle(parser);
+                }
+            } catch (HttpStatusException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+        throw failure;
+    }
+
+    private Semaphore permits(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(connectionsPerHost);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+}
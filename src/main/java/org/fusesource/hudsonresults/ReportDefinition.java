@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * One of the summaries produced from a scan: which projects go on it, its caption and where it's written.
+ * Definitions are read from a properties file:
+ * <pre>
+ *     reports=6.0,6.1
+ *     6.1.match=.*6[-\\.]1.*platform
+ *     6.1.caption=JBoss Fuse 6.1 Platform Test Results
+ *     6.1.output=results/results-6.1.html
+ * </pre>
+ * The caption defaults to the name and the output to results/NAME.html.
+ *
+ * @author kearls
+ */
+public class ReportDefinition {
+    private final String name;
+    private final Pattern pattern;
+    private final String caption;
+    private final File outputFile;
+
+    public ReportDefinition(String name, String matchExpression, String caption, File outputFile) {
+        this.name = name;
+        this.pattern = Pattern.compile(matchExpression);
+        this.caption = caption;
+        this.outputFile = outputFile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public boolean matches(String projectName) {
+        return pattern.matcher(projectName).matches();
+    }
+
+    /**
+     * @return the results of the projects on this report
+     */
+    public Map<String, List<BuildResult>> select(Map<String, List<BuildResult>> allResults) {
+        Map<String, List<BuildResult>> selected = new TreeMap<>();
+        for (Map.Entry<String, List<BuildResult>> entry : allResults.entrySet()) {
+            if (matches(entry.getKey())) {
+                selected.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return one expression matching the projects of all of the reports, so they can share a scan
+     */
+    public static String combinedExpression(List<ReportDefinition> reports) {
+        StringBuilder sb = new StringBuilder();
+        for (ReportDefinition report : reports) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(report.pattern.pattern()).append(')');
+        }
+        return sb.toString();
+    }
+
+    public static List<ReportDefinition> load(File propertiesFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(propertiesFile)) {
+            properties.load(in);
+        }
+        String names = properties.getProperty("reports");
+        if (names == null || names.trim().isEmpty()) {
+            throw new IOException("No reports= line in " + propertiesFile);
+        }
+
+        List<ReportDefinition> reports = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            String match = properties.getProperty(name + ".match");
+            if (match == null) {
+                throw new IOException("No " + name + ".match in " + propertiesFile);
+            }
+            reports.add(new ReportDefinition(name, match, properties.getProperty(name + ".caption", name),
+                    new File(properties.getProperty(name + ".output", "results/" + name + ".html"))));
+        }
+        return reports;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + pattern.pattern() + "] -> " + outputFile;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * On disk cache of the fields we read from build.xml files, keyed by the build directory.  An entry is
+ * only used if the size and modification time of the build.xml still match, so unchanged builds are
+ * reported without opening the XML.
+ * <p>
+ * The file is rewritten in full by {@link #save()} and ends with a CRC; if it can't be read for any
+ * reason the cache starts out empty and is rebuilt by the next scan.
+ *
+ * @author kearls
+ */
+public class ResultCache {
+    private static final int MAGIC = 0x48524331;   // HRC1
+    private static final int VERSION = 3;
+
+    private final File cacheFile;
+    private final FileSystemAccess access;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Build directories used since the last save, and the builds/ directories they are in
+    private final Set<String> touched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> touchedParents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Fields of a build.xml, plus the size and mtime of the file they were read from, and why the build
+     * failed if its log has been classified
+     */
+    static class Entry {
+        final long size;
+        final long lastModified;
+        final int number;
+        final BuildResult.Result result;
+        final int duration;
+        final int testsRun;
+        final int failedTests;
+        final String failureReason;     // null if not classified, empty if no signature matched
+
+        Entry(long size, long lastModified, int number, BuildResult.Result result, int duration, int testsRun, int failedTests,
+              String failureReason) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.number = number;
+            this.result = result;
+            this.duration = duration;
+            this.testsRun = testsRun;
+            this.failedTests = failedTests;
+            this.failureReason = failureReason;
+        }
+    }
+
+    public ResultCache(File cacheFile) {
+        this(cacheFile, FileSystemAccess.direct());
+    }
+
+    /**
+     * @param access used to check whether the builds/ directories of builds which weren't seen by a scan still exist
+     */
+    public ResultCache(File cacheFile, FileSystemAccess access) {
+        this.cacheFile = cacheFile;
+        this.access = access;
+    }
+
+    /**
+     * Read the cache file if there is one.  A missing or unreadable file leaves the cache empty.
+     */
+    public void load() {
+        entries.clear();
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 65536), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a result cache");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readInt(), readResult(in), in.readInt(), in.readInt(), in.readInt(),
+                        in.readBoolean() ? in.readUTF() : null);
+                entries.put(path, entry);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring result cache " + cacheFile + ", it will be rebuilt: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private static BuildResult.Result readResult(DataInputStream in) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= BuildResult.Result.values().length) {
+            throw new IOException("unknown result " + ordinal);
+        }
+        return BuildResult.Result.values()[ordinal];
+    }
+
+    /**
+     * @param buildDirectory directory of the build
+     * @param size current size of its build.xml
+     * @param lastModified current modification time of its build.xml
+     * @return the cached entry, or null if there isn't one or the build.xml has changed
+     */
+    public Entry get(File buildDirectory, long size, long lastModified) {
+        String path = buildDirectory.getAbsolutePath();
+        markTouched(buildDirectory, path);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry;
+        }
+        return null;
+    }
+
+    public void put(File buildDirectory, long size, long lastModified, BuildResult buildResult) {
+        String path = buildDirectory.getAbsolutePath();
+        markTouched(buildDirectory, path);
+        entries.put(path, new Entry(size, lastModified, buildResult.getBuildNumber(), buildResult.getStatus(),
+                buildResult.getDuration(), buildResult.getTestsRun(), buildResult.getFailedTests(), buildResult.getFailureReason()));
+    }
+
+    /**
+     * @return why the build failed, empty if its log was classified without finding a reason, or null if it hasn't
+     * been classified or isn't cached
+     */
+    public String getFailureReason(File buildDirectory) {
+        Entry entry = entries.get(buildDirectory.getAbsolutePath());
+        return entry == null ? null : entry.failureReason;
+    }
+
+    /**
+     * Remember why a cached build failed, so its log isn't read again
+     */
+    public void setFailureReason(File buildDirectory, String failureReason) {
+        String path = buildDirectory.getAbsolutePath();
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            entries.put(path, new Entry(entry.size, entry.lastModified, entry.number, entry.result, entry.duration, entry.testsRun,
+                    entry.failedTests, failureReason));
+        }
+    }
+
+    private void markTouched(File buildDirectory, String path) {
+        touched.add(path);
+        File parent = buildDirectory.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            touchedParents.add(parent.getPath());
+        }
+    }
+
+    /**
+     * Drop entries for builds which have been replaced by a newer build of the same configuration, or
+     * which have been deleted, then write the cache to a temporary file and move it into place.  Builds
+     * used after this count as touched by the next save, so a long running watcher or server only
+     * compares each save with the scans since the one before.  Builds of configurations which weren't
+     * scanned are kept as long as their builds/ directory is there.
+     */
+    public void save() throws IOException {
+        Map<String, Boolean> parentExists = new HashMap<>();
+        for (String path : entries.keySet()) {
+            if (!touched.contains(path)) {
+                String parent = new File(path).getParent();
+                if (touchedParents.contains(parent)) {
+                    entries.remove(path);
+                    continue;
+                }
+                Boolean exists = parentExists.get(parent);
+                if (exists == null) {
+                    exists = exists(new File(parent));
+                    parentExists.put(parent, exists);
+                }
+                if (!exists) {
+                    entries.remove(path);
+                }
+            }
+        }
+        touched.clear();
+        touchedParents.clear();
+
+        final Map<String, Entry> snapshot = new HashMap<>(entries);
+        AtomicFiles.write(cacheFile, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeInt(entry.number);
+                    out.writeByte(entry.result.ordinal());
+                    out.writeInt(entry.duration);
+                    out.writeInt(entry.testsRun);
+                    out.writeInt(entry.failedTests);
+                    out.writeBoolean(entry.failureReason != null);
+                    if (entry.failureReason != null) {
+                        out.writeUTF(entry.failureReason);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false only if the directory is known to be gone, a build we can't reach right now is kept
+     */
+    private boolean exists(File directory) {
+        try {
+            return access.readAttributes(directory.toPath()).isDirectory();
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
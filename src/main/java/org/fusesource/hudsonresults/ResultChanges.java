@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between the previous run's {@link ResultSnapshot} and this run's results.
+ * <p>
+ * Every cell costs one lookup and a build number comparison; only cells with a new build are
+ * compared further.  Cells that disappeared are only looked for if some of the previous cells
+ * weren't matched.  Cells which couldn't be read this time haven't disappeared, they are left out.
+ *
+ * @author kearls
+ */
+public class ResultChanges {
+    public enum Kind {
+        NEWLY_FAILING("newly failing"),
+        FIXED("fixed"),
+        MORE_FAILURES("more test failures"),
+        FEWER_FAILURES("fewer test failures"),
+        DISAPPEARED("disappeared");
+
+        private final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * A changed cell.  Current is null for a cell which disappeared.
+     */
+    public static class Change {
+        private final Kind kind;
+        private final ResultSnapshot.Cell previous;
+        private final BuildResult current;
+
+        Change(Kind kind, ResultSnapshot.Cell previous, BuildResult current) {
+            this.kind = kind;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public ResultSnapshot.Cell getPrevious() {
+            return previous;
+        }
+
+        public BuildResult getCurrent() {
+            return current;
+        }
+
+        public String getProject() {
+            return previous.getProject();
+        }
+
+        public String getJdk() {
+            return previous.getJdk();
+        }
+
+        public String getPlatform() {
+            return previous.getPlatform();
+        }
+    }
+
+    private static final Comparator<Change> CHANGE_ORDER = new Comparator<Change>() {
+        @Override
+        public int compare(Change a, Change b) {
+            int c = a.kind.compareTo(b.kind);
+            if (c == 0) {
+                c = a.getProject().compareTo(b.getProject());
+            }
+            if (c == 0) {
+                c = a.getPlatform().compareTo(b.getPlatform());
+            }
+            return c != 0 ? c : a.getJdk().compareTo(b.getJdk());
+        }
+    };
+
+    private final List<Change> changes;
+    // Looked up while writing the summary, keyed by the summary's own BuildResult objects
+    private final Map<BuildResult, Change> byResult = new IdentityHashMap<>();
+    private final long since;
+
+    private ResultChanges(List<Change> changes, long since) {
+        this.changes = changes;
+        this.since = since;
+        for (Change change : changes) {
+            if (change.current != null) {
+                byResult.put(change.current, change);
+            }
+        }
+    }
+
+    /**
+     * @param previous snapshot saved by the last run
+     * @param allResults Map of project name to the results of its configurations
+     * @param unreachable configurations this run couldn't read, or null
+     */
+    public static ResultChanges compute(ResultSnapshot previous, Map<String, List<BuildResult>> allResults,
+                                        UnreachableConfigurations unreachable) {
+        List<Change> changes = new ArrayList<>();
+        BitSet matched = new BitSet(previous.size());
+        for (Map.Entry<String, List<BuildResult>> entry : allResults.entrySet()) {
+            List<BuildResult> buildResults = entry.getValue();
+            synchronized (buildResults) {
+                for (BuildResult br : buildResults) {
+                    ResultSnapshot.Cell cell = previous.get(entry.getKey(), br.getJdk(), br.getPlatform());
+                    if (cell == null) {
+                        continue;       // a new configuration, nothing to compare with
+                    }
+                    matched.set(cell.index);
+                    if (cell.buildNumber == br.getBuildNumber()) {
+                        continue;
+                    }
+                    Kind kind = compare(cell, br);
+                    if (kind != null) {
+                        changes.add(new Change(kind, cell, br));
+                    }
+                }
+            }
+        }
+
+        if (matched.cardinality() < previous.size()) {
+            for (ResultSnapshot.Cell[] cells : previous.getCells()) {
+                for (ResultSnapshot.Cell cell : cells) {
+                    if (!matched.get(cell.index) && (unreachable == null || !unreachable.contains(cell.project, cell.getColumn()))) {
+                        changes.add(new Change(Kind.DISAPPEARED, cell, null));
+                    }
+                }
+            }
+        }
+        Collections.sort(changes, CHANGE_ORDER);
+        return new ResultChanges(changes, previous.getTime());
+    }
+
+    private static Kind compare(ResultSnapshot.Cell previous, BuildResult current) {
+        boolean passed = current.getStatus() == BuildResult.Result.SUCCESS;
+        if (previous.passed() != passed) {
+            return passed ? Kind.FIXED : Kind.NEWLY_FAILING;
+        } else if (current.getFailedTests() > previous.failCount) {
+            return Kind.MORE_FAILURES;
+        } else if (current.getFailedTests() < previous.failCount) {
+            return Kind.FEWER_FAILURES;
+        }
+        return null;
+    }
+
+    /**
+     * @return the changes, grouped by kind then sorted by project, platform and jdk
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return the change to the cell with this result, or null if it didn't change
+     */
+    public Change get(BuildResult buildResult) {
+        return byResult.get(buildResult);
+    }
+
+    public Map<Kind, Integer> getCounts() {
+        Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            counts.put(kind, 0);
+        }
+        for (Change change : changes) {
+            counts.put(change.kind, counts.get(change.kind) + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * @return when the previous snapshot was taken, 0 if there wasn't one
+     */
+    public long getSince() {
+        return since;
+    }
+}
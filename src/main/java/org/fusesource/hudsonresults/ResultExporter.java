@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the results as rows for dashboards and scripts, one row per build: as JSON Lines, one object
+ * per line, or as CSV with a header line.  In history mode every build in each configuration's history
+ * gets a row, oldest first.  Rows are written field by field to a buffered writer, so memory use doesn't
+ * grow with the number of rows.
+ *
+ * @author kearls
+ */
+public class ResultExporter {
+    public enum Format {
+        jsonl, csv
+    }
+
+    private static final String[] COLUMNS = { "project", "jdk", "platform", "buildNumber", "runDate", "result", "testsRun",
+            "failedTests", "duration", "url", "failureReason" };
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Format format;
+    private final SimpleDateFormat runDateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US);
+    private final Date date = new Date();
+    private final char[] digits = new char[20];
+    private final StringBuilder url = new StringBuilder(128);
+
+    public ResultExporter(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Export to a temporary file and move it into place, so readers never see part of an export
+     *
+     * @return the number of rows written
+     */
+    public long export(final Map<String, List<BuildResult>> allResults, File outputFile) throws IOException {
+        final long[] rows = new long[1];
+        AtomicFiles.writeText(outputFile, StandardCharsets.UTF_8, new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                rows[0] = export(allResults, writer);
+            }
+        });
+        return rows[0];
+    }
+
+    /**
+     * Write the rows, in project then column order.  The writer isn't closed.
+     *
+     * @return the number of rows written
+     */
+    public long export(Map<String, List<BuildResult>> allResults, Writer writer) throws IOException {
+        if (format == Format.csv) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                writer.write(i == 0 ? "" : ",");
+                writer.write(COLUMNS[i]);
+            }
+            writer.write('\n');
+        }
+
+        long rows = 0;
+        List<String> projectNames = new ArrayList<>(allResults.keySet());
+        Collections.sort(projectNames);
+        for (String projectName : projectNames) {
+            List<BuildResult> buildResults = allResults.get(projectName);
+            List<BuildResult> sorted;
+            synchronized (buildResults) {
+                sorted = new ArrayList<>(buildResults);
+            }
+            Collections.sort(sorted, BuildResult.COLUMN_ORDER);
+            for (BuildResult br : sorted) {
+                BuildHistory history = br.getHistory();
+                if (history == null) {
+                    writeRow(writer, projectName, br.getJdk(), br.getPlatform(), br.getBuildNumber(), br.getStartTime(), br.getResult(),
+                            br.getTestsRun(), br.getFailedTests(), br.getDuration(), br.getFailureReason());
+                    rows++;
+                } else {
+                    for (int age = history.size() - 1; age >= 0; age--) {
+                        writeRow(writer, projectName, br.getJdk(), br.getPlatform(), history.getNumber(age), history.getStartTime(age),
+                                BuildResult.Result.fromCode(history.getResult(age)).getLabel(), history.getTotalCount(age),
+                                history.getFailCount(age), history.getDuration(age), age == 0 ? br.getFailureReason() : null);
+                        rows++;
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void writeRow(Writer writer, String project, String jdk, String platform, int buildNumber, long startTime, String result,
+                          int testsRun, int failedTests, int duration, String failureReason) throws IOException {
+        date.setTime(startTime);
+        String runDate = startTime == 0 ? "" : runDateFormat.format(date);
+        if (format == Format.jsonl) {
+            writer.write("{\"project\":");
+            Json.quote(project, writer);
+            writer.write(",\"jdk\":");
+            Json.quote(jdk, writer);
+            writer.write(",\"platform\":");
+            Json.quote(platform, writer);
+            writer.write(",\"buildNumber\":");
+            writeNumber(writer, buildNumber);
+            writer.write(",\"runDate\":");
+            Json.quote(runDate, writer);
+            writer.write(",\"result\":");
+            Json.quote(result, writer);
+            writer.write(",\"testsRun\":");
+            writeNumber(writer, testsRun);
+            writer.write(",\"failedTests\":");
+            writeNumber(writer, failedTests);
+            writer.write(",\"duration\":");
+            writeNumber(writer, duration);
+            writer.write(",\"url\":\"");
+            writeUrl(writer, project, buildNumber, jdk, platform, true);
+            writer.write("\",\"failureReason\":");
+            if (failureReason == null) {
+                writer.write("null");
+            } else {
+                Json.quote(failureReason, writer);
+            }
+            writer.write("}\n");
+        } else {
+            writeCsvField(writer, project);
+            writer.write(',');
+            writeCsvField(writer, jdk);
+            writer.write(',');
+            writeCsvField(writer, platform);
+            writer.write(',');
+            writeNumber(writer, buildNumber);
+            writer.write(',');
+            writer.write(runDate);
+            writer.write(',');
+            writeCsvField(writer, result);
+            writer.write(',');
+            writeNumber(writer, testsRun);
+            writer.write(',');
+            writeNumber(writer, failedTests);
+            writer.write(',');
+            writeNumber(writer, duration);
+            writer.write(",\"");      // the url has a comma in it
+            writeUrl(writer, project, buildNumber, jdk, platform, false);
+            writer.write("\",");
+            if (failureReason != null) {
+                writeCsvField(writer, failureReason);
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * @param json escape the URL for a JSON string, otherwise for a quoted CSV field
+     */
+    private void writeUrl(Writer writer, String project, int buildNumber, String jdk, String platform, boolean json) throws IOException {
+        url.setLength(0);
+        String value = SummarizeBuildResults.appendReportUrl(url, project, buildNumber, jdk, platform).toString();
+        if (json) {
+            Json.escape(value, writer);
+        } else {
+            writer.write(value.replace("\"", "\"\""));
+        }
+    }
+
+    /**
+     * Quoted if it holds a comma, quote or line break, with quotes doubled
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private void writeNumber(Writer writer, long value) throws IOException {
+        if (value < 0) {
+            writer.write('-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        writer.write(digits, start, digits.length - start);
+    }
+}
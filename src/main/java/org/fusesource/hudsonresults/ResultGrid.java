@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results laid out as the summary table: one row per project, one column per jdk/platform
+ * combination, with direct lookup of any cell.  Built from a copy, the lists it is given are not changed.
+ *
+ * @author kearls
+ */
+public class ResultGrid {
+    private final String[] projects;
+    private final JdkPlatformTuple[] columns;
+    private final Map<String, Integer> rowIndex;
+    private final Map<JdkPlatformTuple, Integer> columnIndex;
+    private final BuildResult[] cells;
+
+    /**
+     * @param allResults Map of project name to the results of its configurations
+     * @param columns columns of the table, in display order.  Results for other combinations are left out.
+     */
+    public ResultGrid(Map<String, List<BuildResult>> allResults, List<JdkPlatformTuple> columns) {
+        List<String> projectNames = new ArrayList<>(allResults.keySet());
+        Collections.sort(projectNames);
+        this.projects = projectNames.toArray(new String[projectNames.size()]);
+        this.columns = columns.toArray(new JdkPlatformTuple[columns.size()]);
+
+        rowIndex = new HashMap<>(projects.length * 2);
+        for (int row = 0; row < projects.length; row++) {
+            rowIndex.put(projects[row], row);
+        }
+        columnIndex = new HashMap<>(this.columns.length * 2);
+        for (int column = 0; column < this.columns.length; column++) {
+            columnIndex.put(this.columns[column], column);
+        }
+
+        cells = new BuildResult[projects.length * this.columns.length];
+        for (int row = 0; row < projects.length; row++) {
+            List<BuildResult> buildResults = allResults.get(projects[row]);
+            synchronized (buildResults) {   // may be one of the scan's synchronized lists
+                for (BuildResult br : buildResults) {
+                    Integer column = columnIndex.get(new JdkPlatformTuple(br.getJdk(), br.getPlatform()));
+                    if (column != null) {
+                        int index = row * this.columns.length + column;
+                        // Should only be one result per cell, but if not show the newest
+                        if (cells[index] == null || cells[index].getBuildNumber() < br.getBuildNumber()) {
+                            cells[index] = br;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return projects.length;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getProject(int row) {
+        return projects[row];
+    }
+
+    public JdkPlatformTuple getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * @return the result in the cell, or null if the project has no such configuration
+     */
+    public BuildResult get(int row, int column) {
+        return cells[row * columns.length + column];
+    }
+
+    public BuildResult get(String project, JdkPlatformTuple column) {
+        Integer row = rowIndex.get(project);
+        Integer col = columnIndex.get(column);
+        return row == null || col == null ? null : get(row, col);
+    }
+
+    /**
+     * @return index of the project's row, or -1
+     */
+    public int getRow(String project) {
+        Integer row = rowIndex.get(project);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * @return index of the column, or -1
+     */
+    public int getColumnIndex(JdkPlatformTuple column) {
+        Integer col = columnIndex.get(column);
+        return col == null ? -1 : col;
+    }
+}
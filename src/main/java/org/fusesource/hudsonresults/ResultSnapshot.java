@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The result of every cell of the summary at the end of a run: build number, result and counts,
+ * keyed by project, jdk and platform.  It is saved at the end of each run so the next run can report
+ * what changed, see {@link ResultChanges}.  Cells which couldn't be read by a run are carried over
+ * from the snapshot before it, so the run after that still compares them.
+ * <p>
+ * The file holds each distinct name once, followed by the cells referring to them by index, and
+ * ends with a CRC.  A missing or damaged file gives an empty snapshot.
+ *
+ * @author kearls
+ */
+public class ResultSnapshot {
+    private static final int MAGIC = 0x48525331;   // HRS1
+    private static final int VERSION = 1;
+
+    /**
+     * One configuration of a project
+     */
+    public static class Cell {
+        final int index;        // position in the snapshot, used to track which cells are still there
+        final String project;
+        final String jdk;
+        final String platform;
+        final int buildNumber;
+        final byte result;      // BuildHistory result code
+        final int failCount;
+        final int totalCount;
+
+        Cell(int index, String project, String jdk, String platform, int buildNumber, byte result, int failCount, int totalCount) {
+            this.index = index;
+            this.project = project;
+            this.jdk = jdk;
+            this.platform = platform;
+            this.buildNumber = buildNumber;
+            this.result = result;
+            this.failCount = failCount;
+            this.totalCount = totalCount;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public String getJdk() {
+            return jdk;
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        public JdkPlatformTuple getColumn() {
+            return new JdkPlatformTuple(jdk, platform);
+        }
+
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        public boolean passed() {
+            return result == BuildHistory.SUCCESS;
+        }
+
+        public BuildResult.Result getResult() {
+            return BuildResult.Result.fromCode(result);
+        }
+
+        public int getFailCount() {
+            return failCount;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+    }
+
+    private static final Cell[] NO_CELLS = new Cell[0];
+
+    // A project only has a handful of configurations, so they are kept in a small array
+    private final Map<String, Cell[]> byProject;
+    private final int size;
+    private final long time;
+
+    private ResultSnapshot(Map<String, Cell[]> byProject, int size, long time) {
+        this.byProject = byProject;
+        this.size = size;
+        this.time = time;
+    }
+
+    public static ResultSnapshot empty() {
+        return new ResultSnapshot(Collections.<String, Cell[]>emptyMap(), 0, 0);
+    }
+
+    /**
+     * @param allResults Map of project name to the results of its configurations
+     */
+    public static ResultSnapshot of(Map<String, List<BuildResult>> allResults) {
+        return of(allResults, empty(), null);
+    }
+
+    /**
+     * @param allResults Map of project name to the results of its configurations
+     * @param previous snapshot saved by the last run
+     * @param unreachable configurations this run couldn't read, whose cells are copied from the previous snapshot, or null
+     */
+    public static ResultSnapshot of(Map<String, List<BuildResult>> allResults, ResultSnapshot previous, UnreachableConfigurations unreachable) {
+        Map<String, Cell[]> byProject = new HashMap<>(allResults.size() * 2);
+        List<Cell> cells = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, List<BuildResult>> entry : allResults.entrySet()) {
+            List<BuildResult> buildResults = entry.getValue();
+            cells.clear();
+            synchronized (buildResults) {
+                for (BuildResult br : buildResults) {
+                    cells.add(new Cell(index++, entry.getKey(), br.getJdk(), br.getPlatform(), br.getBuildNumber(), br.getStatus().code(),
+                            br.getFailedTests(), br.getTestsRun()));
+                }
+            }
+            index = carryOver(previous.byProject.get(entry.getKey()), unreachable, cells, index);
+            byProject.put(entry.getKey(), cells.toArray(new Cell[cells.size()]));
+        }
+        if (unreachable != null && !unreachable.isEmpty()) {
+            // Projects with nothing but unreachable configurations may have no results at all
+            for (Map.Entry<String, Cell[]> entry : previous.byProject.entrySet()) {
+                if (!byProject.containsKey(entry.getKey())) {
+                    cells.clear();
+                    index = carryOver(entry.getValue(), unreachable, cells, index);
+                    if (!cells.isEmpty()) {
+                        byProject.put(entry.getKey(), cells.toArray(new Cell[cells.size()]));
+                    }
+                }
+            }
+        }
+        return new ResultSnapshot(byProject, index, System.currentTimeMillis());
+    }
+
+    /**
+     * Add the previous cells of a project which couldn't be read this time, and weren't read some other way
+     *
+     * @return the index for the next cell
+     */
+    private static int carryOver(Cell[] previousCells, UnreachableConfigurations unreachable, List<Cell> cells, int index) {
+        if (previousCells == null || unreachable == null) {
+            return index;
+        }
+        int read = cells.size();
+        for (Cell cell : previousCells) {
+            if (unreachable.contains(cell.project, cell.getColumn()) && !contains(cells, read, cell)) {
+                cells.add(new Cell(index++, cell.project, cell.jdk, cell.platform, cell.buildNumber, cell.result, cell.failCount,
+                        cell.totalCount));
+            }
+        }
+        return index;
+    }
+
+    private static boolean contains(List<Cell> cells, int count, Cell cell) {
+        for (int i = 0; i < count; i++) {
+            Cell other = cells.get(i);
+            if (other.jdk.equals(cell.jdk) && other.platform.equals(cell.platform)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the cell for the configuration, or null if it isn't in the snapshot
+     */
+    public Cell get(String project, String jdk, String platform) {
+        Cell[] cells = byProject.get(project);
+        if (cells != null) {
+            for (Cell cell : cells) {
+                if (cell.jdk.equals(jdk) && cell.platform.equals(platform)) {
+                    return cell;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Collection<Cell[]> getCells() {
+        return byProject.values();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch, 0 for an empty snapshot
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the snapshot in the file, or an empty one if there isn't a readable one
+     */
+    public static ResultSnapshot load(File file) {
+        if (!file.exists()) {
+            return empty();
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 65536), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a result snapshot");
+            }
+            long time = in.readLong();
+            NameTable names = NameTable.read(in);
+
+            Map<String, Cell[]> byProject = new HashMap<>();
+            int index = 0;
+            int projects = in.readInt();
+            for (int p = 0; p < projects; p++) {
+                String project = names.name(in.readInt());
+                Cell[] cells = new Cell[in.readInt()];
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = new Cell(index++, project, names.name(in.readInt()), names.name(in.readInt()), in.readInt(), in.readByte(),
+                            in.readInt(), in.readInt());
+                }
+                byProject.put(project, cells);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            return new ResultSnapshot(byProject, index, time);
+        } catch (IOException e) {
+            System.err.println("Ignoring result snapshot " + file + ", no changes will be reported: " + e.getMessage());
+            return empty();
+        }
+    }
+
+    /**
+     * Write the snapshot to a temporary file and move it into place
+     */
+    public void save(File file) throws IOException {
+        final NameTable names = new NameTable();
+        for (Map.Entry<String, Cell[]> entry : byProject.entrySet()) {
+            names.add(entry.getKey());    // a project can have no cells, i.e. a row of stale ones
+            for (Cell cell : entry.getValue()) {
+                names.add(cell.jdk);
+                names.add(cell.platform);
+            }
+        }
+
+        AtomicFiles.write(file, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(time);
+                names.write(out);
+                out.writeInt(byProject.size());
+                for (Map.Entry<String, Cell[]> entry : byProject.entrySet()) {
+                    out.writeInt(names.id(entry.getKey()));
+                    out.writeInt(entry.getValue().length);
+                    for (Cell cell : entry.getValue()) {
+                        out.writeInt(names.id(cell.jdk));
+                        out.writeInt(names.id(cell.platform));
+                        out.writeInt(cell.buildNumber);
+                        out.writeByte(cell.result);
+                        out.writeInt(cell.failCount);
+                        out.writeInt(cell.totalCount);
+                    }
+                }
+            }
+        });
+    }
+}
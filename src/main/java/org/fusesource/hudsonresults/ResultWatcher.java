@@ -0,0 +1,483 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the result matrix in memory and rewrites the summary as builds land, instead of rescanning
+ * the whole jobs tree from cron.
+ * <p>
+ * Each configuration's builds/ directory is registered with a {@link WatchService}; when a new build
+ * directory appears it is watched too, so we see its build.xml being written.  Directories that can't
+ * be registered, or everything when polling is forced (inotify doesn't see changes made on other NFS
+ * clients), are polled by checking the modification time of builds/.  Changes are collected until
+ * things have been quiet for the debounce period, then only the changed configurations are re-read
+ * and the summary is replaced atomically.
+ *
+ * @author kearls
+ */
+public class ResultWatcher {
+    private final SummarizeBuildResults summarizer;
+    private final File hudsonJobsRoot;
+    private final Pattern directoryMatchPattern;
+    private final File outputFile;
+    private final ResultCache resultCache;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final long pollMillis;
+    private boolean pollOnly;
+
+    // How long a polled configuration whose builds/ changed keeps being re-read while waiting for its build to finish
+    private static final long MAX_PENDING_MILLIS = TimeUnit.HOURS.toMillis(12);
+    // A full rediscovery of configurations every this many polls picks up new axis values
+    private static final int REDISCOVER_EVERY_POLLS = 10;
+
+    private final Map<String, Map<JdkPlatformTuple, BuildResult>> matrix = new TreeMap<>();
+    private final Map<Path, Configuration> configurations = new HashMap<>();
+    private final Set<String> knownProjects = new HashSet<>();
+
+    private WatchService watchService;
+    private WatchKey rootKey;
+    private final Map<WatchKey, Path> buildsKeys = new HashMap<>();
+    private final Map<WatchKey, Path> runningBuildKeys = new HashMap<>();
+    private final Map<Path, WatchKey> runningBuildKeyByBuilds = new HashMap<>();
+
+    private final Map<Path, Long> polledModified = new HashMap<>();
+    private final Map<Path, PendingBuild> pending = new HashMap<>();
+
+    // Configurations which couldn't be read in time, tried again at the next poll
+    private final Set<Path> unreachableBuilds = new HashSet<>();
+
+    private final Set<Path> dirty = new LinkedHashSet<>();
+    private long firstDirtyAt;
+    private long lastEventAt;
+
+    /**
+     * A polled configuration whose builds/ directory changed, which is re-read until its build number changes
+     */
+    private static class PendingBuild {
+        final long since;
+        final int buildNumber;
+
+        PendingBuild(long since, int buildNumber) {
+            this.since = since;
+            this.buildNumber = buildNumber;
+        }
+    }
+
+    /**
+     * @param summarizer used to scan, read builds and render the summary
+     * @param hudsonJobsRoot the root of the Hudson jobs directory, i.e. /mnt/hudson/jobs
+     * @param directoryMatchExpression regular expression for selecting project directories
+     * @param outputFile where the summary is written
+     * @param resultCache saved after each update if not null
+     * @param debounceMillis how long things must be quiet before the summary is rewritten
+     * @param pollMillis how often polled directories are checked
+     * @param pollOnly poll everything rather than using filesystem notifications
+     */
+    public ResultWatcher(SummarizeBuildResults summarizer, File hudsonJobsRoot, String directoryMatchExpression, File outputFile,
+                         ResultCache resultCache, long debounceMillis, long pollMillis, boolean pollOnly) {
+        this.summarizer = summarizer;
+        this.hudsonJobsRoot = hudsonJobsRoot;
+        this.directoryMatchPattern = Pattern.compile(directoryMatchExpression);
+        this.outputFile = outputFile;
+        this.resultCache = resultCache;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = Math.max(debounceMillis * 6, debounceMillis);
+        this.pollMillis = pollMillis;
+        this.pollOnly = pollOnly;
+    }
+
+    /**
+     * Scan everything once, then keep the summary up to date until interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        // Start watching before the first scan, so a build which lands while it runs is seen afterwards
+        if (!pollOnly) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                rootKey = hudsonJobsRoot.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            } catch (IOException | UnsupportedOperationException e) {
+                System.err.println("Filesystem notifications not available, polling instead: " + e);
+                pollOnly = true;
+            }
+        }
+        List<File> projects = summarizer.getPlatformDirectories(hudsonJobsRoot, directoryMatchPattern.pattern());
+        for (File project : projects) {
+            addProject(project, false);
+        }
+
+        Map<String, List<BuildResult>> allResults = summarizer.getAllResults(hudsonJobsRoot, directoryMatchPattern.pattern());
+        for (List<BuildResult> buildResults : allResults.values()) {
+            for (BuildResult buildResult : buildResults) {
+                put(buildResult);
+            }
+        }
+        writeSummary();
+        long scanned = System.currentTimeMillis();
+        for (Map.Entry<Path, Configuration> configuration : configurations.entrySet()) {
+            if (get(configuration.getValue()) == null) {
+                markDirty(configuration.getKey(), scanned);     // configuration which appeared during the scan
+            }
+        }
+        System.out.println("Watching " + configurations.size() + " configurations of " + knownProjects.size() + " projects"
+                + (pollOnly ? ", polling every " + pollMillis + "ms" : ""));
+
+        long nextPoll = System.currentTimeMillis() + pollMillis;
+        int polls = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.currentTimeMillis();
+                long wakeUp = nextPoll;
+                if (!dirty.isEmpty()) {
+                    wakeUp = Math.min(wakeUp, Math.min(lastEventAt + debounceMillis, firstDirtyAt + maxDelayMillis));
+                }
+                long timeout = Math.max(1, wakeUp - now);
+
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+                    while (key != null) {
+                        handle(key);
+                        key = watchService.poll();
+                    }
+                } else {
+                    Thread.sleep(timeout);
+                }
+
+                now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    polls++;
+                    poll(now, polls % REDISCOVER_EVERY_POLLS == 0);
+                    nextPoll = now + pollMillis;
+                }
+                if (!dirty.isEmpty() && (now >= lastEventAt + debounceMillis || now >= firstDirtyAt + maxDelayMillis)) {
+                    flush();
+                }
+            }
+        } finally {
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+    }
+
+    private void put(BuildResult buildResult) {
+        Map<JdkPlatformTuple, BuildResult> row = matrix.get(buildResult.getName());
+        if (row == null) {
+            row = new HashMap<>();
+            matrix.put(buildResult.getName(), row);
+        }
+        row.put(new JdkPlatformTuple(buildResult.getJdk(), buildResult.getPlatform()), buildResult);
+    }
+
+    private BuildResult get(Configuration configuration) {
+        Map<JdkPlatformTuple, BuildResult> row = matrix.get(configuration.getProjectName());
+        return row == null ? null : row.get(new JdkPlatformTuple(configuration.getJdk(), configuration.getPlatform()));
+    }
+
+    /**
+     * Start watching the configurations of a project.  A project which can't be read is tried again by the next rediscovery.
+     *
+     * @param markNew re-read configurations we have no result for yet
+     */
+    private void addProject(File project, boolean markNew) {
+        List<Configuration> discovered;
+        try {
+            discovered = new AxisDiscovery(summarizer.getAxisRegistry(), summarizer.getFileSystemAccess()).discover(project);
+        } catch (FileSystemAccess.UnreachableException e) {
+            System.err.println("************ Exception " + e.getMessage() + ", " + project.getName() + " will be looked at again later");
+            if (!knownProjects.contains(project.getName())) {
+                summarizer.getUnreachable().add(project.getName());
+            }
+            return;
+        } catch (IOException e) {
+            System.err.println("************ Exception " + e + " on " + project.getAbsolutePath());
+            return;
+        }
+        knownProjects.add(project.getName());
+        summarizer.getUnreachable().remove(project.getName());
+        for (Configuration configuration : discovered) {
+            Path builds = configuration.getBuildsDirectory().toPath();
+            if (configurations.put(builds, configuration) == null) {
+                watch(builds);
+                if (markNew && get(configuration) == null) {
+                    markDirty(builds, System.currentTimeMillis());     // configuration which didn't exist at the last scan
+                }
+            }
+        }
+    }
+
+    private void watch(Path builds) {
+        if (!pollOnly) {
+            try {
+                WatchKey key = builds.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                buildsKeys.put(key, builds);
+                return;
+            } catch (IOException e) {
+                System.err.println("Can't watch " + builds + ", polling it instead: " + e);
+            }
+        }
+        try {
+            polledModified.put(builds, lastModified(builds));
+        } catch (FileSystemAccess.UnreachableException e) {
+            polledModified.put(builds, -1L);     // looks changed at the first poll that gets through
+        }
+    }
+
+    private void handle(WatchKey key) {
+        long now = System.currentTimeMillis();
+        if (key == rootKey) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rediscover();
+                } else {
+                    String name = event.context().toString();
+                    if (directoryMatchPattern.matcher(name).matches() && !knownProjects.contains(name)) {
+                        addProject(new File(hudsonJobsRoot, name), true);
+                    }
+                }
+            }
+        } else if (buildsKeys.containsKey(key)) {
+            Path builds = buildsKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    String name = event.context().toString();
+                    if (LatestBuildResolver.BUILD_DIRECTORY_NAME.matcher(name).matches()) {
+                        watchRunningBuild(builds, builds.resolve(name));
+                    }
+                }
+                markDirty(builds, now);
+            }
+        } else if (runningBuildKeys.containsKey(key)) {
+            Path builds = runningBuildKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || "build.xml".equals(event.context().toString())) {
+                    markDirty(builds, now);
+                }
+            }
+        } else {
+            key.pollEvents();
+        }
+
+        if (!key.reset()) {
+            Path builds = buildsKeys.remove(key);
+            if (builds != null) {
+                configurations.remove(builds);   // configuration was deleted
+            }
+            Path runningBuilds = runningBuildKeys.remove(key);
+            if (runningBuilds != null) {
+                runningBuildKeyByBuilds.remove(runningBuilds);
+            }
+        }
+    }
+
+    /**
+     * Watch a new build directory until the next one starts, so we see its build.xml being written
+     */
+    private void watchRunningBuild(Path builds, Path buildDirectory) {
+        WatchKey previous = runningBuildKeyByBuilds.remove(builds);
+        if (previous != null) {
+            previous.cancel();
+            runningBuildKeys.remove(previous);
+        }
+        try {
+            WatchKey key = buildDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            runningBuildKeys.put(key, builds);
+            runningBuildKeyByBuilds.put(builds, key);
+        } catch (IOException e) {
+            // Gone already, or not a directory; the builds/ event has marked the configuration anyway
+        }
+    }
+
+    /**
+     * Check the modification time of every polled builds/ directory, and re-read the ones that are
+     * still waiting for a build to finish
+     */
+    private void poll(long now, boolean rediscover) {
+        if (rediscover) {
+            rediscover();
+        }
+        for (Path builds : unreachableBuilds) {
+            markDirty(builds, now);
+        }
+        unreachableBuilds.clear();
+        for (Map.Entry<Path, Long> polled : polledModified.entrySet()) {
+            Path builds = polled.getKey();
+            long modified;
+            try {
+                modified = lastModified(builds);
+            } catch (FileSystemAccess.UnreachableException e) {
+                continue;   // no news, rather than a change
+            }
+            if (modified != polled.getValue()) {
+                polled.setValue(modified);
+                Configuration configuration = configurations.get(builds);
+                BuildResult current = configuration == null ? null : get(configuration);
+                pending.put(builds, new PendingBuild(now, current == null ? -1 : current.getBuildNumber()));
+            }
+        }
+        for (Iterator<Map.Entry<Path, PendingBuild>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, PendingBuild> entry = it.next();
+            if (now - entry.getValue().since > MAX_PENDING_MILLIS) {
+                it.remove();
+            } else {
+                markDirty(entry.getKey(), now);
+            }
+        }
+    }
+
+    /**
+     * Look for new projects and new configurations of the projects we know about
+     */
+    private void rediscover() {
+        List<File> projects;
+        try {
+            projects = summarizer.getPlatformDirectories(hudsonJobsRoot, directoryMatchPattern.pattern());
+        } catch (IOException e) {
+            System.err.println("************ Exception " + e.getMessage() + " listing " + hudsonJobsRoot + ", trying again later");
+            return;
+        }
+        for (File project : projects) {
+            addProject(project, true);
+        }
+    }
+
+    private void markDirty(Path builds, long now) {
+        if (dirty.isEmpty()) {
+            firstDirtyAt = now;
+        }
+        dirty.add(builds);
+        lastEventAt = now;
+    }
+
+    /**
+     * Re-read the latest build of every changed configuration, then rewrite the summary
+     */
+    private void flush() {
+        ScanMetrics.get().startRun();
+        List<Path> changed = new ArrayList<>(dirty);
+        dirty.clear();
+        int updated = 0;
+        for (Path builds : changed) {
+            Configuration configuration = configurations.get(builds);
+            if (configuration == null) {
+                continue;
+            }
+            UnreachableConfigurations unreachable = summarizer.getUnreachable();
+            boolean wasUnreachable = unreachable.contains(configuration.getProjectName(),
+                    new JdkPlatformTuple(configuration.getJdk(), configuration.getPlatform()));
+            try {
+                File[] buildDirectories = summarizer.getBuildDirectories(builds.toFile());
+                if (buildDirectories == null) {
+                    continue;
+                }
+                BuildResult buildResult = summarizer.readBuildResults(buildDirectories, configuration.getProjectName(),
+                        configuration.getJdk(), configuration.getPlatform());
+                BuildResult previous = get(configuration);
+                put(buildResult);
+                unreachable.remove(configuration.getProjectName(), configuration.getJdk(), configuration.getPlatform());
+                updated++;
+                PendingBuild waiting = pending.get(builds);
+                if (waiting != null && waiting.buildNumber != buildResult.getBuildNumber()) {
+                    pending.remove(builds);
+                }
+                if (previous == null || previous.getBuildNumber() != buildResult.getBuildNumber()) {
+                    System.out.println("New result " + buildResult);
+                }
+            } catch (FileSystemAccess.UnreachableException e) {
+                System.err.println("************ Exception " + e.getMessage() + ", " + builds + " will be shown as stale");
+                unreachable.add(configuration.getProjectName(), configuration.getJdk(), configuration.getPlatform());
+                unreachableBuilds.add(builds);
+                if (!wasUnreachable) {
+                    updated++;
+                }
+            } catch (Exception e) {
+                // Most likely a build.xml that is still being written, the next event will bring us back here
+                System.err.println("************ Exception " + e.getMessage() + " on " + builds.toAbsolutePath());
+            }
+        }
+        if (updated > 0) {
+            try {
+                writeSummary();
+                if (resultCache != null) {
+                    resultCache.save();
+                }
+                summarizer.commitFailureIndex();
+            } catch (IOException e) {
+                // i.e. a full disk, the next update writes everything again
+                e.printStackTrace();
+                System.err.println("************ Exception " + e.getMessage() + " writing the summary");
+            }
+        }
+    }
+
+    private void writeSummary() throws IOException {
+        Map<String, List<BuildResult>> allResults = new TreeMap<>();
+        for (Map.Entry<String, Map<JdkPlatformTuple, BuildResult>> row : matrix.entrySet()) {
+            allResults.put(row.getKey(), new ArrayList<>(row.getValue().values()));
+        }
+        // Rows of stale cells for projects we have nothing else for
+        UnreachableConfigurations unreachable = summarizer.getUnreachable();
+        for (String project : unreachable.getProjects()) {
+            if (!allResults.containsKey(project)) {
+                allResults.put(project, new ArrayList<BuildResult>());
+            }
+        }
+        for (Map.Entry<String, Set<JdkPlatformTuple>> configurations : unreachable.getConfigurations().entrySet()) {
+            if (!configurations.getValue().isEmpty() && !allResults.containsKey(configurations.getKey())) {
+                allResults.put(configurations.getKey(), new ArrayList<BuildResult>());
+            }
+        }
+        summarizer.writeSummaryAtomically(outputFile, allResults);
+        // Counters keep growing while we watch, which is what Prometheus expects of them
+        new MetricsWriter(ScanMetrics.get()).write(outputFile.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * @return the modification time, or -1 if the directory has gone
+     * @throws FileSystemAccess.UnreachableException if it couldn't be looked at in time
+     */
+    private long lastModified(Path path) throws FileSystemAccess.UnreachableException {
+        try {
+            return summarizer.getFileSystemAccess().readAttributes(path).lastModifiedTime().toMillis();
+        } catch (FileSystemAccess.UnreachableException e) {
+            throw e;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
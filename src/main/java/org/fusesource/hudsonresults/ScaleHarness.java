@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a full scan and summary against a jobs tree, usually one written by {@link JobsTreeGenerator}, and
+ * reports the wall time, peak RSS and how many files were touched.  Each run is also appended to
+ * results/scale-runs.csv so runs with different sizes or options can be compared.
+ *
+ * @author kearls
+ */
+public class ScaleHarness {
+    private static final String RUNS_FILE = "results/scale-runs.csv";
+
+    /**
+     * @return the value of a field of /proc/self/status in kB, i.e. VmHWM for peak RSS, or -1 where there is no /proc
+     */
+    static long procStatusKb(String field) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(field + ":")) {
+                    String value = line.substring(field.length() + 1).trim();     // "123456 kB"
+                    return Long.parseLong(value.substring(0, value.indexOf(' ')));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * @param args jobs root and optionally the project expression, then any of the scan options SummarizeBuildResults takes
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = SummarizeBuildResults.parseOptions(args, positional);
+        if (positional.isEmpty()) {
+            System.err.println("Usage: ScaleHarness jobsRoot [expression] [--parser=stax|jaxb] [--history=N] [--cache=FILE] [--*-threads=N]");
+            System.exit(1);
+        }
+        File root = new File(positional.get(0));
+        String expression = positional.size() > 1 ? positional.get(1) : SummarizeBuildResults.ACCEPT_STRING_RH_6_1;
+
+        SummarizeBuildResults summarizer = new SummarizeBuildResults();
+        summarizer.configure(options);
+        ResultCache resultCache = null;
+        if (options.containsKey("cache")) {
+            resultCache = new ResultCache(new File(options.get("cache")), summarizer.getFileSystemAccess());
+            resultCache.load();
+            summarizer.setResultCache(resultCache);
+        }
+        new File("results").mkdirs();
+
+        ScanMetrics metrics = ScanMetrics.get();
+        metrics.reset();
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+        Map<String, List<BuildResult>> allResults = summarizer.getAllResults(root, expression);
+        long scanned = System.nanoTime();
+        summarizer.createHTMLSummary(new FileWriter("results/scale.html"), allResults);
+        if (resultCache != null) {
+            resultCache.save();
+        }
+        long end = System.nanoTime();
+
+        int configurations = 0;
+        for (List<BuildResult> results : allResults.values()) {
+            configurations += results.size();
+        }
+        long scanMillis = TimeUnit.NANOSECONDS.toMillis(scanned - start);
+        long renderMillis = TimeUnit.NANOSECONDS.toMillis(end - scanned);
+        long peakRss = procStatusKb("VmHWM");
+        long gc = gcMillis() - gcBefore;
+
+        System.out.println("Projects         " + allResults.size());
+        System.out.println("Configurations   " + configurations);
+        System.out.println("Scan             " + scanMillis + " ms");
+        System.out.println("Render           " + renderMillis + " ms");
+        System.out.println("GC               " + gc + " ms");
+        System.out.println("Peak RSS         " + (peakRss < 0 ? "unknown" : peakRss + " kB"));
+        System.out.println("Files touched    " + metrics.getFilesTouched() + ": " + metrics);
+
+        File runs = new File(RUNS_FILE);
+        boolean header = !runs.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(runs, true))) {
+            if (header) {
+                writer.println("date,root,expression,args,projects,configurations,scanMillis,renderMillis,gcMillis,peakRssKb,"
+                        + "directoriesListed,filesRead,bytesRead,linksRead,filesChecked,cacheHits");
+            }
+            writer.println(new Date() + "," + root + ",\"" + expression + "\",\"" + options + "\"," + allResults.size() + "," + configurations
+                    + "," + scanMillis + "," + renderMillis + "," + gc + "," + peakRss + "," + metrics.directoriesListed + "," + metrics.filesRead
+                    + "," + metrics.bytesRead + "," + metrics.linksRead + "," + metrics.filesChecked + "," + metrics.cacheHits);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the work a scan does, so runs against trees of different sizes (or with different
+ * options) can be compared and slow nights explained.  One set of metrics is shared by everything in the
+ * process; {@link MetricsWriter} writes them out next to the summary.
+ *
+ * @author kearls
+ */
+public class ScanMetrics {
+    private static final ScanMetrics instance = new ScanMetrics();
+
+    // Phases, see the callers of phase()
+    public static final String PLATFORM_DIRECTORIES = "platformDirectories";
+    public static final String LATEST_BUILD = "latestBuildDirectory";
+    public static final String PARSE = "parse";
+    public static final String SCAN = "scan";
+    public static final String RENDER = "render";
+
+    final AtomicLong directoriesListed = new AtomicLong();
+    final AtomicLong filesRead = new AtomicLong();
+    final AtomicLong bytesRead = new AtomicLong();
+    final AtomicLong linksRead = new AtomicLong();
+    final AtomicLong filesChecked = new AtomicLong();     // exists() or attributes, without reading
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong buildFilesParsed = new AtomicLong();
+    final AtomicLong missingBuildFiles = new AtomicLong();
+    final AtomicLong operationsTimedOut = new AtomicLong();
+    final AtomicLong missingPathsSkipped = new AtomicLong();    // known not to exist, see FileSystemAccess
+    final AtomicLong logsClassified = new AtomicLong();
+    final AtomicLong logsUnreadable = new AtomicLong();     // couldn't be classified, tried again next time
+
+    final LatencyHistogram statLatency = new LatencyHistogram();
+    final LatencyHistogram resolveLatency = new LatencyHistogram();
+    final LatencyHistogram parseLatency = new LatencyHistogram();
+    final LatencyHistogram classifyLatency = new LatencyHistogram();
+
+    private final ConcurrentMap<String, AtomicLong> phaseNanos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> parseFailures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> projectNanos = new ConcurrentHashMap<>();
+
+    public static ScanMetrics get() {
+        return instance;
+    }
+
+    public void directoryListed() {
+        directoriesListed.incrementAndGet();
+    }
+
+    public void fileRead(long bytes) {
+        filesRead.incrementAndGet();
+        bytesRead.addAndGet(bytes);
+    }
+
+    public void linkRead() {
+        linksRead.incrementAndGet();
+    }
+
+    public void fileChecked() {
+        filesChecked.incrementAndGet();
+    }
+
+    /**
+     * A file was checked, taking the time since start
+     */
+    public void fileChecked(long start) {
+        filesChecked.incrementAndGet();
+        statLatency.record(System.nanoTime() - start);
+    }
+
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void buildFileParsed(long start) {
+        buildFilesParsed.incrementAndGet();
+        parseLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * The log of a failed build was read to find why it failed, taking the time since start
+     */
+    public void logClassified(long start) {
+        logsClassified.incrementAndGet();
+        classifyLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * The log of a failed build couldn't be read, so the build has no failure reason this time
+     */
+    public void logUnreadable() {
+        logsUnreadable.incrementAndGet();
+    }
+
+    public void latestBuildResolved(long start) {
+        resolveLatency.record(System.nanoTime() - start);
+    }
+
+    public void missingBuildFile() {
+        missingBuildFiles.incrementAndGet();
+    }
+
+    public void operationTimedOut() {
+        operationsTimedOut.incrementAndGet();
+    }
+
+    public void missingPathSkipped() {
+        missingPathsSkipped.incrementAndGet();
+    }
+
+    public void parseFailed(Throwable e) {
+        increment(parseFailures, e.getClass().getSimpleName(), 1);
+    }
+
+    /**
+     * Add the time since start to a phase.  Phases run in parallel by the scan, i.e. parse, add up the time of every thread.
+     */
+    public void phase(String name, long start) {
+        increment(phaseNanos, name, System.nanoTime() - start);
+    }
+
+    /**
+     * Add the time since start to the time spent on a project
+     */
+    public void project(String projectName, long start) {
+        increment(projectNanos, projectName, System.nanoTime() - start);
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> map, String key, long delta) {
+        AtomicLong value = map.get(key);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = map.putIfAbsent(key, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map) {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().get());
+        }
+        return copy;
+    }
+
+    /**
+     * @return nanoseconds spent in each phase
+     */
+    public Map<String, Long> getPhaseNanos() {
+        return snapshot(phaseNanos);
+    }
+
+    /**
+     * @return parse failures by exception type
+     */
+    public Map<String, Long> getParseFailures() {
+        return snapshot(parseFailures);
+    }
+
+    /**
+     * @param limit maximum number of projects to return
+     * @return the projects which took longest to resolve and parse, with their nanoseconds, slowest first
+     */
+    public Map<String, Long> getSlowestProjects(int limit) {
+        List<Map.Entry<String, Long>> projects = new ArrayList<>(snapshot(projectNanos).entrySet());
+        Collections.sort(projects, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> first, Map.Entry<String, Long> second) {
+                return Long.compare(second.getValue(), first.getValue());
+            }
+        });
+        Map<String, Long> slowest = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> project : projects.subList(0, Math.min(limit, projects.size()))) {
+            slowest.put(project.getKey(), project.getValue());
+        }
+        return slowest;
+    }
+
+    public long getFilesTouched() {
+        return directoriesListed.get() + filesRead.get() + linksRead.get() + filesChecked.get();
+    }
+
+    /**
+     * Start a new run of a long lived watcher or server: the phase and project times and the latency
+     * histograms describe the last run, the counters keep growing as Prometheus expects of them
+     */
+    public void startRun() {
+        statLatency.reset();
+        resolveLatency.reset();
+        parseLatency.reset();
+        classifyLatency.reset();
+        phaseNanos.clear();
+        projectNanos.clear();
+    }
+
+    public void reset() {
+        for (AtomicLong counter : new AtomicLong[] {directoriesListed, filesRead, bytesRead, linksRead, filesChecked, cacheHits,
+                buildFilesParsed, missingBuildFiles, operationsTimedOut, missingPathsSkipped, logsClassified, logsUnreadable}) {
+            counter.set(0);
+        }
+        statLatency.reset();
+        resolveLatency.reset();
+        parseLatency.reset();
+        classifyLatency.reset();
+        phaseNanos.clear();
+        parseFailures.clear();
+        projectNanos.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "directories listed " + directoriesListed + ", files read " + filesRead + " (" + bytesRead + " bytes), links read "
+                + linksRead + ", files checked " + filesChecked + ", cache hits " + cacheHits;
+    }
+}
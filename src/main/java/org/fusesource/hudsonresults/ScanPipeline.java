@@ -0,0 +1,293 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans the selected project directories in stages connected by bounded queues:
+ * <ol>
+ *     <li>discovery: find the configurations each project has, see {@link AxisDiscovery}</li>
+ *     <li>resolution: find the latest build in each builds/ directory</li>
+ *     <li>parsing: read the build.xml and merge the result into the map keyed by project</li>
+ * </ol>
+ * A full queue blocks the stage feeding it, so a slow stage throttles the ones before it.  If a worker dies with
+ * an Error the whole scan is stopped and the Error is rethrown, as the stages feeding it would otherwise wait forever.
+ *
+ * @author kearls
+ */
+public class ScanPipeline {
+    private final SummarizeBuildResults summarizer;
+    private final AxisDiscovery axisDiscovery;
+    private final int discoveryWorkers;
+    private final int resolveWorkers;
+    private final int parseWorkers;
+    private final int queueCapacity;
+
+    public ScanPipeline(SummarizeBuildResults summarizer, int discoveryWorkers, int resolveWorkers, int parseWorkers, int queueCapacity) {
+        if (discoveryWorkers < 1 || resolveWorkers < 1 || parseWorkers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Worker counts and queue capacity must be at least 1");
+        }
+        this.summarizer = summarizer;
+        this.axisDiscovery = new AxisDiscovery(summarizer.getAxisRegistry(), summarizer.getFileSystemAccess());
+        this.discoveryWorkers = discoveryWorkers;
+        this.resolveWorkers = resolveWorkers;
+        this.parseWorkers = parseWorkers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * A configuration of a project, i.e. jdk6 on ubuntu, and either its builds/ directory or the builds found in it
+     */
+    static class ScanItem {
+        static final ScanItem END = new ScanItem(null, null, null, (File) null);
+
+        final String projectName;
+        final String jdk;
+        final String platform;
+        final File directory;
+        final File[] buildDirectories;     // newest first
+
+        ScanItem(String projectName, String jdk, String platform, File directory) {
+            this.projectName = projectName;
+            this.jdk = jdk;
+            this.platform = platform;
+            this.directory = directory;
+            this.buildDirectories = null;
+        }
+
+        ScanItem(String projectName, String jdk, String platform, File[] buildDirectories) {
+            this.projectName = projectName;
+            this.jdk = jdk;
+            this.platform = platform;
+            this.directory = buildDirectories[0];
+            this.buildDirectories = buildDirectories;
+        }
+    }
+
+    /**
+     * Scan the given project directories
+     *
+     * @param projectDirectories directories under the Hudson jobs root
+     * @return Map of project name to results of the latest build of each configuration
+     */
+    public Map<String, List<BuildResult>> run(List<File> projectDirectories) throws IOException {
+        final BlockingQueue<File> projects = new ArrayBlockingQueue<>(Math.max(1, projectDirectories.size()) + discoveryWorkers);
+        final BlockingQueue<ScanItem> buildsDirectories = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<ScanItem> latestBuilds = new ArrayBlockingQueue<>(queueCapacity);
+        final ConcurrentMap<String, List<BuildResult>> allResults = new ConcurrentHashMap<>();
+
+        projects.addAll(projectDirectories);
+        for (int i = 0; i < discoveryWorkers; i++) {
+            projects.add(new File(""));     // end marker for the discovery stage
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(discoveryWorkers + resolveWorkers + parseWorkers);
+        final AtomicReference<Error> failure = new AtomicReference<>();
+        try {
+            final AtomicInteger discoveryRunning = new AtomicInteger(discoveryWorkers);
+            for (int i = 0; i < discoveryWorkers; i++) {
+                executor.submit(new StageWorker<File>(projects, discoveryRunning, buildsDirectories, resolveWorkers, executor, failure) {
+                    @Override
+                    boolean isEnd(File project) {
+                        return project.getPath().isEmpty();
+                    }
+
+                    @Override
+                    void process(File project) throws Exception {
+                        List<Configuration> configurations;
+                        try {
+                            configurations = axisDiscovery.discover(project);
+                        } catch (FileSystemAccess.UnreachableException e) {
+                            unreachable(e, project.getName());
+                            return;
+                        }
+                        for (Configuration configuration : configurations) {
+                            buildsDirectories.put(new ScanItem(project.getName(), configuration.getJdk(), configuration.getPlatform(),
+                                    configuration.getBuildsDirectory()));
+                        }
+                    }
+                });
+            }
+
+            final AtomicInteger resolveRunning = new AtomicInteger(resolveWorkers);
+            for (int i = 0; i < resolveWorkers; i++) {
+                executor.submit(new StageWorker<ScanItem>(buildsDirectories, resolveRunning, latestBuilds, parseWorkers, executor, failure) {
+                    @Override
+                    void process(ScanItem item) throws Exception {
+                        long start = System.nanoTime();
+                        File[] buildDirectories;
+                        try {
+                            buildDirectories = summarizer.getBuildDirectories(item.directory);
+                        } catch (FileSystemAccess.UnreachableException e) {
+                            unreachable(e, item);
+                            return;
+                        } finally {
+                            ScanMetrics.get().project(item.projectName, start);
+                        }
+                        if (buildDirectories != null) {
+                            latestBuilds.put(new ScanItem(item.projectName, item.jdk, item.platform, buildDirectories));
+                        }
+                    }
+                });
+            }
+
+            final AtomicInteger parseRunning = new AtomicInteger(parseWorkers);
+            for (int i = 0; i < parseWorkers; i++) {
+                executor.submit(new StageWorker<ScanItem>(latestBuilds, parseRunning, null, 0, executor, failure) {
+                    @Override
+                    void process(ScanItem item) throws Exception {
+                        long start = System.nanoTime();
+                        BuildResult buildResult;
+                        try {
+                            buildResult = summarizer.readBuildResults(item.buildDirectories, item.projectName, item.jdk, item.platform);
+                        } catch (FileSystemAccess.UnreachableException e) {
+                            unreachable(e, item);
+                            return;
+                        } finally {
+                            ScanMetrics.get().project(item.projectName, start);
+                        }
+                        List<BuildResult> platformResults = allResults.get(item.projectName);
+                        if (platformResults == null) {
+                            List<BuildResult> created = Collections.synchronizedList(new ArrayList<BuildResult>());
+                            platformResults = allResults.putIfAbsent(item.projectName, created);
+                            if (platformResults == null) {
+                                platformResults = created;
+                            }
+                        }
+                        platformResults.add(buildResult);
+                    }
+                });
+            }
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Still scanning, " + allResults.size() + " projects with results so far");
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning");
+        }
+
+        return allResults;
+    }
+
+    private void unreachable(FileSystemAccess.UnreachableException e, String projectName) {
+        System.err.println("************ Exception " + e.getMessage() + ", " + projectName + " will be shown as stale");
+        summarizer.getUnreachable().add(projectName);
+    }
+
+    private void unreachable(FileSystemAccess.UnreachableException e, ScanItem item) {
+        System.err.println("************ Exception " + e.getMessage() + ", " + item.projectName + " " + item.jdk + " " + item.platform
+                + " will be shown as stale");
+        summarizer.getUnreachable().add(item.projectName, item.jdk, item.platform);
+    }
+
+    /**
+     * Takes items from its input queue until it sees the end marker.  The last worker of a stage
+     * to finish passes one end marker to each worker of the next stage.  A worker that dies with an
+     * Error records it and interrupts every other worker, so no stage is left blocked on a queue.
+     */
+    private static abstract class StageWorker<T> implements Runnable {
+        private final BlockingQueue<T> input;
+        private final AtomicInteger running;
+        private final BlockingQueue<ScanItem> output;
+        private final int downstreamWorkers;
+        private final ExecutorService executor;
+        private final AtomicReference<Error> failure;
+
+        StageWorker(BlockingQueue<T> input, AtomicInteger running, BlockingQueue<ScanItem> output, int downstreamWorkers,
+                    ExecutorService executor, AtomicReference<Error> failure) {
+            this.input = input;
+            this.running = running;
+            this.output = output;
+            this.downstreamWorkers = downstreamWorkers;
+            this.executor = executor;
+            this.failure = failure;
+        }
+
+        boolean isEnd(T item) {
+            return item == ScanItem.END;
+        }
+
+        abstract void process(T item) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                T item;
+                while (!isEnd(item = input.take())) {
+                    try {
+                        process(item);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        System.err.println("************ Exception " + e.getMessage() + " on " + describe(item));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Error e) {
+                // The executor would keep this in a Future nobody looks at, and the stages either side of this
+                // one would block on their queues once every worker of it had gone, so stop the whole scan
+                e.printStackTrace();
+                System.err.println("************ Error " + e + ", stopping the scan");
+                failure.compareAndSet(null, e);
+                executor.shutdownNow();
+                throw e;
+            } finally {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (running.decrementAndGet() == 0 && output != null && failure.get() == null) {
+                try {
+                    for (int i = 0; i < downstreamWorkers; i++) {
+                        output.put(ScanItem.END);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private String describe(T item) {
+            return item instanceof ScanItem ? ((ScanItem) item).directory.getAbsolutePath() : String.valueOf(item);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges the results files left by the workers of a sharded scan, see {@link ShardResults}.  Shards
+ * which haven't finished can be waited for.  A shard whose file is still missing after that, or was
+ * written too long ago to belong to this run, is either scanned here or has its projects shown as stale,
+ * so one slow or dead worker doesn't hold up the summary.
+ *
+ * @author kearls
+ */
+public class ShardCoordinator {
+    private static final long POLL_MILLIS = 1000;
+
+    private final File shardDirectory;
+    private final int shardCount;
+    private final String matchExpression;
+    private long maxAgeMillis = 12 * 60 * 60 * 1000L;
+
+    private final BitSet missing = new BitSet();
+
+    public ShardCoordinator(File shardDirectory, int shardCount, String matchExpression) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        this.shardDirectory = shardDirectory;
+        this.shardCount = shardCount;
+        this.matchExpression = matchExpression;
+    }
+
+    /**
+     * @param maxAgeMillis shard files written longer ago than this are left over from an earlier run, and treated as missing
+     */
+    public void setMaxAge(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return the shards the last merge had no usable file for
+     */
+    public BitSet getMissing() {
+        return (BitSet) missing.clone();
+    }
+
+    /**
+     * @param summarizer gets the unreachable configurations of every shard, and scans missing shards
+     * @param hudsonJobsRoot listed to find the projects of missing shards
+     * @param waitMillis how long to wait for shards which haven't been written yet
+     * @param scanMissing true to scan the projects of missing shards in this process, false to show them as stale
+     * @return the results of every shard
+     */
+    public Map<String, List<BuildResult>> merge(SummarizeBuildResults summarizer, File hudsonJobsRoot, long waitMillis, boolean scanMissing)
+            throws IOException {
+        List<ShardResults> shards = collect(waitMillis);
+        Map<String, List<BuildResult>> allResults = new ConcurrentHashMap<>();
+
+        // getAllResults starts with no unreachable configurations, so the shards' are added after any scan
+        if (missing.isEmpty() || !scanMissing) {
+            summarizer.getUnreachable().clear();
+        }
+        if (!missing.isEmpty()) {
+            ShardSelector missingShards = new ShardSelector(shardCount, missing);
+            if (scanMissing) {
+                System.out.println("Scanning " + missingShards + " which didn't report");
+                summarizer.setShardSelector(missingShards);
+                try {
+                    allResults.putAll(summarizer.getAllResults(hudsonJobsRoot, matchExpression));
+                } finally {
+                    summarizer.setShardSelector(null);
+                }
+            } else {
+                staleProjects(summarizer, hudsonJobsRoot, missingShards, allResults);
+            }
+        }
+
+        for (ShardResults shard : shards) {
+            allResults.putAll(shard.getResults());
+            UnreachableConfigurations unreachable = shard.getUnreachable();
+            summarizer.getUnreachable().addAll(unreachable);
+            for (Set<JdkPlatformTuple> columns : unreachable.getConfigurations().values()) {
+                for (JdkPlatformTuple column : columns) {
+                    summarizer.getAxisRegistry().register(column.getJdk(), column.getPlatform());
+                }
+            }
+        }
+        System.out.println("Merged " + shards.size() + " of " + shardCount + " shards, " + allResults.size() + " projects");
+        return allResults;
+    }
+
+    /**
+     * Read every shard's file, polling for the ones which aren't there yet until waitMillis is up
+     */
+    private List<ShardResults> collect(long waitMillis) throws IOException {
+        ShardResults[] shards = new ShardResults[shardCount];
+        missing.clear();
+        missing.set(0, shardCount);
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            for (int shard = missing.nextSetBit(0); shard >= 0; shard = missing.nextSetBit(shard + 1)) {
+                shards[shard] = read(shard);
+                if (shards[shard] != null) {
+                    missing.clear(shard);
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (missing.isEmpty() || remaining <= 0) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.min(POLL_MILLIS, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + missing.cardinality() + " shards");
+            }
+        }
+
+        List<ShardResults> found = new ArrayList<>();
+        for (ShardResults shard : shards) {
+            if (shard != null) {
+                found.add(shard);
+            }
+        }
+        if (!missing.isEmpty()) {
+            System.err.println("No results from shards " + missing + " of " + shardCount);
+        }
+        return found;
+    }
+
+    /**
+     * @return the shard's results, or null if its file isn't there yet, is too old, damaged or from a different scan
+     */
+    private ShardResults read(int shard) {
+        File file = ShardResults.file(shardDirectory, shard, shardCount);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ShardResults results = ShardResults.read(file);
+            if (results.getShard() != shard || results.getShardCount() != shardCount || !matchExpression.equals(results.getMatchExpression())) {
+                System.err.println(file + " is for shard " + results.getShard() + " of " + results.getShardCount() + " matching ["
+                        + results.getMatchExpression() + "], ignoring it");
+                return null;
+            }
+            if (System.currentTimeMillis() - results.getTime() > maxAgeMillis) {
+                System.err.println(file + " was written at " + new Date(results.getTime()) + ", too long ago to use");
+                return null;
+            }
+            return results;
+        } catch (IOException e) {
+            System.err.println("************ Exception " + e.getMessage() + " reading " + file + ", ignoring it");
+            return null;
+        }
+    }
+
+    /**
+     * Give each project of the missing shards a row of stale cells
+     */
+    private void staleProjects(SummarizeBuildResults summarizer, File hudsonJobsRoot, ShardSelector missingShards,
+                               Map<String, List<BuildResult>> allResults) throws IOException {
+        summarizer.setShardSelector(missingShards);
+        try {
+            for (File project : summarizer.getPlatformDirectories(hudsonJobsRoot, matchExpression)) {
+                summarizer.getUnreachable().add(project.getName());
+                allResults.put(project.getName(), Collections.synchronizedList(new ArrayList<BuildResult>()));
+            }
+        } catch (FileSystemAccess.UnreachableException e) {
+            System.err.println("************ Exception " + e.getMessage() + ", the projects of shards " + missing + " won't be shown");
+        } finally {
+            summarizer.setShardSelector(null);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The results of one shard of a sharded scan, as written by a worker for the coordinator: every
+ * result with its history, and the configurations which couldn't be read.  Names are written once and
+ * referred to by index, and the file ends with a CRC.  It is written to a temporary file and moved into
+ * place, so a coordinator never sees half of one.
+ *
+ * @author kearls
+ */
+public class ShardResults {
+    private static final int MAGIC = 0x48525031;   // HRP1
+    private static final int VERSION = 2;
+
+    private final int shard;
+    private final int shardCount;
+    private final String matchExpression;
+    private final long time;
+    private final Map<String, List<BuildResult>> results;
+    private final UnreachableConfigurations unreachable;
+
+    public ShardResults(int shard, int shardCount, String matchExpression, long time, Map<String, List<BuildResult>> results,
+                        UnreachableConfigurations unreachable) {
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.matchExpression = matchExpression;
+        this.time = time;
+        this.results = results;
+        this.unreachable = unreachable;
+    }
+
+    /**
+     * @return the name of the file for a shard in the directory the workers and the coordinator share
+     */
+    public static File file(File directory, int shard, int shardCount) {
+        return new File(directory, "shard-" + shard + "-of-" + shardCount + ".bin");
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public String getMatchExpression() {
+        return matchExpression;
+    }
+
+    /**
+     * @return when the worker finished its scan, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public Map<String, List<BuildResult>> getResults() {
+        return results;
+    }
+
+    public UnreachableConfigurations getUnreachable() {
+        return unreachable;
+    }
+
+    public void write(File file) throws IOException {
+        final NameTable names = new NameTable();
+        for (Map.Entry<String, List<BuildResult>> entry : results.entrySet()) {
+            names.add(entry.getKey());
+            for (BuildResult br : entry.getValue()) {
+                names.add(br.getJdk());
+                names.add(br.getPlatform());
+            }
+        }
+        for (String project : unreachable.getProjects()) {
+            names.add(project);
+        }
+        for (Map.Entry<String, Set<JdkPlatformTuple>> entry : unreachable.getConfigurations().entrySet()) {
+            names.add(entry.getKey());
+            for (JdkPlatformTuple column : entry.getValue()) {
+                names.add(column.getJdk());
+                names.add(column.getPlatform());
+            }
+        }
+
+        AtomicFiles.write(file, new AtomicFiles.IOConsumer<DataOutputStream>() {
+            @Override
+            public void accept(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(shard);
+                out.writeInt(shardCount);
+                out.writeUTF(matchExpression);
+                out.writeLong(time);
+                names.write(out);
+
+                out.writeInt(results.size());
+                for (Map.Entry<String, List<BuildResult>> entry : results.entrySet()) {
+                    List<BuildResult> buildResults = entry.getValue();
+                    synchronized (buildResults) {
+                        out.writeInt(names.id(entry.getKey()));
+                        out.writeInt(buildResults.size());
+                        for (BuildResult br : buildResults) {
+                            writeResult(out, names, br);
+                        }
+                    }
+                }
+
+                out.writeInt(unreachable.getProjects().size());
+                for (String project : unreachable.getProjects()) {
+                    out.writeInt(names.id(project));
+                }
+                int configurations = 0;
+                for (Set<JdkPlatformTuple> columns : unreachable.getConfigurations().values()) {
+                    configurations += columns.size();
+                }
+                out.writeInt(configurations);
+                for (Map.Entry<String, Set<JdkPlatformTuple>> entry : unreachable.getConfigurations().entrySet()) {
+                    for (JdkPlatformTuple column : entry.getValue()) {
+                        out.writeInt(names.id(entry.getKey()));
+                        out.writeInt(names.id(column.getJdk()));
+                        out.writeInt(names.id(column.getPlatform()));
+                    }
+                }
+            }
+        });
+    }
+
+    private static void writeResult(DataOutputStream out, NameTable names, BuildResult br) throws IOException {
+        out.writeInt(names.id(br.getJdk()));
+        out.writeInt(names.id(br.getPlatform()));
+        out.writeInt(br.getBuildNumber());
+        out.writeLong(br.getStartTime());
+        out.writeByte(br.getStatus().ordinal());
+        out.writeInt(br.getTestsRun());
+        out.writeInt(br.getFailedTests());
+        out.writeInt(br.getDuration());
+        out.writeBoolean(br.getFailureReason() != null);
+        if (br.getFailureReason() != null) {
+            out.writeUTF(br.getFailureReason());
+        }
+
+        BuildHistory history = br.getHistory();
+        if (history == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(history.getCapacity());
+        out.writeInt(history.size());
+        for (int age = history.size() - 1; age >= 0; age--) {
+            out.writeInt(history.getNumber(age));
+            out.writeByte(history.getResult(age));
+            out.writeInt(history.getFailCount(age));
+            out.writeInt(history.getTotalCount(age));
+            out.writeInt(history.getDuration(age));
+            out.writeLong(history.getStartTime(age));
+        }
+    }
+
+    /**
+     * @throws IOException if the file can't be read or isn't a complete shard file
+     */
+    public static ShardResults read(File file) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 65536), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " isn't a shard results file");
+            }
+            int shard = in.readInt();
+            int shardCount = in.readInt();
+            String matchExpression = in.readUTF();
+            long time = in.readLong();
+            NameTable names = NameTable.read(in);
+
+            int projects = in.readInt();
+            Map<String, List<BuildResult>> results = new HashMap<>(projects * 2);
+            for (int p = 0; p < projects; p++) {
+                String project = names.name(in.readInt());
+                int count = in.readInt();
+                List<BuildResult> buildResults = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    buildResults.add(readResult(in, names, project));
+                }
+                results.put(project, buildResults);
+            }
+
+            UnreachableConfigurations unreachable = new UnreachableConfigurations();
+            int unreachableProjects = in.readInt();
+            for (int i = 0; i < unreachableProjects; i++) {
+                unreachable.add(names.name(in.readInt()));
+            }
+            int unreachableConfigurations = in.readInt();
+            for (int i = 0; i < unreachableConfigurations; i++) {
+                unreachable.add(names.name(in.readInt()), names.name(in.readInt()), names.name(in.readInt()));
+            }
+
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("checksum mismatch in " + file);
+            }
+            return new ShardResults(shard, shardCount, matchExpression, time, results, unreachable);
+        }
+    }
+
+    private static BuildResult readResult(DataInputStream in, NameTable names, String project) throws IOException {
+        String jdk = names.name(in.readInt());
+        String platform = names.name(in.readInt());
+        int number = in.readInt();
+        long startTime = in.readLong();
+        int result = in.readByte();
+        if (result < 0 || result >= BuildResult.Result.values().length) {
+            throw new IOException("unknown result " + result);
+        }
+        BuildResult br = new BuildResult(project, startTime, jdk, platform, BuildResult.Result.values()[result], in.readInt(), in.readInt(),
+                in.readInt(), number);
+        if (in.readBoolean()) {
+            br.setFailureReason(in.readUTF());
+        }
+
+        int capacity = in.readInt();
+        if (capacity > 0) {
+            BuildHistory history = new BuildHistory(capacity);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                history.add(in.readInt(), in.readByte(), in.readInt(), in.readInt(), in.readInt(), in.readLong());
+            }
+            br.setHistory(history);
+        }
+        return br;
+    }
+}
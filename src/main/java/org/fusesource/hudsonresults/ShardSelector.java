@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.BitSet;
+
+/**
+ * Which shards of the jobs directory to scan.  Projects are given to one of K shards by the hash of
+ * their directory name, which String.hashCode defines the same on every JVM, so each worker of a sharded
+ * scan and the coordinator agree on where every project belongs without talking to each other.
+ *
+ * @author kearls
+ */
+public class ShardSelector {
+    private final int shardCount;
+    private final BitSet shards;
+
+    /**
+     * @param shardCount number of shards the projects are split into
+     * @param shards the shards to select
+     */
+    public ShardSelector(int shardCount, BitSet shards) {
+        if (shardCount < 1 || shards.length() > shardCount) {
+            throw new IllegalArgumentException("Shards " + shards + " aren't in 0.." + (shardCount - 1));
+        }
+        this.shardCount = shardCount;
+        this.shards = (BitSet) shards.clone();
+    }
+
+    /**
+     * @param shard i/K, i.e. 0/4 for the first of four shards
+     */
+    public static ShardSelector parse(String shard) {
+        int slash = shard.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard should look like 0/4, not " + shard);
+        }
+        int index = Integer.parseInt(shard.substring(0, slash));
+        int count = Integer.parseInt(shard.substring(slash + 1));
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard " + index + " isn't one of 0.." + (count - 1));
+        }
+        BitSet shards = new BitSet(count);
+        shards.set(index);
+        return new ShardSelector(count, shards);
+    }
+
+    public static int shardOf(String projectName, int shardCount) {
+        int shard = projectName.hashCode() % shardCount;
+        return shard < 0 ? shard + shardCount : shard;
+    }
+
+    public boolean accept(String projectName) {
+        return shards.get(shardOf(projectName, shardCount));
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return the only shard selected, as a worker has
+     */
+    public int getShard() {
+        if (shards.cardinality() != 1) {
+            throw new IllegalStateException(shards.cardinality() + " shards are selected");
+        }
+        return shards.nextSetBit(0);
+    }
+
+    @Override
+    public String toString() {
+        return "shards " + shards + " of " + shardCount;
+    }
+}
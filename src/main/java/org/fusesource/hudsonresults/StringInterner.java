@@ -16,6 +16,24 @@
  */
 package org.fusesource.hudsonresults;
 
-public enum PLATFORM {
-	ubuntu, windows, aix7, Solaris, rhel, rhel_oracle
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares one instance of each suite, class and test name across every report we read, without
+ * filling the JVM's string table.
+ *
+ * @author kearls
+ */
+public class StringInterner {
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+    public String intern(String value) {
+        String existing = strings.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    public int size() {
+        return strings.size();
+    }
 }
@@ -19,7 +19,6 @@ package org.fusesource.hudsonresults;
 import generated.hudson.build.ActionsType;
 import generated.hudson.build.HudsonTasksJunitTestResultActionType;
 import generated.hudson.build.MatrixRunType;
-import org.apache.commons.io.FileUtils;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -28,16 +27,34 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.transform.stream.StreamSource;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Create a summary of result of the Platform builds on Hudson in a single html page
@@ -46,32 +63,194 @@ import java.util.Map;
  *
  */
 public class SummarizeBuildResults {
-    private static final String passedTdOpenTag = "<td style=\"background-color: #2E8B57;\">";
-    private static final String failedTestsTdOpenTag = "<td style=\"background-color: #ffd700;\">";
-    private static final String failedBuildTdOpenTag =  "<td style=\"background-color: #dc143c;\">";
-    private static final String tdCloseTag = "</td>";
     public static final String NEW_LINE = "\n";
     private static String hudsonJobsRootName ="/mnt/hudson/jobs";
 
     // RE to select which test directories we want results from.
-    private static final String ACCEPT_STRING_RH_6_1 = ".*6[-\\.]1.*platform";
+    static final String ACCEPT_STRING_RH_6_1 = ".*6[-\\.]1.*platform";
 
     // Root of URL to link back to test results
-    private static final String REPORT_URL_ROOT="http://ci.fusesource.com/hudson/job/";
+    static final String REPORT_URL_ROOT="http://ci.fusesource.com/hudson/job/";
+
+    private ParserMode parserMode = ParserMode.stax;
+    // Everything read from the jobs directory goes through this
+    private FileSystemAccess fileSystemAccess = FileSystemAccess.direct();
+    private BuildFileExtractor extractor = new BuildFileExtractor(fileSystemAccess);
+    private LatestBuildResolver latestBuildResolver = new LatestBuildResolver(fileSystemAccess);
+    // Configurations the last scan couldn't read in time
+    private final UnreachableConfigurations unreachable = new UnreachableConfigurations();
+
+    // Workers for each stage of the scan, and the size of the queues between them
+    private int discoveryWorkers = 2;
+    private int resolveWorkers = 8;
+    private int parseWorkers = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 256;
+
+    private ResultCache resultCache = null;
+
+    // Number of builds of each configuration to read in history mode, 0 for just the latest
+    private int historySize = 0;
+
+    private String caption = "JBoss Fuse 6.1 Platform Test Results";
+
+    // Reads results over HTTP instead of from the jobs directory when set
+    private RemoteBuildSource remoteSource = null;
+
+    // Collects failed test cases from the latest builds when set
+    private TestFailureAggregator testFailureAggregator = null;
+    // Finds why the latest build of a configuration failed from its log when set
+    private FailureClassifier failureClassifier = null;
+
+    // Indexes the failed tests of every build read when set
+    private FailureIndex failureIndex = null;
+    private ResultChanges resultChanges = null;     // changes since the last run, highlighted in the summary
+    private Map<BuildResult, Integer> slowBuilds = null;    // flagged as slower than most of their configuration's builds
+    private int slowPercentile;
+
+    // Only projects in these shards are scanned when set, see --shard
+    private ShardSelector shardSelector = null;
+
+    // jdk and platform values found by the scan
+    private final AxisRegistry axisRegistry = new AxisRegistry();
 
     /**
-     *
+     * Only created when the JAXB parser is used, the JAXBContext is expensive to build.  The context
+     * is thread safe but Unmarshallers are not, so each scan thread gets its own.
      */
-    private static Unmarshaller unmarshaller = null;
-	static {
-		try {
-			JAXBContext jaxbContext = JAXBContext.newInstance(MatrixRunType.class);
-			unmarshaller = jaxbContext.createUnmarshaller();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-	}
-	
+    private static class JaxbHolder {
+        private static JAXBContext jaxbContext = null;
+        static {
+            try {
+                jaxbContext = JAXBContext.newInstance(MatrixRunType.class);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        private static final ThreadLocal<Unmarshaller> unmarshaller = new ThreadLocal<Unmarshaller>() {
+            @Override
+            protected Unmarshaller initialValue() {
+                try {
+                    return jaxbContext.createUnmarshaller();
+                } catch (JAXBException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param fileSystemAccess used for everything read from the jobs directory
+     */
+    public void setFileSystemAccess(FileSystemAccess fileSystemAccess) {
+        this.fileSystemAccess = fileSystemAccess;
+        this.extractor = new BuildFileExtractor(fileSystemAccess);
+        this.latestBuildResolver = new LatestBuildResolver(fileSystemAccess);
+    }
+
+    public FileSystemAccess getFileSystemAccess() {
+        return fileSystemAccess;
+    }
+
+    public UnreachableConfigurations getUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * @param shardSelector the shards whose projects are scanned, or null for all projects
+     */
+    public void setShardSelector(ShardSelector shardSelector) {
+        this.shardSelector = shardSelector;
+    }
+
+    /**
+     * @param failureClassifier reads the log of each failed latest build, or null to skip reading them
+     */
+    public void setFailureClassifier(FailureClassifier failureClassifier) {
+        this.failureClassifier = failureClassifier;
+    }
+
+    /**
+     * @param failureIndex given the failed tests of every build read, or null to skip indexing them
+     */
+    public void setFailureIndex(FailureIndex failureIndex) {
+        this.failureIndex = failureIndex;
+    }
+
+    /**
+     * Commit the builds indexed since the last commit, if there is a failure index
+     */
+    void commitFailureIndex() throws IOException {
+        if (failureIndex != null) {
+            int committed = failureIndex.commit();
+            if (committed > 0) {
+                System.out.println("Indexed the failed tests of " + committed + " builds");
+            }
+        }
+    }
+
+    /**
+     * @param slowBuilds builds to flag as slow, with the duration they exceeded, see {@link DurationSketches}
+     * @param percentile the percentile of earlier builds they exceeded
+     */
+    public void setSlowBuilds(Map<BuildResult, Integer> slowBuilds, int percentile) {
+        this.slowBuilds = slowBuilds;
+        this.slowPercentile = percentile;
+    }
+
+    public void setResultChanges(ResultChanges resultChanges) {
+        this.resultChanges = resultChanges;
+    }
+
+    public AxisRegistry getAxisRegistry() {
+        return axisRegistry;
+    }
+
+    public void setParserMode(ParserMode parserMode) {
+        this.parserMode = parserMode;
+    }
+
+    /**
+     * @param resultCache cache of previously read build.xml files, or null to always read them
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @param remoteSource where to read results from instead of the jobs directory, or null to read the jobs directory
+     */
+    public void setRemoteSource(RemoteBuildSource remoteSource) {
+        this.remoteSource = remoteSource;
+    }
+
+    /**
+     * @param testFailureAggregator given the failed tests of the latest build of each configuration, or null to skip reading them
+     */
+    public void setTestFailureAggregator(TestFailureAggregator testFailureAggregator) {
+        this.testFailureAggregator = testFailureAggregator;
+    }
+
+    /**
+     * @param historySize number of builds of each configuration to read, 0 or 1 to read only the latest
+     */
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
+    /**
+     * @param discoveryWorkers threads looking for configuration directories
+     * @param resolveWorkers threads finding the latest build of each configuration
+     * @param parseWorkers threads reading build.xml files
+     * @param queueCapacity size of the queues between the stages
+     */
+    public void setScanWorkers(int discoveryWorkers, int resolveWorkers, int parseWorkers, int queueCapacity) {
+        this.discoveryWorkers = discoveryWorkers;
+        this.resolveWorkers = resolveWorkers;
+        this.parseWorkers = parseWorkers;
+        this.queueCapacity = queueCapacity;
+    }
+
 	/**
 	 * Use JAXB to create a MatrixRunType object from the file
 	 * 
@@ -79,63 +258,215 @@ public class SummarizeBuildResults {
      * @return JAXB representation of the test result
 	 * @throws JAXBException
 	 */
-	private MatrixRunType getTestSuiteFromFile(String buildFileName) throws JAXBException {
+	private MatrixRunType getTestSuiteFromFile(String buildFileName) throws JAXBException, IOException {
 		File buildResultsFile = new File(buildFileName);
-		StreamSource source = new StreamSource(buildResultsFile);
-		JAXBElement<MatrixRunType> root = unmarshaller.unmarshal(source, MatrixRunType.class); 
-		return root.getValue(); 
+        try (InputStream in = fileSystemAccess.open(buildResultsFile.toPath())) {
+		    StreamSource source = new StreamSource(in, buildResultsFile.toURI().toString());
+		    JAXBElement<MatrixRunType> root = JaxbHolder.unmarshaller.get().unmarshal(source, MatrixRunType.class);
+		    return root.getValue();
+        }
 	}
 
+    /**
+     * @param buildsDirectory a configuration's builds/ directory
+     * @return the latest build directory followed, in history mode, by the ones before it, or null if there are no builds
+     */
+    File[] getBuildDirectories(File buildsDirectory) throws IOException {
+        File latest = getLatestBuildDirectory(buildsDirectory);
+        if (latest == null) {
+            return null;
+        }
+        if (historySize <= 1) {
+            return new File[] { latest };
+        }
+        List<File> builds = new ArrayList<>(historySize);
+        builds.add(latest);
+        for (File recent : latestBuildResolver.getRecentBuildDirectories(buildsDirectory, historySize)) {
+            if (builds.size() == historySize) {
+                break;
+            }
+            if (recent.getName().compareTo(latest.getName()) < 0) {
+                builds.add(recent);
+            }
+        }
+        return builds.toArray(new File[builds.size()]);
+    }
 
-	/**
-	 * Return the latest build in a given build directory
-	 * 
-	 * @param targetDirectory Something like: cxf-2.6.0.fuse-7-1-x-stable-platform/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/
-	 * @return cxf-2.6.0.fuse-7-1-x-stable-platform/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/2012-11-02_21-09-35
-	 */
-    private File getLatestBuildDirectory(File targetDirectory) throws IOException {
-        if (targetDirectory != null && targetDirectory.listFiles() != null) {
-            List<File> fud = Arrays.asList(targetDirectory.listFiles());
-
-            // Remove symlinks, which are just numbered.  We want to be able to use the date.
-            List<File> contents = new ArrayList<>();
-            for (File f : fud) {
-                if (!FileUtils.isSymlink(f)) {
-                    contents.add(f);
+    /**
+     * Read the latest build of a configuration and, in history mode, the builds before it
+     *
+     * @param buildDirectories from {@link #getBuildDirectories(File)}, newest first
+     * @return the result of the latest build, with its history attached in history mode
+     */
+    BuildResult readBuildResults(File[] buildDirectories, String projectName, String jdk, String platform) throws Exception {
+        BuildResult latest = readBuildResult(buildDirectories[0], projectName, jdk, platform);
+        if (testFailureAggregator != null) {
+            testFailureAggregator.addBuild(projectName, jdk, platform, buildDirectories[0]);
+        }
+        if (failureIndex != null) {
+            failureIndex.addBuild(projectName, jdk, platform, latest.getBuildNumber(), latest.getStartTime(), buildDirectories[0]);
+        }
+        if (failureClassifier != null && (latest.getStatus() == BuildResult.Result.FAILURE || latest.getStatus() == BuildResult.Result.ABORTED)) {
+            classifyFailure(latest, buildDirectories[0]);
+        }
+        if (historySize > 1) {
+            BuildHistory history = new BuildHistory(historySize);
+            for (int i = buildDirectories.length - 1; i > 0; i--) {
+                try {
+                    BuildResult previous = readBuildResult(buildDirectories[i], projectName, jdk, platform);
+                    history.add(previous);
+                    if (failureIndex != null) {
+                        failureIndex.addBuild(projectName, jdk, platform, previous.getBuildNumber(), previous.getStartTime(), buildDirectories[i]);
+                    }
+                } catch (Exception e) {
+                    // Builds without a usable build.xml are left out of the history
+                    System.err.println("Skipping " + buildDirectories[i] + " in history: " + e);
                 }
             }
+            history.add(latest);
+            latest.setHistory(history);
+        }
+        return latest;
+    }
 
-            Collections.sort(contents, new BuildDirectoryComparator());
-            Collections.reverse(contents);
-
-            if (!contents.isEmpty()) {
-                File lastBuildDirectory = contents.get(0);
-                String latestBuildFileName = lastBuildDirectory.getAbsolutePath() + "/build.xml";
-                File lastBuildFile = new File(latestBuildFileName);
-                if (lastBuildFile.exists()) {
-                    return lastBuildDirectory;
-                } else if (contents.size() > 1) {
-                    System.out.println(">>>> Couldn't find [" + latestBuildFileName + "] using " + contents.get(2));
-                    return contents.get(1);
-                }
+    /**
+     * Find why a build failed from its log, unless the result cache already knows.  A log which can't be
+     * read leaves the build without a reason, and isn't cached, so it is tried again by the next scan.
+     */
+    private void classifyFailure(BuildResult buildResult, File buildDirectory) {
+        String reason = resultCache == null ? null : resultCache.getFailureReason(buildDirectory);
+        if (reason == null) {
+            long start = System.nanoTime();
+            try {
+                reason = failureClassifier.classify(buildDirectory);
+            } catch (IOException e) {
+                System.err.println("************ Exception " + e.getMessage() + " reading the log in " + buildDirectory.getAbsolutePath());
+                ScanMetrics.get().logUnreadable();
+                return;
+            }
+            ScanMetrics.get().logClassified(start);
+            if (resultCache != null) {
+                resultCache.setFailureReason(buildDirectory, reason == null ? "" : reason);
             }
         }
+        buildResult.setFailureReason(reason == null || reason.isEmpty() ? null : reason);
+    }
+
+    /**
+     * Read the result of a single build, from the result cache if its build.xml hasn't changed
+     *
+     * @param buildDirectory directory of the build, its name is the date time of the build
+     * @param projectName name of the project directory
+     * @return the result of the build
+     */
+    BuildResult readBuildResult(File buildDirectory, String projectName, String jdk, String platform) throws Exception {
+        if (resultCache == null) {
+            return parseBuildResult(buildDirectory, projectName, jdk, platform);
+        }
+
+        String buildDateTime = buildDirectory.getName();
+        long start = System.nanoTime();
+        BasicFileAttributes attributes;
+        try {
+            attributes = fileSystemAccess.readAttributes(new File(buildDirectory, "build.xml").toPath());
+        } catch (NoSuchFileException e) {
+            ScanMetrics.get().missingBuildFile();
+            throw e;
+        } finally {
+            ScanMetrics.get().fileChecked(start);
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        ResultCache.Entry cached = resultCache.get(buildDirectory, size, lastModified);
+        if (cached != null) {
+            ScanMetrics.get().cacheHit();
+            return new BuildResult(projectName, BuildResult.parseRunDate(buildDateTime), jdk, platform, cached.result, cached.testsRun, cached.failedTests, cached.duration, cached.number);
+        }
+
+        BuildResult buildResult = parseBuildResult(buildDirectory, projectName, jdk, platform);
+        resultCache.put(buildDirectory, size, lastModified, buildResult);
+        return buildResult;
+    }
+
+    /**
+     * Read the result of a single build from its build.xml, using whichever parser has been selected
+     */
+    private BuildResult parseBuildResult(File buildDirectory, String projectName, String jdk, String platform) throws Exception {
+        ScanMetrics metrics = ScanMetrics.get();
+        long start = System.nanoTime();
+        try {
+            BuildResult buildResult = parseBuildFile(buildDirectory, projectName, jdk, platform);
+            metrics.buildFileParsed(start);
+            return buildResult;
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            metrics.missingBuildFile();
+            throw e;
+        } catch (FileSystemAccess.UnreachableException e) {
+            throw e;
+        } catch (Exception e) {
+            metrics.parseFailed(e);
+            throw e;
+        } finally {
+            metrics.phase(ScanMetrics.PARSE, start);
+        }
+    }
+
+    private BuildResult parseBuildFile(File buildDirectory, String projectName, String jdk, String platform) throws Exception {
+        String buildDateTime = buildDirectory.getName(); 	// directory name of the build is date time in the format 2012-11-02_21-09-35
+        String latestBuildFileName = buildDirectory.getAbsolutePath() + "/build.xml";
+        if (parserMode == ParserMode.stax) {
+            return extractor.extract(new File(latestBuildFileName), projectName, buildDateTime, jdk, platform);
+        }
 
-        return null;
+        MatrixRunType mrt = getTestSuiteFromFile(latestBuildFileName);  // Gets FileNotFoundException...can we get second oldest here?
+        ActionsType actions = mrt.getActions();
+        HudsonTasksJunitTestResultActionType junitResults = actions.getHudsonTasksJunitTestResultAction();
+        if (junitResults != null) {
+            return new BuildResult(projectName,  buildDateTime, jdk, platform,
+                    mrt.getResult(), junitResults.getTotalCount(), junitResults.getFailCount(), mrt.getDuration(), mrt.getNumber());
+        } else {
+            return new BuildResult(projectName,  buildDateTime, jdk, platform, mrt.getResult(), 0, 0, 0, mrt.getNumber());
+        }
+    }
+
+
+	/**
+	 * Return the latest build in a given build directory, see {@link LatestBuildResolver}
+	 * 
+	 * @param targetDirectory Something like: cxf-2.6.0.fuse-7-1-x-stable-platform/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/
+	 * @return cxf-2.6.0.fuse-7-1-x-stable-platform/configurations/axis-jdk/jdk6/axis-label/ubuntu/builds/2012-11-02_21-09-35
+	 */
+    File getLatestBuildDirectory(File targetDirectory) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return latestBuildResolver.getLatestBuildDirectory(targetDirectory);
+        } finally {
+            ScanMetrics.get().latestBuildResolved(start);
+            ScanMetrics.get().phase(ScanMetrics.LATEST_BUILD, start);
+        }
     }
 
 
 	/**
 	 * Return a list of platform test result directories matching the directoryMatchExpression.
      * For example, to get all 6.1 platform results, use ".*6[-\\.]1.*platform"
+     * If a shard selector is set only the projects in its shards are returned.
 	 * 
 	 * @param hudsonJobsRoot the root of the Hudson jobs directory, i.e. /mnt/hudson/jobs
      * @param directoryMatchExpression regular expression for selecting target directories
 	 */
-	private List<File> getPlatformDirectories(File hudsonJobsRoot, String directoryMatchExpression) {
+	List<File> getPlatformDirectories(File hudsonJobsRoot, String directoryMatchExpression) throws IOException {
+        long start = System.nanoTime();
 		PlatformDirectoryFilter pdf = new PlatformDirectoryFilter(directoryMatchExpression);
-        File[] files = hudsonJobsRoot.listFiles(pdf);
-		List<File> directories = Arrays.asList(files);
+        List<File> directories = new ArrayList<>();
+        for (Path entry : fileSystemAccess.list(hudsonJobsRoot.toPath(), false)) {
+            File file = entry.toFile();
+            if (pdf.accept(file) && (shardSelector == null || shardSelector.accept(file.getName()))) {
+                directories.add(file);
+            }
+        }
+        ScanMetrics.get().directoryListed();
+        ScanMetrics.get().phase(ScanMetrics.PLATFORM_DIRECTORIES, start);
         Collections.sort(directories);
 		
 		return directories;
@@ -144,94 +475,117 @@ public class SummarizeBuildResults {
     /**
      * Write the report to a file.
      *
-     * @param writer FileWriter set to desired output file
-     *               @param allResults Map of the results from desired tests
-     * @throws JAXBException
+     * @param writer Writer set to desired output file, closed when the report has been written
+     * @param allResults Map of the results from desired tests, which is not modified
      * @throws IOException
      */
-    public void createHTMLSummary(FileWriter writer, Map<String, List<BuildResult>> allResults) throws JAXBException, IOException {
-        writer.write("<html>" + NEW_LINE);
-        writer.write("<body>" + NEW_LINE);
-        String style = "<style><!--\n" +
-                "table { border-collapse: collapse; font-family: Futura, Arial, sans-serif; } caption { font-size: larger; margin: 1em auto; } th, td { padding: .65em; } th, thead { background: #000; color: #fff; border: 1px solid #000; } td { border: 1px solid #777; }\n" +
-                "--></style>";
-        writer.write(style + NEW_LINE);
-        writer.write("<table border=\"1\">"  + NEW_LINE);
-        writer.write("<caption>JBoss Fuse 6.1 Platform Test Results as of " + new Date().toString() + "</caption>" + NEW_LINE);
-        printHtmlHeaders(writer);
-
-        // Write one row for each project
-        List<String> projectNames = new ArrayList<>(allResults.keySet());
-        Collections.sort(projectNames);
-        for (String projectName : projectNames) {
-            writer.write("    <tr>");
-            List<BuildResult> buildResults = allResults.get(projectName);
-            Collections.reverse(buildResults);
-            Collections.sort(buildResults, new BuildResultComparator());
-
-            writer.write("<td>" + projectName + "</td>");
-            for (PLATFORM platform : PLATFORM.values()) {
-                for (JDK jdk : JDK.values()) {
-                    for (BuildResult br: buildResults) {
-                        if (platform.equals(br.getPlatform()) && jdk.equals(br.getJdk()) && !(jdk.equals(JDK.jdk6) && platform.equals(PLATFORM.rhel))) {
-                            String linkToResultsPage = REPORT_URL_ROOT + projectName + "/" + br.getBuildNumber() + "/" + "jdk=" + jdk + ",label=" + platform + "/";
-
-                            String testResult = "<a href=\"" + linkToResultsPage + "\">" + br.getFailedTests() + "/" + br.getTestsRun() + "</a>"
-                                    + "<br/><small><small>(" + br.getFormattedDuration() + " " + br.getFormattedRunDate() + ")</small></small>";    // TODO do this with CSS
-                            if (br.getResult().equalsIgnoreCase("success")) {
-                                writer.write(passedTdOpenTag + testResult + tdCloseTag);
-                            } else if (br.getTestsRun().equals(0)) {
-                                writer.write(failedBuildTdOpenTag + testResult + tdCloseTag);
-                            } else {
-                                writer.write(failedTestsTdOpenTag + testResult + tdCloseTag);
-                            }
-                        }
-                    }
+    public void createHTMLSummary(Writer writer, Map<String, List<BuildResult>> allResults) throws IOException {
+        createHTMLSummary(writer, allResults, caption, axisRegistry);
+    }
+
+    /**
+     * @param registry the columns are its combinations, after adding those of the results
+     */
+    private void createHTMLSummary(Writer writer, Map<String, List<BuildResult>> allResults, String caption, AxisRegistry registry) throws IOException {
+        long start = System.nanoTime();
+        HtmlSummaryWriter summaryWriter = new HtmlSummaryWriter(caption);
+        summaryWriter.setChanges(resultChanges);
+        summaryWriter.setUnreachable(unreachable);
+        summaryWriter.setSlowBuilds(slowBuilds, slowPercentile);
+        summaryWriter.write(createResultGrid(allResults, registry), writer);
+        ScanMetrics.get().phase(ScanMetrics.RENDER, start);
+    }
+
+    /**
+     * Lay the results out as the summary table, with a column for every jdk/platform combination
+     * that has results, whether or not the scan discovered it
+     */
+    public ResultGrid createResultGrid(Map<String, List<BuildResult>> allResults) {
+        return createResultGrid(allResults, axisRegistry);
+    }
 
+    private ResultGrid createResultGrid(Map<String, List<BuildResult>> allResults, AxisRegistry registry) {
+        for (List<BuildResult> buildResults : allResults.values()) {
+            synchronized (buildResults) {
+                for (BuildResult br : buildResults) {
+                    registry.register(br.getJdk(), br.getPlatform());
                 }
             }
-            writer.write("</tr> " + NEW_LINE);
         }
-
-        writer.write("<table>" + NEW_LINE);
-        writer.write("<br/>" + NEW_LINE);
-        writer.write("<p>Red cells indicate build failures, yellow cells indicate builds with test failures, green cells indicate successful builds.  ");
-        writer.write("Cell results N/M show N test failures out of M tests run</p>" + NEW_LINE);
-        writer.write("<p></p>" + NEW_LINE);
-        writer.write("</body>" + NEW_LINE);
-        writer.write("</html>" + NEW_LINE);
-        writer.close();
+        return new ResultGrid(allResults, registry.getCombinations());
     }
 
     /**
      *
-     * @return A FileWriter set to wherever we want to write the report
+     * @param gzip compress the report
+     * @return A Writer set to wherever we want to write the report
      * @throws IOException
      */
-    private FileWriter getResultFileWriter() throws IOException {
+    private Writer getResultFileWriter(boolean gzip) throws IOException {
         File resultsDir = new File("results");
         resultsDir.mkdir();
         String resultsFileName = "results/results.html";
+        if (gzip) {
+            return new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(resultsFileName + ".gz"), 65536), StandardCharsets.UTF_8);
+        }
         return new FileWriter(resultsFileName);
     }
 
     /**
-     * Print the headers for the HTML summary
+     * Write the report to a temporary file next to the output file, then move it into place so
+     * readers never see a half written report.
+     *
+     * @param outputFile where the report should end up
+     * @param allResults Map of the results from desired tests
+     */
+    void writeSummaryAtomically(File outputFile, Map<String, List<BuildResult>> allResults) throws IOException {
+        writeSummaryAtomically(outputFile, allResults, caption, axisRegistry);
+    }
+
+    private void writeSummaryAtomically(File outputFile, final Map<String, List<BuildResult>> allResults, final String caption,
+                                        final AxisRegistry registry) throws IOException {
+        AtomicFiles.writeText(outputFile, Charset.defaultCharset(), new AtomicFiles.IOConsumer<Writer>() {
+            @Override
+            public void accept(Writer writer) throws IOException {
+                createHTMLSummary(writer, allResults, caption, registry);
+            }
+        });
+    }
+
+    /**
+     * Write each report from the results of one scan, rendering them in parallel.  Each project's
+     * results are on every report whose expression matches it, and each report only has the columns
+     * its own projects have results for.
+     *
+     * @param allResults results of a scan with {@link ReportDefinition#combinedExpression(List)}
      */
-    private void printHtmlHeaders(FileWriter writer) throws IOException {
-        // Print headers
-        writer.write("<thead>");
-        writer.write("<tr>");
-        writer.write("<td>Platform</td>");
-        for (PLATFORM platform : PLATFORM.values()) {
-            for (JDK jdk : JDK.values()) {
-                if (!(jdk.equals(JDK.jdk6) && platform.equals(PLATFORM.rhel))) {
-                    writer.write("<td>" + platform + " " + jdk + "</td>");
+    void writeReports(List<ReportDefinition> reports, final Map<String, List<BuildResult>> allResults) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(reports.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            Map<ReportDefinition, Future<?>> futures = new LinkedHashMap<>();
+            for (final ReportDefinition report : reports) {
+                futures.put(report, executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        writeSummaryAtomically(report.getOutputFile(), report.select(allResults), report.getCaption(), new AxisRegistry());
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<ReportDefinition, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                    System.out.println("Wrote " + future.getKey());
+                } catch (ExecutionException e) {
+                    System.err.println("************ Exception " + e.getCause().getMessage() + " writing " + future.getKey());
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing reports");
+        } finally {
+            executor.shutdownNow();
         }
-        writer.write("</tr>");
-        writer.write("</thead>" + NEW_LINE);
     }
 
     /**
@@ -239,47 +593,161 @@ public class SummarizeBuildResults {
      * @param directoryMatchExpression regular expression to select only tests we want
      * Map of all test results
      */
-    private Map<String, List<BuildResult>> getAllResults(File hudsonJobsRoot, String directoryMatchExpression) throws IOException{
-        Map<String, List<BuildResult>> allResults = new HashMap<>();
+    Map<String, List<BuildResult>> getAllResults(File hudsonJobsRoot, String directoryMatchExpression) throws IOException{
+        long start = System.nanoTime();
+        if (remoteSource != null) {
+            try {
+                return remoteSource.getAllResults(directoryMatchExpression, resolveWorkers);
+            } finally {
+                ScanMetrics.get().phase(ScanMetrics.SCAN, start);
+            }
+        }
+        unreachable.clear();
         List<File>platformDirectories = getPlatformDirectories(hudsonJobsRoot, directoryMatchExpression);
-        for (File platformDirectory : platformDirectories) {
-            for (PLATFORM platform : PLATFORM.values()) {
-                for (JDK jdk : JDK.values()) {
-                    String targetDirectoryName = platformDirectory.getAbsolutePath() + "/configurations/axis-jdk/" + jdk + "/axis-label/" + platform + "/builds/";
-                    File latestBuildDirectory = getLatestBuildDirectory(new File(targetDirectoryName));
-                    if (latestBuildDirectory != null) {
-                        try {
-                            String buildDateTime = latestBuildDirectory.getName(); 	// directory name of the build is date time in the format 2012-11-02_21-09-35
-                            String latestBuildFileName = latestBuildDirectory.getAbsolutePath() + "/build.xml";
-                            MatrixRunType mrt = getTestSuiteFromFile(latestBuildFileName);  // Gets FileNotFoundException...can we get second oldest here?
-                            ActionsType actions = mrt.getActions();
-                            HudsonTasksJunitTestResultActionType junitResults = actions.getHudsonTasksJunitTestResultAction();
-
-                            BuildResult buildResult;
-                            if (junitResults != null) {
-                                buildResult = new BuildResult(platformDirectory.getName(),  buildDateTime, jdk, platform,
-                                        mrt.getResult(), junitResults.getTotalCount(), junitResults.getFailCount(), mrt.getDuration(), mrt.getNumber());
-                            } else {
-                                buildResult = new BuildResult(platformDirectory.getName(),  buildDateTime, jdk, platform, mrt.getResult(), 0, 0, 0, mrt.getNumber());
-                            }
-                            // TODO need to store by platformDirectory.getName() (which is projectname) jdk, platform
-                            List<BuildResult> platformResults = allResults.get(platformDirectory.getName());
-                            if (platformResults == null) {
-                                platformResults = new ArrayList<>();
-                                allResults.put(platformDirectory.getName(), platformResults);
-                            }
-                            platformResults.add(buildResult);
-                        } catch(Exception e) {
-                            e.printStackTrace();
-                            System.err.println("************ Exception " + e.getMessage() + " on " + latestBuildDirectory.getAbsolutePath());
-                        }
-
+        ScanPipeline pipeline = new ScanPipeline(this, discoveryWorkers, resolveWorkers, parseWorkers, queueCapacity);
+        try {
+            Map<String, List<BuildResult>> allResults = pipeline.run(platformDirectories);
+            if (!unreachable.isEmpty()) {
+                System.err.println(unreachable.size() + " projects or configurations couldn't be read in time and are shown as stale");
+                for (String project : unreachable.getProjects()) {
+                    if (!allResults.containsKey(project)) {
+                        allResults.put(project, Collections.synchronizedList(new ArrayList<BuildResult>()));    // a row of stale cells
+                    }
+                }
+                for (String project : unreachable.getConfigurations().keySet()) {
+                    if (!allResults.containsKey(project)) {
+                        allResults.put(project, Collections.synchronizedList(new ArrayList<BuildResult>()));    // none of it could be read
                     }
                 }
+            }
+            commitFailureIndex();
+            return allResults;
+        } finally {
+            ScanMetrics.get().phase(ScanMetrics.SCAN, start);
+        }
+    }
+
+
+    /**
+     * Write the exports asked for with --jsonl[=FILE] and --csv[=FILE], by default results/results.jsonl and results/results.csv
+     */
+    static void export(Map<String, String> options, Map<String, List<BuildResult>> allResults) throws IOException {
+        for (ResultExporter.Format format : ResultExporter.Format.values()) {
+            String option = options.get(format.name());
+            if (option != null) {
+                File file = new File("true".equals(option) ? "results/results." + format.name() : option);
+                long rows = new ResultExporter(format).export(allResults, file);
+                System.out.println("Exported " + rows + " rows to " + file);
+            }
+        }
+    }
+
+    /**
+     * Answer --first-failure=TEST and --failing-cells=TEST, where TEST is the class name and test name,
+     * i.e. org.apache.camel.FooTest.testBar
+     *
+     * @param directory the index, the indexes of the shards of a sharded scan are next to it and are read too
+     */
+    static void queryFailureIndex(File directory, Map<String, String> options) throws IOException {
+        long start = System.nanoTime();
+        List<FailureIndex> indexes = new ArrayList<>();
+        indexes.add(new FailureIndex(directory));
+        final Pattern shardIndex = Pattern.compile(Pattern.quote(directory.getName()) + "-\\d+-of-\\d+");
+        File[] shardDirectories = directory.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && shardIndex.matcher(file.getName()).matches();
+            }
+        });
+        if (shardDirectories != null) {
+            Arrays.sort(shardDirectories);
+            for (File shardDirectory : shardDirectories) {
+                indexes.add(new FailureIndex(shardDirectory));
+            }
+        }
+        int segments = 0;
+        int cells = 0;
+        for (FailureIndex index : indexes) {
+            segments += index.getSegmentCount();
+            cells += index.getCellCount();
+        }
+
+        String test = options.get("first-failure");
+        if (test != null) {
+            FailureIndex.CellFailures first = FailureIndex.getFirstFailure(indexes, test);
+            if (first == null) {
+                System.out.println(test + " hasn't failed in any build indexed");
+            } else {
+                System.out.println(test + " first failed in build " + first.getFirstFailure() + " of " + first.getProject() + " "
+                        + first.getJdk() + " " + first.getPlatform() + " at " + new Date(first.getFirstFailureTime()));
+            }
+        }
+        test = options.get("failing-cells");
+        if (test != null) {
+            List<FailureIndex.CellFailures> failing = FailureIndex.getFailingCells(indexes, test);
+            System.out.println(test + " is failing in " + failing.size() + " configurations");
+            for (FailureIndex.CellFailures cell : failing) {
+                System.out.println("  " + cell.getProject() + " " + cell.getJdk() + " " + cell.getPlatform() + " since build "
+                        + cell.getStreakStart() + " at " + new Date(cell.getStreakStartTime()) + ", failed in "
+                        + cell.getFailedBuilds().length + " builds indexed");
+            }
+        }
+        System.out.println("Answered from " + segments + " segments of " + indexes.size() + " indexes covering " + cells
+                + " configurations in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
 
+    static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Append the link to a build's test report on Hudson.  Nothing is escaped, callers do that for wherever the URL goes.
+     *
+     * @return sb
+     */
+    static StringBuilder appendReportUrl(StringBuilder sb, String projectName, int buildNumber, String jdk, String platform) {
+        return sb.append(REPORT_URL_ROOT).append(projectName).append('/').append(buildNumber)
+                .append("/jdk=").append(jdk).append(",label=").append(platform).append('/');
+    }
+
+    /**
+     * Options look like --name=value, or --name which is the same as --name=true, anything else is positional
+     *
+     * @param positional filled with the arguments which aren't options
+     * @return options by name
+     */
+    static Map<String, String> parseOptions(String[] args, List<String> positional) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                if (equals > 0) {
+                    options.put(arg.substring(2, equals), arg.substring(equals + 1));
+                } else {
+                    options.put(arg.substring(2), "true");
+                }
+            } else {
+                positional.add(arg);
             }
         }
-        return allResults;
+        return options;
+    }
+
+    /**
+     * Apply the options which control how the scan is done: --parser, --history and the thread and queue sizes
+     */
+    void configure(Map<String, String> options) {
+        setParserMode(options.containsKey("parser") ? ParserMode.valueOf(options.get("parser")) : ParserMode.stax);
+        setHistorySize(intOption(options, "history", 0));
+        setScanWorkers(intOption(options, "discovery-threads", discoveryWorkers),
+                intOption(options, "resolve-threads", resolveWorkers),
+                intOption(options, "parse-threads", parseWorkers),
+                intOption(options, "queue-size", queueCapacity));
+        FileSystemAccess access = new FileSystemAccess(intOption(options, "io-metadata-ops", 32), intOption(options, "io-reads", 8),
+                intOption(options, "io-deadline", 60) * 1000L, intOption(options, "missing-ttl", 3600) * 1000L);
+        access.setInjectedLatency(intOption(options, "io-latency-ms", 0));
+        setFileSystemAccess(access);
     }
 
 
@@ -291,21 +759,200 @@ public class SummarizeBuildResults {
         hudsonJobsRootName="/mnt/hudson/jobs";
         String directoryMatchExpression = ACCEPT_STRING_RH_6_1;
 
-		if (args.length > 0) {
-            hudsonJobsRootName = args[0];
-            if (args.length > 1) {
-                directoryMatchExpression = args[1];
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = parseOptions(args, positional);
+
+		if (positional.size() > 0) {
+            hudsonJobsRootName = positional.get(0);
+            if (positional.size() > 1) {
+                directoryMatchExpression = positional.get(1);
 
             }
 		} 
 
-		System.out.println("Starting at " + hudsonJobsRootName + " matchings on [" + directoryMatchExpression + "]");
 		SummarizeBuildResults me = new SummarizeBuildResults();
+        me.configure(options);
+		System.out.println("Starting at " + hudsonJobsRootName + " matchings on [" + directoryMatchExpression + "] using " + me.parserMode);
 		File theRoot = new File(hudsonJobsRootName);
         File hudsonJobsRoot = new File(hudsonJobsRootName);
-        FileWriter writer = me.getResultFileWriter();
-        Map<String, List<BuildResult>> allResults = me.getAllResults(hudsonJobsRoot, directoryMatchExpression);
-        me.createHTMLSummary(writer, allResults);
+        // A worker of a sharded scan only scans the projects of its shard, and keeps its own cache
+        ShardSelector shardSelector = options.containsKey("shard") ? ShardSelector.parse(options.get("shard")) : null;
+        String shardSuffix = shardSelector == null ? "" : "-" + shardSelector.getShard() + "-of-" + shardSelector.getShardCount();
+        if (shardSelector != null && (options.containsKey("remote") || options.containsKey("serve") || options.containsKey("watch"))) {
+            System.err.println("--shard can't be used with --remote, --serve or --watch");
+            System.exit(1);
+        }
+        File missingPaths = new File("results/missing-paths" + shardSuffix + ".txt");
+        me.getFileSystemAccess().loadMissing(missingPaths);
+        ResultCache resultCache = null;
+        if (!options.containsKey("no-cache")) {
+            resultCache = new ResultCache(new File(options.containsKey("cache") ? options.get("cache") : "results/build-cache" + shardSuffix + ".bin"),
+                    me.getFileSystemAccess());
+            resultCache.load();
+            me.setResultCache(resultCache);
+        }
+
+        // Index the failed tests of every build read, and answer questions about a test from the index
+        File failureIndexDirectory = new File(options.containsKey("index-failures") && !"true".equals(options.get("index-failures"))
+                ? options.get("index-failures") : "results/failure-index");
+        if (options.containsKey("first-failure") || options.containsKey("failing-cells")) {
+            queryFailureIndex(failureIndexDirectory, options);
+            return;
+        }
+        if (options.containsKey("index-failures")) {
+            me.setFailureIndex(new FailureIndex(new File(failureIndexDirectory.getPath() + shardSuffix), me.getFileSystemAccess()));
+        }
+
+        // Read the end of each failed build's log to say why it failed
+        if (options.containsKey("classify-failures") || options.containsKey("failure-signatures")) {
+            List<FailureClassifier.Signature> signatures = options.containsKey("failure-signatures")
+                    ? FailureClassifier.load(new File(options.get("failure-signatures"))) : FailureClassifier.defaultSignatures();
+            me.setFailureClassifier(new FailureClassifier(signatures, intOption(options, "log-budget", 512) * 1024L, me.getFileSystemAccess()));
+        }
+
+        if (options.containsKey("remote")) {
+            // Read from the master's JSON API instead of the jobs directory
+            String baseUrl = "true".equals(options.get("remote")) ? REPORT_URL_ROOT.substring(0, REPORT_URL_ROOT.length() - "job/".length())
+                    : options.get("remote");
+            RemoteBuildSource remoteSource = new RemoteBuildSource(baseUrl, me, intOption(options, "connections", 4));
+            remoteSource.setTimeouts(intOption(options, "connect-timeout", 10) * 1000, intOption(options, "timeout", 30) * 1000);
+            remoteSource.setRetries(intOption(options, "retries", 3));
+            remoteSource.setHistorySize(me.historySize);
+            me.setRemoteSource(remoteSource);
+            if (options.containsKey("watch")) {
+                System.err.println("--watch needs the jobs directory, use --serve to keep a remote summary up to date");
+                System.exit(1);
+            }
+        }
+
+        if (options.containsKey("serve")) {
+            // Serve the summary from memory, rescanning in the background, rather than writing results.html
+            int port = "true".equals(options.get("serve")) ? 8080 : Integer.parseInt(options.get("serve"));
+            SummaryServer server = new SummaryServer(me, hudsonJobsRoot, directoryMatchExpression, resultCache, new File("results"));
+            server.start(port, intOption(options, "refresh", 300));
+            return;
+        }
+
+        if (options.containsKey("watch")) {
+            // Keep running, rewriting the summary as builds finish
+            ResultWatcher watcher = new ResultWatcher(me, hudsonJobsRoot, directoryMatchExpression, new File("results/results.html"), resultCache,
+                    intOption(options, "debounce", 5000), intOption(options, "poll-interval", 60) * 1000L, options.containsKey("poll"));
+            try {
+                watcher.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        // Every build seen can be kept in a local store, and the summary produced from it without a scan
+        File storeDirectory = null;
+        if (options.containsKey("store")) {
+            storeDirectory = new File("true".equals(options.get("store")) ? "results/store" : options.get("store"));
+        }
+        if (options.containsKey("from-store")) {
+            if (storeDirectory == null) {
+                storeDirectory = new File("results/store");
+            }
+            try (BuildRecordStore store = new BuildRecordStore(storeDirectory)) {
+                Map<String, List<BuildResult>> allResults = store.latestResults(
+                        new BuildRecordStore.Query().project(Pattern.compile(directoryMatchExpression)));
+                me.createHTMLSummary(me.getResultFileWriter(options.containsKey("gzip")), allResults);
+                export(options, allResults);
+            }
+            return;
+        }
+
+        // Several reports can share one scan, each written from the results of its own projects
+        List<ReportDefinition> reports = null;
+        if (options.containsKey("reports")) {
+            reports = ReportDefinition.load(new File(options.get("reports")));
+            directoryMatchExpression = ReportDefinition.combinedExpression(reports);
+            System.out.println("Scanning once for " + reports.size() + " reports matching [" + directoryMatchExpression + "]");
+        }
+
+        File shardDirectory = new File(options.containsKey("shard-dir") ? options.get("shard-dir") : "results/shards");
+        if (shardSelector != null) {
+            // Leave this shard's results for the coordinator, which writes the summary
+            me.setShardSelector(shardSelector);
+            Map<String, List<BuildResult>> allResults = me.getAllResults(hudsonJobsRoot, directoryMatchExpression);
+            if (resultCache != null) {
+                resultCache.save();
+            }
+            me.getFileSystemAccess().saveMissing(missingPaths);
+            File shardFile = ShardResults.file(shardDirectory, shardSelector.getShard(), shardSelector.getShardCount());
+            new ShardResults(shardSelector.getShard(), shardSelector.getShardCount(), directoryMatchExpression, System.currentTimeMillis(),
+                    allResults, me.getUnreachable()).write(shardFile);
+            System.out.println("Wrote " + allResults.size() + " projects to " + shardFile);
+            new MetricsWriter(ScanMetrics.get()).write(new File("results/shard" + shardSuffix));
+            return;
+        }
+
+        TestFailureAggregator testFailureAggregator = null;
+        if (options.containsKey("test-failures")) {
+            testFailureAggregator = new TestFailureAggregator(me.getFileSystemAccess());
+            me.setTestFailureAggregator(testFailureAggregator);
+        }
+
+        Writer writer = reports == null ? me.getResultFileWriter(options.containsKey("gzip")) : null;
+        Map<String, List<BuildResult>> allResults;
+        if (options.containsKey("merge-shards")) {
+            // Merge the results the workers of a sharded scan left, instead of scanning
+            ShardCoordinator coordinator = new ShardCoordinator(shardDirectory, Integer.parseInt(options.get("merge-shards")),
+                    directoryMatchExpression);
+            coordinator.setMaxAge(intOption(options, "shard-max-age", 12 * 60 * 60) * 1000L);
+            allResults = coordinator.merge(me, hudsonJobsRoot, intOption(options, "shard-wait", 0) * 1000L, options.containsKey("scan-missing"));
+        } else {
+            allResults = me.getAllResults(hudsonJobsRoot, directoryMatchExpression);
+        }
+        if (resultCache != null) {
+            resultCache.save();
+        }
+        me.getFileSystemAccess().saveMissing(missingPaths);
+        if (storeDirectory != null) {
+            try (BuildRecordStore store = new BuildRecordStore(storeDirectory)) {
+                int appended = store.append(allResults);
+                System.out.println("Added " + appended + " builds to " + storeDirectory + ", which now holds " + store.size());
+            }
+        }
+
+        // Compare with the snapshot the last run left, highlighting what changed, and leave one for the next run
+        File snapshotFile = null;
+        ResultSnapshot previousSnapshot = null;
+        if (!options.containsKey("no-snapshot")) {
+            snapshotFile = new File(options.containsKey("snapshot") ? options.get("snapshot") : "results/snapshot.bin");
+            previousSnapshot = ResultSnapshot.load(snapshotFile);
+            ResultChanges changes = ResultChanges.compute(previousSnapshot, allResults, me.getUnreachable());
+            me.setResultChanges(changes);
+            new ChangeReportWriter(me.caption).write(changes, new File("results"));
+            System.out.println("Changes since the last run: " + changes.getCounts());
+        }
+
+        // Keep a sketch of each configuration's durations and flag the latest builds which took longer than most before them
+        if (!options.containsKey("no-durations")) {
+            File durationsFile = new File(options.containsKey("durations") ? options.get("durations") : "results/durations.bin");
+            DurationSketches sketches = DurationSketches.load(durationsFile);
+            int percentile = intOption(options, "duration-percentile", 95);
+            Map<BuildResult, Integer> slowBuilds = sketches.update(allResults, percentile, intOption(options, "duration-min-builds", 10));
+            sketches.save(durationsFile);
+            me.setSlowBuilds(slowBuilds, percentile);
+            System.out.println(slowBuilds.size() + " builds took longer than " + percentile + "% of their configuration's earlier builds");
+        }
+
+        if (reports != null) {
+            me.writeReports(reports, allResults);
+        } else {
+            me.createHTMLSummary(writer, allResults);
+        }
+        if (snapshotFile != null) {
+            ResultSnapshot.of(allResults, previousSnapshot, me.getUnreachable()).save(snapshotFile);
+        }
+        export(options, allResults);
+        new MetricsWriter(ScanMetrics.get()).write(new File("results"));
+        if (testFailureAggregator != null) {
+            new TestFailureReportWriter(me.caption + " test failures", intOption(options, "top", 50))
+                    .write(testFailureAggregator, new FileWriter("results/failures.html"));
+        }
 	}
 }
 
@@ -317,56 +964,15 @@ public class SummarizeBuildResults {
  *
  */
 class PlatformDirectoryFilter implements FileFilter {
-    String matchRegularExpression = "";
+    private final Pattern pattern;      // compiled once, String.matches would compile it for every file
 
     public PlatformDirectoryFilter(String target) {
-        this.matchRegularExpression = target;
+        this.pattern = Pattern.compile(target);
     }
 
     @Override
 	public boolean accept(File pathname) {
 		String name = pathname.getName();
-        return name.matches(matchRegularExpression);
+        return pattern.matcher(name).matches();
 	}
 }
-
-
-/**
- * Comparator to help find the newest subdirectory in the builds directory
- * @author kearls
- *
- */
-class BuildDirectoryComparator implements Comparator<File> {
-    @Override
-	public int compare(File first, File second) {
-		if (first.lastModified() > second.lastModified()) {
-			return 1;
-		} else {
-			return -1;
-		}
-	}
-}
-
-
-/**
- * Comparator to sort a list of builds results on name, platform, and jdk
- * @author kearls
- *
- */
-class BuildResultComparator implements Comparator<BuildResult> {
-	@Override
-	public int compare(BuildResult b1, BuildResult b2) {
-		int nameValue = b1.getName().compareTo(b2.getName());
-		if (nameValue != 0) {
-			return nameValue;
-		} else {
-			int platformValue = b1.getPlatform().compareTo(b2.getPlatform());
-			if (platformValue != 0) {
-				return platformValue;
-			} else {
-				return b1.getJdk().compareTo(b2.getJdk());
-			}
-		}
-	}
-	
-}
\ No newline at end of file
@@ -0,0 +1,366 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the summary from memory using the JDK's HTTP server:
+ * <ul>
+ *     <li>/ or /results.html: the summary, gzipped if the client accepts it</li>
+ *     <li>/results.json?project=regex&amp;jdk=jdk6&amp;platform=ubuntu: the results, all parameters optional</li>
+ * </ul>
+ * Each refresh scans Hudson and swaps in a new immutable {@link Snapshot}, so requests never wait for a
+ * scan or see half of one.  Responses carry an ETag of the results, so polling dashboards mostly get a 304.
+ *
+ * @author kearls
+ */
+public class SummaryServer {
+    private static final String HTML_TYPE = "text/html; charset=UTF-8";
+    private static final String JSON_TYPE = "application/json; charset=UTF-8";
+
+    private final SummarizeBuildResults summarizer;
+    private final File hudsonJobsRoot;
+    private final String directoryMatchExpression;
+    private final ResultCache resultCache;
+    private final File metricsDirectory;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    private HttpServer server;
+    private ScheduledExecutorService refresher;
+    private ExecutorService handlers;
+
+    /**
+     * Everything a request needs, never changed once created
+     */
+    static class Snapshot {
+        final Map<String, List<BuildResult>> results;     // sorted by project, unmodifiable
+        final String etag;
+        final byte[] html;
+        final byte[] gzippedHtml;
+
+        Snapshot(Map<String, List<BuildResult>> results, String etag, byte[] html, byte[] gzippedHtml) {
+            this.results = results;
+            this.etag = etag;
+            this.html = html;
+            this.gzippedHtml = gzippedHtml;
+        }
+    }
+
+    /**
+     * @param resultCache saved after each refresh if not null
+     * @param metricsDirectory where the scan metrics are written after each refresh, or null
+     */
+    public SummaryServer(SummarizeBuildResults summarizer, File hudsonJobsRoot, String directoryMatchExpression, ResultCache resultCache,
+                         File metricsDirectory) {
+        this.summarizer = summarizer;
+        this.hudsonJobsRoot = hudsonJobsRoot;
+        this.directoryMatchExpression = directoryMatchExpression;
+        this.resultCache = resultCache;
+        this.metricsDirectory = metricsDirectory;
+    }
+
+    /**
+     * Scan once, then start serving and refreshing every refreshSeconds
+     */
+    public void start(int port, long refreshSeconds) throws IOException {
+        refresh();
+
+        handlers = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress(port), 64);
+        server.setExecutor(handlers);
+        server.createContext("/", new HtmlHandler());
+        server.createContext("/results.json", new JsonHandler());
+        server.start();
+        System.out.println("Serving the summary on port " + server.getAddress().getPort() + ", refreshing every " + refreshSeconds + " seconds");
+
+        refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    // Keep serving the last good snapshot
+                    e.printStackTrace();
+                    System.err.println("************ Exception " + e.getMessage() + " refreshing the summary");
+                }
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        if (server != null) {
+            server.stop(1);
+        }
+        if (handlers != null) {
+            handlers.shutdownNow();
+        }
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Scan Hudson and swap in a new snapshot
+     */
+    void refresh() throws IOException {
+        ScanMetrics.get().startRun();
+        Map<String, List<BuildResult>> scanned = summarizer.getAllResults(hudsonJobsRoot, directoryMatchExpression);
+        if (resultCache != null) {
+            resultCache.save();
+        }
+
+        Map<String, List<BuildResult>> results = new TreeMap<>();
+        for (Map.Entry<String, List<BuildResult>> entry : scanned.entrySet()) {
+            List<BuildResult> copy;
+            synchronized (entry.getValue()) {
+                copy = new ArrayList<>(entry.getValue());
+            }
+            // Scan threads add results in any order, keep the JSON and the ETag stable
+            Collections.sort(copy, BuildResult.COLUMN_ORDER);
+            results.put(entry.getKey(), Collections.unmodifiableList(copy));
+        }
+
+        StringWriter writer = new StringWriter(64 * 1024);
+        summarizer.createHTMLSummary(writer, results);
+        byte[] html = writer.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream(html.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(html);
+        }
+
+        snapshot.set(new Snapshot(Collections.unmodifiableMap(results), etag(results), html, gzipped.toByteArray()));
+        if (metricsDirectory != null) {
+            new MetricsWriter(ScanMetrics.get()).write(metricsDirectory);
+        }
+    }
+
+    /**
+     * The page also shows when it was rendered, so the tag is of the results rather than the bytes, which
+     * makes it a weak one: the same results give the same tag.  Everything the page and the JSON show of a
+     * cell is included, so a failure reason found by a later refresh, or a longer history, changes the tag.
+     */
+    static String etag(Map<String, List<BuildResult>> results) {
+        CRC32 crc = new CRC32();
+        StringBuilder sb = new StringBuilder(128);
+        for (Map.Entry<String, List<BuildResult>> entry : results.entrySet()) {
+            for (BuildResult br : entry.getValue()) {
+                sb.setLength(0);
+                sb.append(entry.getKey()).append('|').append(br.getJdk()).append('|').append(br.getPlatform()).append('|')
+                        .append(br.getBuildNumber()).append('|').append(br.getResult()).append('|').append(br.getTestsRun())
+                        .append('|').append(br.getFailedTests()).append('|').append(br.getStartTime()).append('|')
+                        .append(br.getDuration()).append('|').append(br.getFailureReason());
+                BuildHistory history = br.getHistory();
+                if (history != null) {
+                    sb.append('|').append(history.size()).append('|').append(history.getPassPercentage()).append('|')
+                            .append(history.getFlips()).append('|').append(history.getFailureStreak());
+                }
+                sb.append('\n');
+                crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return "W/\"" + Long.toHexString(crc.getValue()) + '-' + results.size() + '"';
+    }
+
+    private abstract class SnapshotHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                serve(exchange, snapshot.get());
+            } catch (Exception e) {
+                System.err.println("************ Exception " + e.getMessage() + " serving " + exchange.getRequestURI());
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void serve(HttpExchange exchange, Snapshot current) throws IOException;
+
+        /**
+         * @return true if a 304 was sent because the client already has this version
+         */
+        boolean notModified(HttpExchange exchange, String etag) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", "no-cache");
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.contains(etag.substring(2)) || ifNoneMatch.trim().equals("*"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return true;
+            }
+            return false;
+        }
+
+        void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            exchange.sendResponseHeaders(200, head ? -1 : body.length);
+            if (!head) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        }
+    }
+
+    private class HtmlHandler extends SnapshotHandler {
+        @Override
+        void serve(HttpExchange exchange, Snapshot current) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            if (!"/".equals(path) && !"/results.html".equals(path)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (notModified(exchange, current.etag)) {
+                return;
+            }
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, HTML_TYPE, current.gzippedHtml);
+            } else {
+                send(exchange, HTML_TYPE, current.html);
+            }
+        }
+    }
+
+    private class JsonHandler extends SnapshotHandler {
+        @Override
+        void serve(HttpExchange exchange, Snapshot current) throws IOException {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Pattern project;
+            try {
+                project = query.containsKey("project") ? Pattern.compile(query.get("project")) : null;
+            } catch (PatternSyntaxException e) {
+                send400(exchange, "Bad project expression: " + e.getDescription());
+                return;
+            }
+            String jdk = query.get("jdk");
+            String platform = query.get("platform");
+
+            // The same results filtered the same way give the same body
+            String etag = current.etag.substring(0, current.etag.length() - 1) + '-' + Integer.toHexString(query.hashCode()) + '"';
+            if (notModified(exchange, etag)) {
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder(16 * 1024);
+            sb.append('[');
+            String separator = "\n";
+            for (Map.Entry<String, List<BuildResult>> entry : current.results.entrySet()) {
+                if (project != null && !project.matcher(entry.getKey()).find()) {
+                    continue;
+                }
+                for (BuildResult br : entry.getValue()) {
+                    if ((jdk != null && !jdk.equals(br.getJdk())) || (platform != null && !platform.equals(br.getPlatform()))) {
+                        continue;
+                    }
+                    sb.append(separator);
+                    separator = ",\n";
+                    appendJson(sb, entry.getKey(), br);
+                }
+            }
+            sb.append("\n]\n");
+            send(exchange, JSON_TYPE, sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void send400(HttpExchange exchange, String message) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            byte[] body = message.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(400, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    static void appendJson(StringBuilder sb, String projectName, BuildResult br) {
+        sb.append("{\"project\":");
+        Json.quote(projectName, sb);
+        sb.append(",\"jdk\":");
+        Json.quote(br.getJdk(), sb);
+        sb.append(",\"platform\":");
+        Json.quote(br.getPlatform(), sb);
+        sb.append(",\"buildNumber\":").append(br.getBuildNumber());
+        sb.append(",\"result\":");
+        Json.quote(br.getResult(), sb);
+        sb.append(",\"testsRun\":").append(br.getTestsRun());
+        sb.append(",\"failedTests\":").append(br.getFailedTests());
+        sb.append(",\"duration\":").append(br.getDuration());
+        sb.append(",\"runDate\":");
+        Json.quote(br.getRunDate(), sb);
+        if (br.getFailureReason() != null) {
+            sb.append(",\"failureReason\":");
+            Json.quote(br.getFailureReason(), sb);
+        }
+        sb.append('}');
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+}
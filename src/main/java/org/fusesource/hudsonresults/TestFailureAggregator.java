@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Collects the failed and skipped test cases of every configuration scanned, so we can see which tests
+ * fail most and which only fail on one platform or jdk.  Only tests that didn't pass are kept, each with
+ * a bit set of the configurations (cells) it failed in.
+ *
+ * @author kearls
+ */
+public class TestFailureAggregator {
+    private final StringInterner interner = new StringInterner();
+    private final JunitResultScanner scanner;
+
+    // Cells are numbered in the order we first see them
+    private final List<String> cellProjects = new ArrayList<>();
+    private final List<JdkPlatformTuple> cellColumns = new ArrayList<>();
+    private final Map<String, Integer> cellIds = new HashMap<>();
+    // Cells of each project that had test results
+    private final Map<String, BitSet> projectCells = new HashMap<>();
+    private final Map<String, TestFailures> tests = new HashMap<>();
+
+    /**
+     * @param access the junitResult.xml files are read through it, with its permits and deadlines
+     */
+    public TestFailureAggregator(FileSystemAccess access) {
+        this.scanner = new JunitResultScanner(interner, access);
+    }
+
+    /**
+     * Where one test failed or was skipped
+     */
+    public static class TestFailures {
+        final String className;
+        final String testName;
+        final BitSet failedCells = new BitSet();
+        final BitSet skippedCells = new BitSet();
+
+        TestFailures(String className, String testName) {
+            this.className = className;
+            this.testName = testName;
+        }
+
+        public String getName() {
+            return className + "." + testName;
+        }
+
+        public int getFailedCount() {
+            return failedCells.cardinality();
+        }
+
+        public int getSkippedCount() {
+            return skippedCells.cardinality();
+        }
+    }
+
+    /**
+     * A failed or skipped case of one build, kept until its whole junitResult.xml has been read
+     */
+    private static class CaseResult {
+        final String className;
+        final String testName;
+        final boolean skipped;
+
+        CaseResult(String className, String testName, boolean skipped) {
+            this.className = className;
+            this.testName = testName;
+            this.skipped = skipped;
+        }
+    }
+
+    /**
+     * Read the junitResult.xml of a build, if it has one.  Nothing is added for a file which can't be read to the end.
+     */
+    public void addBuild(String project, String jdk, String platform, File buildDirectory) {
+        int cell = cellId(project, new JdkPlatformTuple(jdk, platform));
+        try {
+            final List<CaseResult> cases = new ArrayList<>();
+            boolean found = scanner.scan(buildDirectory, new JunitResultScanner.CaseVisitor() {
+                @Override
+                public void visit(String className, String testName, boolean skipped) {
+                    cases.add(new CaseResult(className, testName, skipped));
+                }
+            });
+            if (found) {
+                synchronized (this) {
+                    BitSet cells = projectCells.get(project);
+                    if (cells == null) {
+                        cells = new BitSet();
+                        projectCells.put(project, cells);
+                    }
+                    cells.set(cell);
+                    for (CaseResult result : cases) {
+                        add(cell, result.className, result.testName, result.skipped);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("************ Exception " + e.getMessage() + " reading test results in " + buildDirectory.getAbsolutePath());
+        }
+    }
+
+    private synchronized int cellId(String project, JdkPlatformTuple column) {
+        String key = project + "|" + column.getJdk() + "|" + column.getPlatform();
+        Integer id = cellIds.get(key);
+        if (id == null) {
+            id = cellProjects.size();
+            cellIds.put(key, id);
+            cellProjects.add(project);
+            cellColumns.add(column);
+        }
+        return id;
+    }
+
+    private synchronized void add(int cell, String className, String testName, boolean skipped) {
+        String key = interner.intern(className + "." + testName);
+        TestFailures failures = tests.get(key);
+        if (failures == null) {
+            failures = new TestFailures(className, testName);
+            tests.put(key, failures);
+        }
+        (skipped ? failures.skippedCells : failures.failedCells).set(cell);
+    }
+
+    /**
+     * @param limit maximum number of tests to return
+     * @return tests which failed in the most configurations, most first
+     */
+    public synchronized List<TestFailures> getTopFailingTests(int limit) {
+        List<TestFailures> failing = new ArrayList<>();
+        for (TestFailures failures : tests.values()) {
+            if (!failures.failedCells.isEmpty()) {
+                failing.add(failures);
+            }
+        }
+        Collections.sort(failing, new Comparator<TestFailures>() {
+            @Override
+            public int compare(TestFailures first, TestFailures second) {
+                int value = Integer.compare(second.getFailedCount(), first.getFailedCount());
+                return value != 0 ? value : first.getName().compareTo(second.getName());
+            }
+        });
+        return failing.size() > limit ? new ArrayList<>(failing.subList(0, limit)) : failing;
+    }
+
+    /**
+     * @return test name to description of where it fails, i.e. "aix7 jdk6", for tests whose failures are all
+     * on one platform and/or jdk while other configurations of the same projects ran tests
+     */
+    public synchronized Map<String, String> getPlatformSpecificFailures() {
+        Map<String, String> specific = new TreeMap<>();
+        for (TestFailures failures : tests.values()) {
+            BitSet failed = failures.failedCells;
+            if (failed.isEmpty()) {
+                continue;
+            }
+            String platform = null;
+            String jdk = null;
+            boolean samePlatform = true;
+            boolean sameJdk = true;
+            BitSet ran = new BitSet();
+            for (int cell = failed.nextSetBit(0); cell >= 0; cell = failed.nextSetBit(cell + 1)) {
+                JdkPlatformTuple column = cellColumns.get(cell);
+                samePlatform &= platform == null || platform.equals(column.getPlatform());
+                sameJdk &= jdk == null || jdk.equals(column.getJdk());
+                platform = column.getPlatform();
+                jdk = column.getJdk();
+                BitSet projectRan = projectCells.get(cellProjects.get(cell));
+                if (projectRan != null) {
+                    ran.or(projectRan);
+                }
+            }
+
+            // Only interesting if the same projects ran the tests somewhere else
+            boolean otherPlatformRan = false;
+            boolean otherJdkRan = false;
+            for (int cell = ran.nextSetBit(0); cell >= 0; cell = ran.nextSetBit(cell + 1)) {
+                JdkPlatformTuple column = cellColumns.get(cell);
+                otherPlatformRan |= !column.getPlatform().equals(platform);
+                otherJdkRan |= !column.getJdk().equals(jdk);
+            }
+
+            String where = null;
+            if (samePlatform && sameJdk && (otherPlatformRan || otherJdkRan)) {
+                where = platform + " " + jdk;
+            } else if (samePlatform && otherPlatformRan) {
+                where = platform;
+            } else if (sameJdk && otherJdkRan) {
+                where = jdk;
+            }
+            if (where != null) {
+                specific.put(failures.getName(), where);
+            }
+        }
+        return specific;
+    }
+
+    /**
+     * @return the projects a test failed in
+     */
+    public synchronized List<String> getProjects(TestFailures failures) {
+        TreeSet<String> projects = new TreeSet<>();
+        BitSet failed = failures.failedCells;
+        for (int cell = failed.nextSetBit(0); cell >= 0; cell = failed.nextSetBit(cell + 1)) {
+            projects.add(cellProjects.get(cell));
+        }
+        return new ArrayList<>(projects);
+    }
+
+    /**
+     * @return the configurations a test failed in, as "project platform jdk"
+     */
+    public synchronized List<String> getFailedCells(String testName) {
+        List<String> cells = new ArrayList<>();
+        TestFailures failures = tests.get(testName);
+        if (failures != null) {
+            BitSet failed = failures.failedCells;
+            for (int cell = failed.nextSetBit(0); cell >= 0; cell = failed.nextSetBit(cell + 1)) {
+                cells.add(cellProjects.get(cell) + " " + cellColumns.get(cell));
+            }
+        }
+        return cells;
+    }
+
+    public synchronized int getTestCount() {
+        return tests.size();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the tests that failed most, and the tests that only fail on one platform or jdk, as HTML.
+ *
+ * @author kearls
+ */
+public class TestFailureReportWriter {
+    private static final String NEW_LINE = SummarizeBuildResults.NEW_LINE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String caption;
+    private final int topCount;
+
+    /**
+     * @param caption caption of the report, the date is added to it
+     * @param topCount number of tests to show in the top failing tests table
+     */
+    public TestFailureReportWriter(String caption, int topCount) {
+        this.caption = caption;
+        this.topCount = topCount;
+    }
+
+    /**
+     * Write the report and close the writer
+     */
+    public void write(TestFailureAggregator aggregator, Writer target) throws IOException {
+        try (Writer writer = new BufferedWriter(target, BUFFER_SIZE)) {
+            writer.write("<html>" + NEW_LINE);
+            writer.write("<body>" + NEW_LINE);
+            writer.write("<h2>" + escape(caption) + " as of " + new Date() + "</h2>" + NEW_LINE);
+
+            List<TestFailureAggregator.TestFailures> top = aggregator.getTopFailingTests(topCount);
+            writer.write("<table border=\"1\">" + NEW_LINE);
+            writer.write("<caption>Top " + top.size() + " failing tests</caption>" + NEW_LINE);
+            writer.write("<thead><tr><td>Test</td><td>Failed</td><td>Skipped</td><td>Projects</td></tr></thead>" + NEW_LINE);
+            for (TestFailureAggregator.TestFailures failures : top) {
+                writer.write("    <tr><td>" + escape(failures.getName()) + "</td><td>" + failures.getFailedCount()
+                        + "</td><td>" + failures.getSkippedCount() + "</td><td>");
+                String separator = "";
+                for (String project : aggregator.getProjects(failures)) {
+                    writer.write(separator);
+                    writer.write(escape(project));
+                    separator = ", ";
+                }
+                writer.write("</td></tr>" + NEW_LINE);
+            }
+            writer.write("</table>" + NEW_LINE);
+            writer.write("<br/>" + NEW_LINE);
+
+            Map<String, String> specific = aggregator.getPlatformSpecificFailures();
+            writer.write("<table border=\"1\">" + NEW_LINE);
+            writer.write("<caption>Tests that fail only on one platform or jdk</caption>" + NEW_LINE);
+            writer.write("<thead><tr><td>Test</td><td>Fails only on</td><td>Failing configurations</td></tr></thead>" + NEW_LINE);
+            for (Map.Entry<String, String> entry : specific.entrySet()) {
+                writer.write("    <tr><td>" + escape(entry.getKey()) + "</td><td>" + escape(entry.getValue()) + "</td><td>");
+                String separator = "";
+                for (String cell : aggregator.getFailedCells(entry.getKey())) {
+                    writer.write(separator);
+                    writer.write(escape(cell));
+                    separator = "<br/>";
+                }
+                writer.write("</td></tr>" + NEW_LINE);
+            }
+            writer.write("</table>" + NEW_LINE);
+            writer.write("<p>Failed and Skipped count the project/jdk/platform configurations whose latest build failed or skipped the test.  "
+                    + aggregator.getTestCount() + " tests failed or were skipped somewhere.</p>" + NEW_LINE);
+            writer.write("</body>" + NEW_LINE);
+            writer.write("</html>" + NEW_LINE);
+        }
+    }
+
+    /**
+     * Test names can contain parameters, i.e. testFoo[0] or testBar{a<b}
+     */
+    static String escape(String text) {
+        StringBuilder sb = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement = c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '&' ? "&amp;" : null;
+            if (replacement != null && sb == null) {
+                sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            if (sb != null) {
+                if (replacement != null) {
+                    sb.append(replacement);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb == null ? text : sb.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Configurations, or whole projects, which couldn't be read in time by the last scan, see
+ * {@link FileSystemAccess.UnreachableException}.  They are shown as stale in the summary rather than
+ * holding it up.
+ *
+ * @author kearls
+ */
+public class UnreachableConfigurations {
+    private final Set<String> projects = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, Set<JdkPlatformTuple>> configurations = new ConcurrentHashMap<>();
+
+    /**
+     * The project's configurations couldn't be listed
+     */
+    public void add(String projectName) {
+        projects.add(projectName);
+    }
+
+    public void add(String projectName, String jdk, String platform) {
+        Set<JdkPlatformTuple> columns = configurations.get(projectName);
+        if (columns == null) {
+            Set<JdkPlatformTuple> created = Collections.newSetFromMap(new ConcurrentHashMap<JdkPlatformTuple, Boolean>());
+            columns = configurations.putIfAbsent(projectName, created);
+            if (columns == null) {
+                columns = created;
+            }
+        }
+        columns.add(new JdkPlatformTuple(jdk, platform));
+    }
+
+    /**
+     * The project could be read again
+     */
+    public void remove(String projectName) {
+        projects.remove(projectName);
+    }
+
+    /**
+     * The configuration could be read again
+     */
+    public void remove(String projectName, String jdk, String platform) {
+        Set<JdkPlatformTuple> columns = configurations.get(projectName);
+        if (columns != null) {
+            columns.remove(new JdkPlatformTuple(jdk, platform));
+        }
+    }
+
+    public void addAll(UnreachableConfigurations other) {
+        projects.addAll(other.projects);
+        for (Map.Entry<String, Set<JdkPlatformTuple>> entry : other.configurations.entrySet()) {
+            for (JdkPlatformTuple column : entry.getValue()) {
+                add(entry.getKey(), column.getJdk(), column.getPlatform());
+            }
+        }
+    }
+
+    public boolean contains(String projectName, JdkPlatformTuple column) {
+        if (projects.contains(projectName)) {
+            return true;
+        }
+        Set<JdkPlatformTuple> columns = configurations.get(projectName);
+        return columns != null && columns.contains(column);
+    }
+
+    /**
+     * @return projects none of whose configurations could be listed
+     */
+    public Set<String> getProjects() {
+        return projects;
+    }
+
+    /**
+     * @return the configurations which couldn't be read, by project
+     */
+    public Map<String, Set<JdkPlatformTuple>> getConfigurations() {
+        return configurations;
+    }
+
+    public int size() {
+        int size = projects.size();
+        for (Set<JdkPlatformTuple> columns : configurations.values()) {
+            size += columns.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return projects.isEmpty() && configurations.isEmpty();
+    }
+
+    public void clear() {
+        projects.clear();
+        configurations.clear();
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author kearls
+ */
+public class BuildRecordStoreTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("store").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static Map<String, List<BuildResult>> results(BuildResult... buildResults) {
+        Map<String, List<BuildResult>> allResults = new HashMap<>();
+        for (BuildResult br : buildResults) {
+            List<BuildResult> list = allResults.get(br.getName());
+            if (list == null) {
+                list = new ArrayList<>();
+                allResults.put(br.getName(), list);
+            }
+            list.add(br);
+        }
+        return allResults;
+    }
+
+    private static BuildResult build(String project, String platform, int number, BuildResult.Result result) {
+        return new BuildResult(project, number * 1000L, "jdk6", platform, result, 10, result == BuildResult.Result.SUCCESS ? 0 : 2,
+                60000, number);
+    }
+
+    /**
+     * Every record in the store, in the order they were appended
+     */
+    private static List<String> records(BuildRecordStore store) throws IOException {
+        final List<String> records = new ArrayList<>();
+        store.scan(new BuildRecordStore.Query(), new BuildRecordStore.RecordVisitor() {
+            @Override
+            public void visit(BuildRecordStore.Record record) {
+                records.add(record.getProject() + " " + record.getJdk() + " " + record.getPlatform() + " " + record.getNumber() + " "
+                        + BuildResult.Result.fromCode(record.getResult()) + " " + record.getFailCount() + "/" + record.getTotalCount()
+                        + " " + record.getTime() + " " + record.getDuration());
+            }
+        });
+        return records;
+    }
+
+    private void append(String file, byte[] bytes) throws IOException {
+        Files.write(new File(directory, file).toPath(), bytes, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void partialAppendIsTruncatedWhenOpened() throws IOException {
+        BuildRecordStore store = new BuildRecordStore(directory);
+        assertEquals(2, store.append(results(build("camel", "ubuntu", 5, BuildResult.Result.SUCCESS),
+                build("camel", "aix7", 7, BuildResult.Result.UNSTABLE))));
+        List<String> committed = records(store);
+        store.close();
+
+        // A crash part way through the next append: a few columns have some of a record, one has half a value,
+        // and the dictionary has half a new name
+        for (BuildRecordStore.Column column : BuildRecordStore.Column.values()) {
+            if (column.ordinal() % 2 == 0) {
+                append(column.name() + ".col", new byte[column == BuildRecordStore.Column.time ? 3 : column.width]);
+            }
+        }
+        append("strings.dict", "activem".getBytes("UTF-8"));
+
+        store = new BuildRecordStore(directory);
+        assertEquals(2, store.size());
+        assertEquals(committed, records(store));
+        for (BuildRecordStore.Column column : BuildRecordStore.Column.values()) {
+            assertEquals(column.name(), 2L * column.width, new File(directory, column.name() + ".col").length());
+        }
+        assertEquals("camel\njdk6\nubuntu\naix7\n", new String(Files.readAllBytes(new File(directory, "strings.dict").toPath()), "UTF-8"));
+
+        // Appending after recovery puts the records straight after the committed ones
+        assertEquals(1, store.append(results(build("activemq", "ubuntu", 3, BuildResult.Result.FAILURE))));
+        store.close();
+        store = new BuildRecordStore(directory);
+        assertEquals(3, store.size());
+        assertEquals("activemq jdk6 ubuntu 3 FAILURE 2/10 3000 60000", records(store).get(2));
+        store.close();
+    }
+
+    @Test
+    public void countFileDecidesWhatWasCommitted() throws IOException {
+        BuildRecordStore store = new BuildRecordStore(directory);
+        store.append(results(build("camel", "ubuntu", 5, BuildResult.Result.SUCCESS)));
+        store.close();
+        File count = new File(directory, "count");
+        File saved = new File(directory, "count.saved");
+        Files.copy(count.toPath(), saved.toPath());
+
+        // Every column written but the crash came before the count was replaced
+        store = new BuildRecordStore(directory);
+        store.append(results(build("camel", "ubuntu", 6, BuildResult.Result.FAILURE)));
+        store.close();
+        Files.move(saved.toPath(), count.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        store = new BuildRecordStore(directory);
+        assertEquals(1, store.size());
+        assertEquals(Arrays.asList("camel jdk6 ubuntu 5 SUCCESS 0/10 5000 60000"), records(store));
+        // Build 6 was never committed, so it isn't skipped as already stored
+        assertEquals(1, store.append(results(build("camel", "ubuntu", 6, BuildResult.Result.FAILURE))));
+        assertEquals(2, store.size());
+        store.close();
+    }
+
+    @Test
+    public void buildsAlreadyStoredAreSkipped() throws IOException {
+        BuildRecordStore store = new BuildRecordStore(directory);
+        store.append(results(build("camel", "ubuntu", 5, BuildResult.Result.SUCCESS), build("camel", "aix7", 5, BuildResult.Result.SUCCESS)));
+        store.close();
+
+        store = new BuildRecordStore(directory);
+        assertEquals(0, store.append(results(build("camel", "ubuntu", 5, BuildResult.Result.FAILURE),
+                build("camel", "ubuntu", 4, BuildResult.Result.FAILURE))));
+        assertEquals(1, store.append(results(build("camel", "ubuntu", 4, BuildResult.Result.FAILURE),
+                build("camel", "aix7", 6, BuildResult.Result.ABORTED))));
+        assertEquals(3, store.size());
+        assertEquals("camel jdk6 aix7 6 ABORTED 2/10 6000 60000", records(store).get(2));
+        store.close();
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author kearls
+ */
+public class BuildResultTest {
+    @Test
+    public void everyResultSurvivesItsCode() {
+        Set<Byte> codes = new HashSet<>();
+        for (BuildResult.Result result : BuildResult.Result.values()) {
+            assertSame(result, BuildResult.Result.fromCode(result.code()));
+            assertTrue(result + " shares its code", codes.add(result.code()));
+        }
+    }
+
+    /**
+     * The codes are in stores, caches and snapshots already written, so they can't change
+     */
+    @Test
+    public void codesAreTheOnesOnDisk() {
+        assertEquals(0, BuildResult.Result.SUCCESS.code());
+        assertEquals(1, BuildResult.Result.UNSTABLE.code());
+        assertEquals(2, BuildResult.Result.FAILURE.code());
+        assertEquals(3, BuildResult.Result.ABORTED.code());
+        assertEquals(4, BuildResult.Result.NOT_BUILT.code());
+    }
+
+    @Test
+    public void unknownCodesAreNotBuilt() {
+        assertSame(BuildResult.Result.NOT_BUILT, BuildResult.Result.fromCode((byte) 5));
+        assertSame(BuildResult.Result.NOT_BUILT, BuildResult.Result.fromCode((byte) -1));
+    }
+
+    @Test
+    public void everyResultSurvivesItsName() {
+        for (BuildResult.Result result : BuildResult.Result.values()) {
+            assertSame(result, BuildResult.Result.parse(result.name()));
+            assertSame(result, BuildResult.Result.parse(result.getLabel()));
+        }
+        assertSame(BuildResult.Result.NOT_BUILT, BuildResult.Result.parse(null));
+    }
+}
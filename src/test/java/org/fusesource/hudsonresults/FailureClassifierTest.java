@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author kearls
+ */
+public class FailureClassifierTest {
+    private static final String OOM = "Exception in thread \"main\" java.lang.OutOfMemoryError";
+    private static final String COMPILE = "[ERROR] COMPILATION ERROR : ";
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("classifier").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private String classify(String log, long budget) throws IOException {
+        Files.write(new File(directory, FailureClassifier.LOG_FILE).toPath(), log.getBytes(StandardCharsets.ISO_8859_1));
+        return new FailureClassifier(FailureClassifier.defaultSignatures(), budget, FileSystemAccess.direct()).classify(directory);
+    }
+
+    /**
+     * Lines which match no signature, exactly length bytes of them
+     */
+    private static String filler(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("[INFO] Building module ").append(sb.length()).append('\n');
+        }
+        sb.setLength(length - 1);
+        return sb.append('\n').toString();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void signatureSplitBetweenChunksIsFound() throws IOException {
+        // The last chunk starts 10 bytes before the end of the signature's line
+        String log = filler(100000) + OOM + "\n" + filler(FailureClassifier.CHUNK_SIZE - 10);
+        assertEquals("out of memory", classify(log, Long.MAX_VALUE));
+
+        // ... and with the line's newline as the first byte of the last chunk
+        log = filler(100000) + OOM + "\n" + filler(FailureClassifier.CHUNK_SIZE - 1);
+        assertEquals("out of memory", classify(log, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void lastSignatureInTheLogWins() throws IOException {
+        String log = COMPILE + "\n" + filler(3 * FailureClassifier.CHUNK_SIZE) + OOM + "\n" + filler(1000);
+        assertEquals("out of memory", classify(log, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void onlyTheBudgetIsRead() throws IOException {
+        String log = OOM + "\n" + filler(200000);
+        assertNull(classify(log, FailureClassifier.CHUNK_SIZE));
+        assertNull(classify(log, 200000 + 10));     // stops in the middle of the signature's line
+        assertEquals("out of memory", classify(log, 200000 + OOM.length() + 1));
+        assertEquals("out of memory", classify(log, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void logWithoutNewlinesIsOneLine() throws IOException {
+        assertEquals("out of memory", classify(OOM, Long.MAX_VALUE));
+        assertEquals("compile error", classify(COMPILE, Long.MAX_VALUE));
+        assertNull(classify("", Long.MAX_VALUE));
+        // Longer than a chunk, the start of the line is kept
+        assertEquals("out of memory", classify(OOM + repeat('.', 3 * FailureClassifier.CHUNK_SIZE), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void longLinesAreCutShort() throws IOException {
+        // The start of a long line is checked, anything past MAX_LINE isn't
+        String longLine = OOM + repeat('.', FailureClassifier.MAX_LINE);
+        assertEquals("out of memory", classify(filler(1000) + longLine + "\n" + filler(1000), Long.MAX_VALUE));
+        String tooFar = repeat('.', FailureClassifier.MAX_LINE) + OOM;
+        assertNull(classify(filler(1000) + tooFar + "\n" + filler(1000), Long.MAX_VALUE));
+        // The same across chunks
+        assertEquals("out of memory", classify(filler(1000) + OOM + repeat('.', 2 * FailureClassifier.CHUNK_SIZE) + "\n" + filler(1000),
+                Long.MAX_VALUE));
+        assertNull(classify(filler(1000) + repeat('.', 2 * FailureClassifier.CHUNK_SIZE) + OOM + "\n" + filler(1000), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void buildWithoutALogHasNoReason() throws IOException {
+        assertNull(new FailureClassifier(FailureClassifier.defaultSignatures(), Long.MAX_VALUE, FileSystemAccess.direct()).classify(directory));
+    }
+}
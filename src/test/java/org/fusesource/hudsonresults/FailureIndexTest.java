@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author kearls
+ */
+public class FailureIndexTest {
+    private static final String TEST = "org.apache.camel.FooTest.testBar";
+    private static final String OTHER_TEST = "org.apache.camel.FooTest.testBaz";
+
+    private File directory;
+    private File indexDirectory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("index").toFile();
+        indexDirectory = new File(directory, "failure-index");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * A build directory with a junitResult.xml in which the given tests failed, and one which passed
+     */
+    private File build(String cell, int number, String... failed) throws IOException {
+        StringBuilder xml = new StringBuilder("<result><suites><suite><cases>");
+        xml.append("<case><className>org.apache.camel.FooTest</className><testName>testPasses</testName></case>");
+        for (String test : failed) {
+            int dot = test.lastIndexOf('.');
+            xml.append("<case><className>").append(test.substring(0, dot)).append("</className><testName>").append(test.substring(dot + 1))
+                    .append("</testName><errorStackTrace>boom</errorStackTrace></case>");
+        }
+        xml.append("</cases></suite></suites></result>");
+        return write(cell, number, xml.toString());
+    }
+
+    private File write(String cell, int number, String junitResult) throws IOException {
+        File buildDirectory = new File(directory, "builds/" + cell + "/" + number);
+        buildDirectory.mkdirs();
+        Files.write(new File(buildDirectory, "junitResult.xml").toPath(), junitResult.getBytes(StandardCharsets.UTF_8));
+        return buildDirectory;
+    }
+
+    private boolean add(FailureIndex index, String cell, int number, File buildDirectory) {
+        return index.addBuild("project-" + cell, "jdk6", "ubuntu", number, number * 1000L, buildDirectory);
+    }
+
+    private static FailureIndex.CellFailures cell(List<FailureIndex.CellFailures> cells, String cell) {
+        for (FailureIndex.CellFailures failures : cells) {
+            if (failures.getProject().equals("project-" + cell)) {
+                return failures;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void committedBuildsAreThereAfterReopening() throws IOException {
+        FailureIndex index = new FailureIndex(indexDirectory);
+        assertTrue(add(index, "a", 1, build("a", 1)));
+        assertTrue(add(index, "a", 2, build("a", 2, TEST)));
+        assertTrue(add(index, "a", 3, build("a", 3, TEST, OTHER_TEST)));
+        assertEquals(3, index.commit());
+        assertEquals(0, index.commit());
+
+        FailureIndex reopened = new FailureIndex(indexDirectory);
+        assertEquals(1, reopened.getSegmentCount());
+        assertEquals(1, reopened.getCellCount());
+        List<FailureIndex.CellFailures> failures = reopened.getFailures(TEST);
+        assertEquals(1, failures.size());
+        FailureIndex.CellFailures cell = failures.get(0);
+        assertEquals("project-a", cell.getProject());
+        assertEquals("jdk6", cell.getJdk());
+        assertEquals("ubuntu", cell.getPlatform());
+        assertTrue(Arrays.equals(new int[] { 2, 3 }, cell.getFailedBuilds()));
+        assertEquals(2000L, cell.getFirstFailureTime());
+        assertEquals(3, cell.getLatestBuild());
+        assertEquals(2, reopened.getFirstFailure(TEST).getFirstFailure());
+        assertEquals(3, reopened.getFirstFailure(OTHER_TEST).getFirstFailure());
+        assertNull(reopened.getFirstFailure("org.apache.camel.FooTest.testPasses"));
+    }
+
+    @Test
+    public void segmentsAreMergedWhenThereAreTooMany() throws IOException {
+        FailureIndex index = new FailureIndex(indexDirectory);
+        for (int number = 1; number <= FailureIndex.MAX_SEGMENTS; number++) {
+            assertTrue(add(index, "a", number, build("a", number, TEST)));
+            assertEquals(1, index.commit());
+            assertEquals(number, index.getSegmentCount());
+        }
+        int number = FailureIndex.MAX_SEGMENTS + 1;
+        assertTrue(add(index, "a", number, build("a", number)));
+        assertTrue(add(index, "b", number, build("b", number, TEST)));
+        assertEquals(2, index.commit());
+        assertEquals(1, index.getSegmentCount());
+
+        // The merged segment and the manifest, the segments merged are deleted
+        assertEquals(2, indexDirectory.list().length);
+        FailureIndex reopened = new FailureIndex(indexDirectory);
+        assertEquals(1, reopened.getSegmentCount());
+        List<FailureIndex.CellFailures> failures = reopened.getFailures(TEST);
+        assertEquals(2, failures.size());
+        assertEquals(FailureIndex.MAX_SEGMENTS, cell(failures, "a").getFailedBuilds().length);
+        assertEquals(number, cell(failures, "a").getLatestBuild());
+        assertFalse(cell(failures, "a").isFailing());
+        assertTrue(cell(failures, "b").isFailing());
+    }
+
+    @Test
+    public void buildsAreOnlyIndexedOnce() throws IOException {
+        FailureIndex index = new FailureIndex(indexDirectory);
+        File build = build("a", 5, TEST);
+        assertTrue(add(index, "a", 5, build));
+        assertFalse(add(index, "a", 5, build));
+        index.commit();
+        assertFalse(add(index, "a", 5, build));
+
+        FailureIndex reopened = new FailureIndex(indexDirectory);
+        assertFalse(add(reopened, "a", 5, build));
+        assertFalse(add(reopened, "a", 4, build("a", 4, TEST)));
+        assertEquals(0, reopened.commit());
+        assertTrue(Arrays.equals(new int[] { 5 }, reopened.getFailures(TEST).get(0).getFailedBuilds()));
+    }
+
+    @Test
+    public void failingCellsAreThoseFailingInTheirNewestBuild() throws IOException {
+        FailureIndex index = new FailureIndex(indexDirectory);
+        // a: failed, passed, then failing since 4
+        add(index, "a", 1, build("a", 1, TEST));
+        add(index, "a", 2, build("a", 2));
+        add(index, "a", 3, build("a", 3, TEST));
+        add(index, "a", 4, build("a", 4, TEST));
+        index.commit();
+        add(index, "a", 5, build("a", 5, TEST));
+        // b: failing since 2, which started before a's streak
+        add(index, "b", 1, build("b", 1));
+        add(index, "b", 2, build("b", 2, TEST));
+        // c: failed, then passed
+        add(index, "c", 1, build("c", 1, TEST));
+        add(index, "c", 2, build("c", 2));
+        index.commit();
+
+        List<FailureIndex.CellFailures> failing = index.getFailingCells(TEST);
+        assertEquals(2, failing.size());
+        assertEquals("project-b", failing.get(0).getProject());
+        assertEquals(2, failing.get(0).getStreakStart());
+        assertEquals(2000L, failing.get(0).getStreakStartTime());
+        assertEquals("project-a", failing.get(1).getProject());
+        assertEquals(3, failing.get(1).getStreakStart());
+        assertEquals(5, failing.get(1).getLatestBuild());
+
+        FailureIndex.CellFailures passed = cell(index.getFailures(TEST), "c");
+        assertFalse(passed.isFailing());
+        assertEquals(0, passed.getStreakStart());
+        assertEquals(1, index.getFirstFailure(TEST).getFirstFailure());
+    }
+
+    @Test
+    public void unreadableBuildIsIndexedOnceItCanBeRead() throws Exception {
+        FileSystemAccess access = new FileSystemAccess(2, 2, 100, 0);
+        FailureIndex index = new FailureIndex(indexDirectory, access);
+        File slow = build("a", 1, TEST);
+        access.setInjectedLatency(500);
+        for (int i = 0; i <= FailureIndex.MAX_ATTEMPTS; i++) {
+            assertFalse(add(index, "a", 1, slow));
+        }
+        access.setInjectedLatency(0);
+        Thread.sleep(600);      // for the slow operations to give back their slots
+        assertTrue(add(index, "a", 2, build("a", 2)));
+        index.commit();
+
+        // The watermark has passed build 1, but it is still read
+        FailureIndex reopened = new FailureIndex(indexDirectory, access);
+        assertTrue(add(reopened, "a", 1, slow));
+        reopened.commit();
+        assertFalse(add(new FailureIndex(indexDirectory, access), "a", 1, slow));
+        FailureIndex.CellFailures cell = reopened.getFailures(TEST).get(0);
+        assertTrue(Arrays.equals(new int[] { 1 }, cell.getFailedBuilds()));
+        assertEquals(1000L, cell.getFirstFailureTime());
+        assertEquals(2, cell.getLatestBuild());
+        assertFalse(cell.isFailing());
+    }
+
+    @Test
+    public void unparseableBuildIsGivenUpOn() throws IOException {
+        FailureIndex index = new FailureIndex(indexDirectory);
+        File broken = write("a", 1, "<result><suites>");
+        assertFalse(add(index, "a", 1, broken));
+        assertTrue(add(index, "a", 2, build("a", 2)));
+        index.commit();
+        for (int i = 1; i < FailureIndex.MAX_ATTEMPTS; i++) {
+            index = new FailureIndex(indexDirectory);
+            assertFalse(add(index, "a", 1, broken));
+            index.commit();
+        }
+
+        build("a", 1, TEST);
+        assertFalse(add(new FailureIndex(indexDirectory), "a", 1, broken));
+    }
+}
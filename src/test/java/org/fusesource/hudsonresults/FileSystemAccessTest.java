@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kearls
+ */
+public class FileSystemAccessTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("access").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test(expected = FileSystemAccess.UnreachableException.class)
+    public void slowOperationIsUnreachable() throws IOException {
+        FileSystemAccess access = new FileSystemAccess(2, 2, 100, 0);
+        access.setInjectedLatency(500);
+        access.list(directory.toPath(), false);
+    }
+
+    @Test
+    public void permitIsHeldUntilTheStuckCallReturns() throws Exception {
+        FileSystemAccess access = new FileSystemAccess(1, 1, 100, 0);
+        access.setInjectedLatency(600);
+        try {
+            access.list(directory.toPath(), false);
+            fail("the listing should have timed out");
+        } catch (FileSystemAccess.UnreachableException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("took longer than 100ms"));
+        }
+
+        // The first listing is still running and holds the only permit
+        access.setInjectedLatency(0);
+        try {
+            access.readAttributes(directory.toPath());
+            fail("there should have been no free permit");
+        } catch (FileSystemAccess.UnreachableException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Waited 100ms for a free"));
+        }
+
+        // Once it returns the permit is free again
+        Thread.sleep(700);
+        assertTrue(access.readAttributes(directory.toPath()).isDirectory());
+        assertEquals(0, access.list(directory.toPath(), false).size());
+    }
+
+    @Test
+    public void missingDirectoriesAreRememberedForTheTtl() throws Exception {
+        FileSystemAccess access = new FileSystemAccess(2, 2, 1000, 300);
+        Path configurations = new File(directory, "configurations").toPath();
+        try {
+            access.list(configurations, true);
+            fail(configurations + " doesn't exist");
+        } catch (NoSuchFileException expected) {
+        }
+        assertEquals(1, access.getMissingCount());
+
+        Files.createDirectory(configurations);
+        try {
+            access.list(configurations, true);
+            fail(configurations + " should still be remembered as missing");
+        } catch (NoSuchFileException expected) {
+        }
+        assertEquals("not remembered when asked not to", 0, access.list(configurations, false).size());
+
+        Thread.sleep(400);
+        assertEquals(0, access.list(configurations, true).size());
+        assertEquals(0, access.getMissingCount());
+    }
+
+    /**
+     * The second scan can't read anything in time, so every project is stale and kept from the first
+     * scan's snapshot.  The project directories are found before the latency is added, the jobs root
+     * itself has to be listed for there to be a scan at all.
+     */
+    @Test
+    public void scanShowsUnreachableProjectsAsStale() throws Exception {
+        JobsTreeGenerator generator = new JobsTreeGenerator();
+        generator.setProjects(3, 0);
+        generator.setAxes(Arrays.asList("jdk6", "jdk7"), Arrays.asList("ubuntu", "aix7"));
+        generator.setBuilds(2, true);
+        generator.setDamage(0, 0, 0);
+        File root = new File(directory, "jobs");
+        generator.generate(root, 1);
+
+        FileSystemAccess access = new FileSystemAccess(4, 4, 200, 0);
+        SummarizeBuildResults summarizer = new SummarizeBuildResults();
+        summarizer.setFileSystemAccess(access);
+        List<File> projects = summarizer.getPlatformDirectories(root, SummarizeBuildResults.ACCEPT_STRING_RH_6_1);
+        assertEquals(3, projects.size());
+
+        Map<String, List<BuildResult>> first = new ScanPipeline(summarizer, 1, 1, 1, 16).run(projects);
+        assertTrue(summarizer.getUnreachable().isEmpty());
+        ResultSnapshot previous = ResultSnapshot.of(first);
+        assertEquals(12, previous.size());
+
+        access.setInjectedLatency(600);
+        Map<String, List<BuildResult>> second = new ScanPipeline(summarizer, 1, 1, 1, 16).run(projects);
+        UnreachableConfigurations unreachable = summarizer.getUnreachable();
+        assertEquals(3, unreachable.getProjects().size());
+        assertTrue(second.isEmpty());
+
+        ResultChanges changes = ResultChanges.compute(previous, second, unreachable);
+        assertEquals(0, (int) changes.getCounts().get(ResultChanges.Kind.DISAPPEARED));
+
+        File file = new File(directory, "snapshot.bin");
+        ResultSnapshot.of(second, previous, unreachable).save(file);
+        ResultSnapshot loaded = ResultSnapshot.load(file);
+        assertEquals(12, loaded.size());
+        for (File project : projects) {
+            assertEquals(previous.get(project.getName(), "jdk7", "aix7").getBuildNumber(),
+                    loaded.get(project.getName(), "jdk7", "aix7").getBuildNumber());
+        }
+    }
+}
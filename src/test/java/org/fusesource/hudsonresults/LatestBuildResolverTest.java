@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author kearls
+ */
+public class LatestBuildResolverTest {
+    private File directory;
+    private File builds;
+    private final LatestBuildResolver resolver = new LatestBuildResolver();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("resolver").toFile();
+        builds = new File(directory, "builds");
+        builds.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static String name(int number) {
+        return String.format("2013-01-%02d_00-00-00", number);
+    }
+
+    /**
+     * A build directory named by date time with its numbered symlink, and a build.xml unless it is still running
+     */
+    private File build(int number, boolean finished) throws IOException {
+        File build = new File(builds, name(number));
+        build.mkdirs();
+        if (finished) {
+            Files.write(new File(build, "build.xml").toPath(), "<build/>".getBytes(StandardCharsets.UTF_8));
+        }
+        Files.createSymbolicLink(new File(builds, Integer.toString(number)).toPath(), Paths.get(name(number)));
+        return build;
+    }
+
+    private void link(String name, String target) throws IOException {
+        Files.createSymbolicLink(new File(builds, name).toPath(), Paths.get(target));
+    }
+
+    private void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String latest() throws IOException {
+        File latest = resolver.getLatestBuildDirectory(builds);
+        return latest == null ? null : latest.getName();
+    }
+
+    @Test
+    public void lastCompletedBuildLinkIsFollowed() throws IOException {
+        build(1, true);
+        build(2, true);
+        build(3, true);     // newer, but not complete as far as Hudson is concerned
+        link("lastCompletedBuild", "2");
+        assertEquals(name(2), latest());
+    }
+
+    @Test
+    public void lastCompletedBuildCanNameTheDirectory() throws IOException {
+        build(1, true);
+        build(2, true);
+        link("lastCompletedBuild", name(1));
+        assertEquals(name(1), latest());
+    }
+
+    @Test
+    public void permalinksFileIsUsedWithoutTheLink() throws IOException {
+        build(1, true);
+        build(2, true);
+        build(3, true);
+        write(new File(builds, "permalinks"), "lastSuccessfulBuild 1\nlastCompletedBuild 2\n");
+        assertEquals(name(2), latest());
+    }
+
+    /**
+     * A directory newer than any build, without a build.xml or a numbered link, so a scan of builds/ finds nothing
+     */
+    private void orphan() {
+        new File(builds, name(20)).mkdirs();
+    }
+
+    @Test
+    public void nextBuildNumberIsProbedDownwards() throws IOException {
+        build(1, true);
+        build(2, true);
+        build(3, false);    // still running
+        // 4 was deleted
+        orphan();
+        write(new File(directory, "nextBuildNumber"), "5\n");
+        assertEquals(name(2), latest());
+    }
+
+    @Test
+    public void danglingLastCompletedBuildFallsBack() throws IOException {
+        build(1, true);
+        build(2, true);
+        build(3, false);
+        orphan();
+        link("lastCompletedBuild", "9");
+        write(new File(directory, "nextBuildNumber"), "4");
+        assertEquals(name(2), latest());
+
+        // -1 is what Hudson writes when no build has completed
+        Files.delete(new File(builds, "lastCompletedBuild").toPath());
+        link("lastCompletedBuild", "-1");
+        assertEquals(name(2), latest());
+    }
+
+    @Test
+    public void withoutMetadataTheNewestDirectoryIsFound() throws IOException {
+        for (int number : new int[] { 4, 1, 7, 3, 6, 2, 5 }) {
+            build(number, true);
+        }
+        new File(builds, "lastStable").mkdirs();
+        write(new File(builds, "legacyIds"), "");
+        assertEquals(name(7), latest());
+
+        // The newest has no build.xml yet, so the one before it by name, not by listing order
+        Files.delete(new File(builds, name(7) + "/build.xml").toPath());
+        assertEquals(name(6), latest());
+
+        // Neither of the two newest has one
+        Files.delete(new File(builds, name(6) + "/build.xml").toPath());
+        assertNull(latest());
+    }
+
+    @Test
+    public void noBuildsAtAll() throws IOException {
+        assertNull(latest());
+        assertNull(resolver.getLatestBuildDirectory(new File(directory, "missing")));
+        assertNull(resolver.getLatestBuildDirectory(null));
+        link("lastCompletedBuild", "-1");
+        assertNull(latest());
+    }
+
+    @Test
+    public void recentBuildsAreNewestFirst() throws IOException {
+        for (int number : new int[] { 3, 5, 1, 4, 2 }) {
+            build(number, true);
+        }
+        assertEquals(Arrays.asList(new File(builds, name(5)), new File(builds, name(4)), new File(builds, name(3))),
+                resolver.getRecentBuildDirectories(builds, 3));
+        assertEquals(5, resolver.getRecentBuildDirectories(builds, 10).size());
+        assertEquals(0, resolver.getRecentBuildDirectories(new File(directory, "missing"), 3).size());
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link RemoteBuildSource} against a local HTTP server serving canned API responses
+ *
+ * @author kearls
+ */
+public class RemoteBuildSourceTest {
+    private static final String JOBS = "{\"jobs\":[{\"name\":\"camel-platform\"},{\"name\":\"camel-other\"},{\"name\":\"gone-platform\"}]}";
+    private static final String CAMEL = "{\"activeConfigurations\":["
+            + "{\"name\":\"jdk=jdk6,label=ubuntu\",\"lastCompletedBuild\":{\"number\":42,\"result\":\"UNSTABLE\",\"duration\":60000,"
+            + "\"timestamp\":1351890575000,\"id\":\"2012-11-02_21-09-35\",\"actions\":[{},{\"failCount\":3,\"totalCount\":100},{}]}},"
+            + "{\"name\":\"jdk=jdk7,label=aix7\",\"lastCompletedBuild\":{\"number\":7,\"result\":\"FAILURE\",\"duration\":1000,"
+            + "\"timestamp\":1351890575000,\"id\":\"7\",\"actions\":[{}]}},"
+            + "{\"name\":\"jdk=jdk7,label=windows\",\"lastCompletedBuild\":null}]}";
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private String baseUrl;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers = Executors.newFixedThreadPool(8);
+        server.setExecutor(handlers);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/hudson/";
+        serve("/hudson/api/json", 200, JOBS);
+        serve("/hudson/job/camel-platform/api/json", 200, CAMEL);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Serve the body gzipped if the client asks for it, counting requests and how many are in flight at once
+     */
+    private void serve(String path, final int status, final String body) {
+        server.createContext(path, new StubHandler() {
+            @Override
+            int status(int request) {
+                return status;
+            }
+
+            @Override
+            String body(int request) {
+                return body;
+            }
+        });
+    }
+
+    private abstract class StubHandler implements HttpHandler {
+        long delayMillis = 0;
+
+        abstract int status(int request);
+
+        abstract String body(int request);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int request = requests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxInFlight.get()) < current && !maxInFlight.compareAndSet(max, current)) {
+                    // try again
+                }
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                byte[] bytes = body(request).getBytes(StandardCharsets.UTF_8);
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                        gzip.write(bytes);
+                    }
+                    bytes = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    encodings.add("gzip");
+                } else {
+                    encodings.add("identity");
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status(request), bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+
+    private RemoteBuildSource source(int connectionsPerHost, int retries) {
+        RemoteBuildSource source = new RemoteBuildSource(baseUrl, new SummarizeBuildResults(), connectionsPerHost);
+        source.setTimeouts(2000, 2000);
+        source.setRetries(retries);
+        return source;
+    }
+
+    @Test
+    public void readsGzippedResponses() throws IOException {
+        assertEquals(3, source(4, 0).fetchJobNames().size());
+        assertEquals(Collections.singletonList("gzip"), encodings);
+    }
+
+    @Test
+    public void readsTheLatestBuildOfEachConfiguration() throws IOException {
+        Map<String, List<BuildResult>> results = source(4, 0).getAllResults(".*platform", 2);
+
+        assertEquals(Collections.singleton("camel-platform"), results.keySet());
+        List<BuildResult> camel = results.get("camel-platform");
+        assertEquals("a configuration without a completed build is left out", 2, camel.size());
+
+        BuildResult ubuntu = camel.get(0);
+        assertEquals("jdk6", ubuntu.getJdk());
+        assertEquals("ubuntu", ubuntu.getPlatform());
+        assertEquals(BuildResult.Result.UNSTABLE, ubuntu.getStatus());
+        assertEquals(42, ubuntu.getBuildNumber());
+        assertEquals(100, ubuntu.getTestsRun());
+        assertEquals(3, ubuntu.getFailedTests());
+        assertEquals(60000, ubuntu.getDuration());
+
+        BuildResult aix = camel.get(1);
+        assertEquals("aix7", aix.getPlatform());
+        assertEquals(BuildResult.Result.FAILURE, aix.getStatus());
+        assertEquals("no junit action means 0/0", 0, aix.getTestsRun());
+    }
+
+    @Test
+    public void missingProjectIsNull() throws IOException {
+        serve("/hudson/job/gone-platform/api/json", 404, "{}");
+        assertNull(source(4, 3).fetchProject("gone-platform"));
+        assertEquals("a 404 isn't retried", 1, requests.get());
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException {
+        server.createContext("/hudson/job/flaky-platform/api/json", new StubHandler() {
+            @Override
+            int status(int request) {
+                return request == 1 ? 503 : 200;
+            }
+
+            @Override
+            String body(int request) {
+                return request == 1 ? "{}" : CAMEL;
+            }
+        });
+
+        List<BuildResult> results = source(4, 1).fetchProject("flaky-platform");
+        assertEquals(2, results.size());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void givesUpAfterTheRetries() {
+        serve("/hudson/job/down-platform/api/json", 500, "{}");
+        try {
+            source(4, 2).fetchProject("down-platform");
+            fail("Expected the last failure to be thrown");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 500"));
+        }
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        serve("/hudson/job/private-platform/api/json", 403, "{}");
+        try {
+            source(4, 3).fetchProject("private-platform");
+            fail("Expected a 403 to be thrown");
+        } catch (IOException e) {
+            assertTrue(e instanceof RemoteBuildSource.HttpStatusException);
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void limitsRequestsPerHost() throws IOException {
+        StringBuilder jobs = new StringBuilder("{\"jobs\":[");
+        for (int i = 0; i < 8; i++) {
+            String name = "project-" + i + "-platform";
+            jobs.append(i > 0 ? "," : "").append("{\"name\":\"").append(name).append("\"}");
+            StubHandler slow = new StubHandler() {
+                @Override
+                int status(int request) {
+                    return 200;
+                }
+
+                @Override
+                String body(int request) {
+                    return CAMEL;
+                }
+            };
+            slow.delayMillis = 100;
+            server.createContext("/hudson/job/" + name + "/api/json", slow);
+        }
+        server.removeContext("/hudson/api/json");
+        serve("/hudson/api/json", 200, jobs.append("]}").toString());
+
+        Map<String, List<BuildResult>> results = source(2, 0).getAllResults(".*platform", 8);
+        assertEquals(8, results.size());
+        assertEquals(9, requests.get());
+        assertTrue("at most 2 requests at once, saw " + maxInFlight.get(), maxInFlight.get() <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRetriesAreRejected() {
+        source(4, -1);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author kearls
+ */
+public class ResultChangesTest {
+    private static BuildResult build(String project, String platform, BuildResult.Result result, int failed, int number) {
+        return new BuildResult(project, 0L, "jdk6", platform, result, 100, failed, 60000, number);
+    }
+
+    private static Map<String, List<BuildResult>> results(BuildResult... builds) {
+        Map<String, List<BuildResult>> allResults = new TreeMap<>();
+        for (BuildResult br : builds) {
+            List<BuildResult> row = allResults.get(br.getName());
+            if (row == null) {
+                row = new ArrayList<>();
+                allResults.put(br.getName(), row);
+            }
+            row.add(br);
+        }
+        return allResults;
+    }
+
+    @Test
+    public void comparesNewBuilds() {
+        ResultSnapshot previous = ResultSnapshot.of(results(
+                build("camel", "ubuntu", BuildResult.Result.SUCCESS, 0, 1),
+                build("camel", "aix7", BuildResult.Result.UNSTABLE, 2, 1),
+                build("camel", "windows", BuildResult.Result.UNSTABLE, 2, 1),
+                build("cxf", "ubuntu", BuildResult.Result.SUCCESS, 0, 1)));
+        ResultChanges changes = ResultChanges.compute(previous, results(
+                build("camel", "ubuntu", BuildResult.Result.UNSTABLE, 1, 2),
+                build("camel", "aix7", BuildResult.Result.UNSTABLE, 5, 2),
+                build("camel", "windows", BuildResult.Result.UNSTABLE, 5, 1)), null);
+
+        Map<ResultChanges.Kind, Integer> counts = changes.getCounts();
+        assertEquals(1, (int) counts.get(ResultChanges.Kind.NEWLY_FAILING));
+        assertEquals("same build number, not compared", 1, (int) counts.get(ResultChanges.Kind.MORE_FAILURES));
+        assertEquals(1, (int) counts.get(ResultChanges.Kind.DISAPPEARED));
+        assertEquals("cxf", changes.getChanges().get(2).getProject());
+    }
+
+    @Test
+    public void unreachableCellsHaveNotDisappeared() {
+        ResultSnapshot first = ResultSnapshot.of(results(
+                build("camel", "ubuntu", BuildResult.Result.SUCCESS, 0, 1),
+                build("camel", "aix7", BuildResult.Result.SUCCESS, 0, 1),
+                build("cxf", "ubuntu", BuildResult.Result.SUCCESS, 0, 1)));
+
+        // The second run can't read camel on aix7, nor any of cxf
+        UnreachableConfigurations unreachable = new UnreachableConfigurations();
+        unreachable.add("camel", "jdk6", "aix7");
+        unreachable.add("cxf");
+        Map<String, List<BuildResult>> second = results(build("camel", "ubuntu", BuildResult.Result.SUCCESS, 0, 2));
+        second.put("cxf", new ArrayList<BuildResult>());
+        ResultChanges secondChanges = ResultChanges.compute(first, second, unreachable);
+        assertEquals(0, secondChanges.getChanges().size());
+
+        // Their cells are kept, so the third run sees the flips since the first
+        ResultSnapshot secondSnapshot = ResultSnapshot.of(second, first, unreachable);
+        assertEquals(3, secondSnapshot.size());
+        assertEquals(1, secondSnapshot.get("camel", "jdk6", "aix7").getBuildNumber());
+
+        ResultChanges thirdChanges = ResultChanges.compute(secondSnapshot, results(
+                build("camel", "ubuntu", BuildResult.Result.SUCCESS, 0, 2),
+                build("camel", "aix7", BuildResult.Result.FAILURE, 0, 3),
+                build("cxf", "ubuntu", BuildResult.Result.UNSTABLE, 4, 3)), new UnreachableConfigurations());
+        assertEquals(Arrays.asList(ResultChanges.Kind.NEWLY_FAILING, ResultChanges.Kind.NEWLY_FAILING),
+                Arrays.asList(thirdChanges.getChanges().get(0).getKind(), thirdChanges.getChanges().get(1).getKind()));
+        assertEquals(2, thirdChanges.getChanges().size());
+    }
+
+    @Test
+    public void projectsWithNoReadableConfigurationsAreCarriedOver() {
+        ResultSnapshot first = ResultSnapshot.of(results(build("camel", "ubuntu", BuildResult.Result.SUCCESS, 0, 1)));
+        UnreachableConfigurations unreachable = new UnreachableConfigurations();
+        unreachable.add("camel", "jdk6", "ubuntu");
+
+        ResultSnapshot second = ResultSnapshot.of(new TreeMap<String, List<BuildResult>>(), first, unreachable);
+        assertEquals(1, second.size());
+        assertEquals(1, second.get("camel", "jdk6", "ubuntu").getBuildNumber());
+    }
+}
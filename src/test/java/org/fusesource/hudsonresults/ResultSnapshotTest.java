@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author kearls
+ */
+public class ResultSnapshotTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("snapshot").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void savesAndLoadsRowsWithoutCells() throws IOException {
+        Map<String, List<BuildResult>> allResults = new TreeMap<>();
+        allResults.put("camel-platform", Arrays.asList(
+                new BuildResult("camel-platform", 0L, "jdk6", "ubuntu", BuildResult.Result.UNSTABLE, 100, 3, 60000, 42),
+                new BuildResult("camel-platform", 0L, "jdk7", "aix7", BuildResult.Result.NOT_BUILT, 0, 0, 0, 7)));
+        allResults.put("stale-platform", new ArrayList<BuildResult>());     // couldn't be read in time
+
+        File file = new File(directory, "snapshot.bin");
+        ResultSnapshot.of(allResults).save(file);
+        ResultSnapshot loaded = ResultSnapshot.load(file);
+
+        assertEquals(2, loaded.size());
+        assertEquals(2, loaded.getCells().size());
+        ResultSnapshot.Cell ubuntu = loaded.get("camel-platform", "jdk6", "ubuntu");
+        assertEquals(42, ubuntu.getBuildNumber());
+        assertEquals(BuildResult.Result.UNSTABLE, ubuntu.getResult());
+        assertEquals(3, ubuntu.getFailCount());
+        assertEquals(100, ubuntu.getTotalCount());
+        assertEquals(BuildResult.Result.NOT_BUILT, loaded.get("camel-platform", "jdk7", "aix7").getResult());
+        assertNull(loaded.get("stale-platform", "jdk6", "ubuntu"));
+    }
+
+    @Test
+    public void damagedFileGivesAnEmptySnapshot() throws IOException {
+        Map<String, List<BuildResult>> allResults = new TreeMap<>();
+        allResults.put("camel-platform", Arrays.asList(
+                new BuildResult("camel-platform", 0L, "jdk6", "ubuntu", BuildResult.Result.SUCCESS, 100, 0, 60000, 42)));
+        File file = new File(directory, "snapshot.bin");
+        ResultSnapshot.of(allResults).save(file);
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file.toPath(), bytes);
+
+        assertEquals(0, ResultSnapshot.load(file).size());
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author kearls
+ */
+public class ScanPipelineTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("pipeline").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    static class ParserBroken extends Error {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Every parse worker dies on its first build, with more configurations than the queues hold, so the
+     * earlier stages would block on a full queue if the scan weren't stopped.
+     */
+    @Test(expected = ParserBroken.class, timeout = 60000)
+    public void errorInEveryWorkerOfAStageStopsTheScan() throws Exception {
+        JobsTreeGenerator generator = new JobsTreeGenerator();
+        generator.setProjects(10, 0);
+        generator.setAxes(Arrays.asList("jdk6", "jdk7"), Arrays.asList("ubuntu", "aix7"));
+        generator.setBuilds(1, true);
+        generator.setDamage(0, 0, 0);
+        File root = new File(directory, "jobs");
+        generator.generate(root, 1);
+
+        SummarizeBuildResults summarizer = new SummarizeBuildResults() {
+            @Override
+            BuildResult readBuildResults(File[] buildDirectories, String projectName, String jdk, String platform) {
+                throw new ParserBroken();
+            }
+        };
+        List<File> projects = summarizer.getPlatformDirectories(root, SummarizeBuildResults.ACCEPT_STRING_RH_6_1);
+        new ScanPipeline(summarizer, 1, 1, 2, 1).run(projects);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author kearls
+ */
+public class ShardCoordinatorTest {
+    private static final int SHARDS = 3;
+    private static final String MATCH = SummarizeBuildResults.ACCEPT_STRING_RH_6_1;
+
+    private File directory;
+    private File root;
+    private File shardDirectory;
+
+    @Before
+    public void generateJobs() throws IOException {
+        directory = Files.createTempDirectory("shards").toFile();
+        root = new File(directory, "jobs");
+        shardDirectory = new File(directory, "shards");
+        shardDirectory.mkdirs();
+        JobsTreeGenerator generator = new JobsTreeGenerator();
+        generator.setProjects(12, 2);
+        generator.setAxes(Arrays.asList("jdk6", "jdk7"), Arrays.asList("ubuntu", "aix7"));
+        generator.setBuilds(2, true);
+        generator.setDamage(0, 0, 0);
+        generator.generate(root, 2);
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Scan one shard the way a worker does and leave its file
+     */
+    private Map<String, List<BuildResult>> writeShard(int shard, long time) throws IOException {
+        SummarizeBuildResults worker = new SummarizeBuildResults();
+        worker.setShardSelector(ShardSelector.parse(shard + "/" + SHARDS));
+        Map<String, List<BuildResult>> results = worker.getAllResults(root, MATCH);
+        assertFalse("shard " + shard + " has no projects", results.isEmpty());
+        new ShardResults(shard, SHARDS, MATCH, time, results, worker.getUnreachable()).write(ShardResults.file(shardDirectory, shard, SHARDS));
+        return results;
+    }
+
+    @Test
+    public void missingAndOldShardsAreShownAsStale() throws IOException {
+        SummarizeBuildResults summarizer = new SummarizeBuildResults();
+        ResultSnapshot previous = ResultSnapshot.of(summarizer.getAllResults(root, MATCH));
+        assertEquals(48, previous.size());
+
+        Map<String, List<BuildResult>> written = writeShard(0, System.currentTimeMillis());
+        writeShard(2, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));    // left over from an earlier run
+        ShardCoordinator coordinator = new ShardCoordinator(shardDirectory, SHARDS, MATCH);
+        coordinator.setMaxAge(TimeUnit.HOURS.toMillis(1));
+        Map<String, List<BuildResult>> merged = coordinator.merge(summarizer, root, 0, false);
+
+        BitSet missing = new BitSet();
+        missing.set(1);
+        missing.set(2);
+        assertEquals(missing, coordinator.getMissing());
+        assertEquals(12, merged.size());
+        UnreachableConfigurations unreachable = summarizer.getUnreachable();
+        for (Map.Entry<String, List<BuildResult>> row : merged.entrySet()) {
+            boolean stale = !written.containsKey(row.getKey());
+            assertEquals(row.getKey(), stale, unreachable.getProjects().contains(row.getKey()));
+            assertEquals(row.getKey(), stale ? 0 : 4, row.getValue().size());
+        }
+
+        ResultChanges changes = ResultChanges.compute(previous, merged, unreachable);
+        assertEquals(0, (int) changes.getCounts().get(ResultChanges.Kind.DISAPPEARED));
+        File file = new File(directory, "snapshot.bin");
+        ResultSnapshot.of(merged, previous, unreachable).save(file);
+        assertEquals(previous.size(), ResultSnapshot.load(file).size());
+    }
+
+    @Test
+    public void missingShardsCanBeScannedHere() throws IOException {
+        writeShard(1, System.currentTimeMillis());
+        SummarizeBuildResults summarizer = new SummarizeBuildResults();
+        ShardCoordinator coordinator = new ShardCoordinator(shardDirectory, SHARDS, MATCH);
+        Map<String, List<BuildResult>> merged = coordinator.merge(summarizer, root, 0, true);
+
+        assertEquals(2, coordinator.getMissing().cardinality());
+        assertEquals(12, merged.size());
+        for (List<BuildResult> row : merged.values()) {
+            assertEquals(4, row.size());
+        }
+        assertTrue(summarizer.getUnreachable().isEmpty());
+    }
+
+    @Test
+    public void unreachableConfigurationsOfShardsAreMerged() throws IOException {
+        SummarizeBuildResults worker = new SummarizeBuildResults();
+        worker.setShardSelector(ShardSelector.parse("0/" + SHARDS));
+        Map<String, List<BuildResult>> results = worker.getAllResults(root, MATCH);
+        String project = results.keySet().iterator().next();
+        UnreachableConfigurations unreachable = new UnreachableConfigurations();
+        unreachable.add(project, "jdk7", "solaris");
+        new ShardResults(0, SHARDS, MATCH, System.currentTimeMillis(), results, unreachable).write(ShardResults.file(shardDirectory, 0, SHARDS));
+
+        SummarizeBuildResults summarizer = new SummarizeBuildResults();
+        new ShardCoordinator(shardDirectory, SHARDS, MATCH).merge(summarizer, root, 0, false);
+        assertTrue(summarizer.getUnreachable().contains(project, new JdkPlatformTuple("jdk7", "solaris")));
+        assertTrue(summarizer.getAxisRegistry().getCombinations().contains(new JdkPlatformTuple("jdk7", "solaris")));
+    }
+}
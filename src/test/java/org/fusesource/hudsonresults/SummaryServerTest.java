@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hudsonresults;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author kearls
+ */
+public class SummaryServerTest {
+    private static Map<String, List<BuildResult>> results(BuildResult br) {
+        Map<String, List<BuildResult>> results = new TreeMap<>();
+        results.put(br.getName(), Arrays.asList(br));
+        return results;
+    }
+
+    private static BuildResult failed() {
+        return new BuildResult("camel-platform", 1000L, "jdk6", "ubuntu", BuildResult.Result.FAILURE, 0, 0, 60000, 42);
+    }
+
+    @Test
+    public void sameResultsGiveTheSameTag() {
+        assertEquals(SummaryServer.etag(results(failed())), SummaryServer.etag(results(failed())));
+    }
+
+    @Test
+    public void failureReasonChangesTheTag() {
+        BuildResult classified = failed();
+        classified.setFailureReason("compile");
+        assertFalse(SummaryServer.etag(results(failed())).equals(SummaryServer.etag(results(classified))));
+    }
+
+    @Test
+    public void historyChangesTheTag() {
+        BuildResult withHistory = failed();
+        BuildHistory history = new BuildHistory(5);
+        history.add(41, BuildHistory.SUCCESS, 0, 100, 60000, 500L);
+        history.add(withHistory);
+        withHistory.setHistory(history);
+        assertFalse(SummaryServer.etag(results(failed())).equals(SummaryServer.etag(results(withHistory))));
+    }
+}